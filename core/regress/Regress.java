@@ -47,6 +47,14 @@ public class Regress extends TestSuite {
     TestSuite coreTests = new TestSuite();
     // add tests here!
     //coreTests.addTest(new TestSuite(YourTestCase.class));
+    coreTests.addTest(new TestSuite(
+          org.cougaar.core.thread.CreditSchedulerTest.class));
+    coreTests.addTest(new TestSuite(
+          org.cougaar.core.wp.server.RootAuthorityTest.class));
+    coreTests.addTest(new TestSuite(
+          org.cougaar.core.agent.service.alarm.AlarmQueueTest.class));
+    coreTests.addTest(new TestSuite(
+          org.cougaar.core.blackboard.SubscriberInboxTest.class));
     return coreTests;
   }
 }
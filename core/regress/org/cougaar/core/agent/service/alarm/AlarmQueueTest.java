@@ -0,0 +1,178 @@
+/*
+ * <copyright>
+ *  
+ *  Copyright 1997-2004 BBNT Solutions, LLC
+ *  under sponsorship of the Defense Advanced Research Projects
+ *  Agency (DARPA).
+ * 
+ *  You can redistribute this software and/or modify it under the
+ *  terms of the Cougaar Open Source License as published on the
+ *  Cougaar Open Source Website (www.cougaar.org).
+ * 
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *  
+ * </copyright>
+ */
+
+package org.cougaar.core.agent.service.alarm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks that the {@link AlarmQueue} heap returns alarms in the same
+ * order as the sorted list that the {@link Timer} used before it,
+ * under randomized adds, cancels and polls, and compares the speed
+ * of the two.
+ */
+public class AlarmQueueTest extends TestCase {
+
+  private static final int SEEDS = 20;
+  private static final int OPERATIONS = 20000;
+
+  /** Randomized add/cancel/poll, with duplicate times and re-adds */
+  public void testRandomizedPollOrder() {
+    for (int seed = 0; seed < SEEDS; seed++) {
+      Random r = new Random(seed);
+      AlarmQueue heap = new AlarmQueue();
+      SortedAlarmList list = new SortedAlarmList();
+      List added = new ArrayList();
+      for (int op = 0; op < OPERATIONS; op++) {
+        String where = "seed "+seed+" op "+op;
+        int choice = r.nextInt(10);
+        if (choice < 5) {
+          // add, sometimes an alarm that was added before
+          TestAlarm alarm;
+          if (!added.isEmpty() && r.nextInt(8) == 0) {
+            alarm = (TestAlarm) added.get(r.nextInt(added.size()));
+          } else {
+            // few distinct times, so many alarms tie
+            alarm = new TestAlarm(op, r.nextInt(50));
+            added.add(alarm);
+          }
+          heap.add(alarm);
+          list.add(alarm);
+        } else if (choice < 8) {
+          // cancel, possibly an alarm that isn't queued
+          if (added.isEmpty()) continue;
+          Alarm alarm = (Alarm) added.get(r.nextInt(added.size()));
+          assertEquals(where+" remove "+alarm,
+                       list.remove(alarm), heap.remove(alarm));
+        } else {
+          assertSame(where+" peek", list.peek(), heap.peek());
+          assertSame(where+" poll", list.poll(), heap.poll());
+        }
+        assertEquals(where+" size", list.size(), heap.size());
+      }
+      // drain
+      while (!list.isEmpty()) {
+        assertSame("seed "+seed+" drain", list.poll(), heap.poll());
+      }
+      assertTrue(heap.isEmpty());
+      assertNull(heap.poll());
+    }
+  }
+
+  /** Add all, cancel half, then drain, as the Timer would */
+  public void testListVersusHeap() {
+    int[] sizes = { 1000, 10000, 50000 };
+    for (int i = 0; i < sizes.length; i++) {
+      int n = sizes[i];
+      TestAlarm[] alarms = new TestAlarm[n];
+      Random r = new Random(n);
+      for (int j = 0; j < n; j++) {
+        alarms[j] = new TestAlarm(j, r.nextInt(n));
+      }
+
+      long start = System.currentTimeMillis();
+      SortedAlarmList list = new SortedAlarmList();
+      for (int j = 0; j < n; j++) list.add(alarms[j]);
+      for (int j = 0; j < n; j += 2) list.remove(alarms[j]);
+      while (list.poll() != null);
+      long listMillis = System.currentTimeMillis() - start;
+
+      start = System.currentTimeMillis();
+      AlarmQueue heap = new AlarmQueue();
+      for (int j = 0; j < n; j++) heap.add(alarms[j]);
+      for (int j = 0; j < n; j += 2) heap.remove(alarms[j]);
+      while (heap.poll() != null);
+      long heapMillis = System.currentTimeMillis() - start;
+
+      System.out.println(
+          n+" alarms: list "+listMillis+"ms, heap "+heapMillis+"ms");
+    }
+  }
+
+  private static final class TestAlarm implements Alarm {
+    private final int id;
+    private final long time;
+    TestAlarm(int id, long time) {
+      this.id = id;
+      this.time = time;
+    }
+    public long getExpirationTime() { return time; }
+    public void expire() { }
+    public boolean hasExpired() { return false; }
+    public boolean cancel() { return false; }
+    @Override
+    public String toString() {
+      return "(alarm "+id+" at "+time+")";
+    }
+  }
+
+  /**
+   * The Timer's original alarm list: a linear insertion sort that
+   * puts an alarm after those with equal times, and a cancel that
+   * removes the earliest occurrence.
+   */
+  private static final class SortedAlarmList {
+    private final ArrayList alarms = new ArrayList();
+
+    void add(Alarm alarm) {
+      int i = 0;
+      int n = alarms.size();
+      long t = alarm.getExpirationTime();
+      while (i < n && ((Alarm) alarms.get(i)).getExpirationTime() <= t) {
+        i++;
+      }
+      alarms.add(i, alarm);
+    }
+
+    boolean remove(Alarm alarm) {
+      return alarms.remove(alarm);
+    }
+
+    Alarm peek() {
+      return (alarms.isEmpty() ? null : (Alarm) alarms.get(0));
+    }
+
+    Alarm poll() {
+      return (alarms.isEmpty() ? null : (Alarm) alarms.remove(0));
+    }
+
+    int size() {
+      return alarms.size();
+    }
+
+    boolean isEmpty() {
+      return alarms.isEmpty();
+    }
+  }
+
+  public static void main(String[] args) {
+    junit.textui.TestRunner.run(AlarmQueueTest.class);
+  }
+}
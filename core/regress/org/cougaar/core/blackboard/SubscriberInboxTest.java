@@ -0,0 +1,208 @@
+/*
+ * <copyright>
+ *  
+ *  Copyright 1997-2007 BBNT Solutions, LLC
+ *  under sponsorship of the Defense Advanced Research Projects
+ *  Agency (DARPA).
+ * 
+ *  You can redistribute this software and/or modify it under the
+ *  terms of the Cougaar Open Source License as published on the
+ *  Cougaar Open Source Website (www.cougaar.org).
+ * 
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *  
+ * </copyright>
+ */
+
+package org.cougaar.core.blackboard;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+import org.cougaar.util.UnaryPredicate;
+
+/**
+ * Checks the {@link Subscriber}'s lock-free inbox: any number of
+ * threads deliver envelopes while the client thread flushes them,
+ * and no envelope, watcher signal or quiescence blocker may be lost.
+ */
+public class SubscriberInboxTest extends TestCase {
+
+  private static final int PRODUCERS = 4;
+  private static final int BATCHES = 20000;
+  private static final int BATCH_SIZE = 3;
+  private static final long TIMEOUT_MILLIS = 60000;
+
+  private static final UnaryPredicate nothingP =
+    new UnaryPredicate() {
+      public boolean execute(Object o) {
+        return false;
+      }
+    };
+
+  private Subscriber subscriber;
+  private CountingWatcher watcher;
+
+  @Override
+  protected void setUp() {
+    subscriber = new Subscriber(null, null, "test");
+    // with a subscription the inbox takes the lock-free path
+    synchronized (subscriber.subscriptions) {
+      subscriber.subscriptions.add(new CollectionSubscription(nothingP));
+    }
+    watcher = new CountingWatcher();
+    subscriber.registerInterest(watcher);
+  }
+
+  /** Deliveries before a flush signal the watchers only once */
+  public void testSignalCoalescing() {
+    subscriber.receiveEnvelopes(batch(), false);
+    subscriber.receiveEnvelopes(batch(), false);
+    assertEquals(1, watcher.signals.get());
+    assertTrue(subscriber.isBusy());
+    assertEquals(2 * BATCH_SIZE, subscriber.getPendingEnvelopes().size());
+
+    assertEquals(2 * BATCH_SIZE, drain());
+    assertFalse(subscriber.isBusy());
+
+    subscriber.receiveEnvelopes(batch(), false);
+    assertEquals(2, watcher.signals.get());
+    assertEquals(BATCH_SIZE, drain());
+  }
+
+  /** A quiescence blocker holds until its transaction is closed */
+  public void testQuiescenceCount() {
+    assertTrue(subscriber.isQuiescent());
+    subscriber.receiveEnvelopes(batch(), false);
+    assertTrue(subscriber.isQuiescent());
+    subscriber.receiveEnvelopes(batch(), true);
+    subscriber.receiveEnvelopes(batch(), true);
+    assertFalse(subscriber.isQuiescent());
+
+    subscriber.privateUpdateSubscriptions();
+    // flushed, but the transaction's envelopes aren't processed yet
+    assertFalse(subscriber.isQuiescent());
+    subscriber.privateGetPublishedChanges();
+    assertTrue(subscriber.isQuiescent());
+
+    subscriber.receiveEnvelopes(batch(), true);
+    assertFalse(subscriber.isQuiescent());
+    drain();
+    assertTrue(subscriber.isQuiescent());
+  }
+
+  /**
+   * Producers deliver while the client thread waits for signals
+   * and drains.  A lost wakeup leaves envelopes pending with the
+   * client asleep, so the client never catches up.
+   */
+  public void testConcurrentSignalAndDrain() throws Exception {
+    final AtomicInteger delivered = new AtomicInteger();
+    final AtomicInteger drained = new AtomicInteger();
+    final AtomicReference failure = new AtomicReference();
+    final boolean[] stop = new boolean[1];
+
+    Thread client = new Thread("Client") {
+      @Override
+      public void run() {
+        while (true) {
+          watcher.waitForSignal();
+          synchronized (stop) {
+            if (stop[0]) return;
+          }
+          int n = drain();
+          if (n % BATCH_SIZE != 0 && failure.get() == null) {
+            failure.set("drained a partial batch of " + n);
+          }
+          drained.addAndGet(n);
+        }
+      }
+    };
+    client.start();
+
+    Thread[] producers = new Thread[PRODUCERS];
+    for (int p = 0; p < PRODUCERS; p++) {
+      producers[p] = new Thread("Producer-"+p) {
+        @Override
+        public void run() {
+          for (int i = 0; i < BATCHES; i++) {
+            subscriber.receiveEnvelopes(batch(), (i % 3) == 0);
+            delivered.addAndGet(BATCH_SIZE);
+            if ((i % 64) == 0) {
+              Thread.yield();
+            }
+          }
+        }
+      };
+      producers[p].start();
+    }
+    for (int p = 0; p < PRODUCERS; p++) {
+      producers[p].join();
+    }
+
+    long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+    while (drained.get() < delivered.get() &&
+           System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    synchronized (stop) {
+      stop[0] = true;
+    }
+    watcher.signalNotify(SubscriptionWatcher.CLIENT);
+    client.join();
+
+    assertNull(String.valueOf(failure.get()), failure.get());
+    assertEquals("lost envelopes (or a lost wakeup)",
+                 delivered.get(), drained.get());
+    assertFalse(subscriber.isBusy());
+    assertTrue("quiescence blockers left over", subscriber.isQuiescent());
+    System.out.println(
+        PRODUCERS * BATCHES + " deliveries, " +
+        watcher.signals.get() + " watcher signals");
+  }
+
+  /** One client-thread transaction's worth of inbox handling */
+  private int drain() {
+    subscriber.privateUpdateSubscriptions();
+    int n = subscriber.getTransactionEnvelopes().size();
+    subscriber.privateGetPublishedChanges();
+    return n;
+  }
+
+  private static List batch() {
+    List l = new ArrayList(BATCH_SIZE);
+    for (int i = 0; i < BATCH_SIZE; i++) {
+      l.add(new Envelope());
+    }
+    return l;
+  }
+
+  private static class CountingWatcher extends SubscriptionWatcher {
+    final AtomicInteger signals = new AtomicInteger();
+    @Override
+    public synchronized void signalNotify(int event) {
+      if (event == EXTERNAL) {
+        signals.incrementAndGet();
+      }
+      super.signalNotify(event);
+    }
+  }
+
+  public static void main(String[] args) {
+    junit.textui.TestRunner.run(SubscriberInboxTest.class);
+  }
+}
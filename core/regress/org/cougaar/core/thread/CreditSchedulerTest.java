@@ -0,0 +1,173 @@
+/*
+ * <copyright>
+ *  
+ *  Copyright 1997-2004 BBNT Solutions, LLC
+ *  under sponsorship of the Defense Advanced Research Projects
+ *  Agency (DARPA).
+ * 
+ *  You can redistribute this software and/or modify it under the
+ *  terms of the Cougaar Open Source License as published on the
+ *  Cougaar Open Source Website (www.cougaar.org).
+ * 
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *  
+ * </copyright>
+ */
+
+
+package org.cougaar.core.thread;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.cougaar.core.service.ThreadService;
+
+/**
+ * A benchmark of many agents whose Schedulables run short,
+ * self-restarting cycles, as plugins do, comparing the {@link
+ * PropagatingScheduler} with the {@link CreditScheduler}.
+ * <p>
+ * Every run also checks that all the cycles complete, which catches
+ * rights that are lost, or left as idle credit while work is queued.
+ */
+public class CreditSchedulerTest extends TestCase {
+
+    private static final int LANE = ThreadService.BEST_EFFORT_LANE;
+    private static final int MAX_THREADS = 8;
+    private static final long TIMEOUT_SECONDS = 120;
+
+    private static volatile long sink;
+
+    private ThreadPool[] pools;
+
+    @Override
+    protected void setUp() {
+	SchedulableStateChangeQueue.startThread();
+	pools = new ThreadPool[ThreadService.LANE_COUNT];
+	for (int i = 0; i < pools.length; i++) {
+	    pools[i] = new ThreadPool(MAX_THREADS, MAX_THREADS, "Test-"+i);
+	}
+    }
+
+    @Override
+    protected void tearDown() {
+	SchedulableStateChangeQueue.stopThread();
+	for (int i = 0; i < pools.length; i++) {
+	    pools[i].stopAllThreads();
+	}
+    }
+
+    public void testPropagatingScheduler() throws Exception {
+	run("propagating", 0, 64, 500);
+    }
+
+    public void testCreditScheduler() throws Exception {
+	run("credit", 2, 64, 500);
+    }
+
+    public void testFewAgentsWithCredit() throws Exception {
+	// fewer agents than threads, so credit is rarely reclaimed
+	run("credit, few agents", 2, 4, 5000);
+    }
+
+    public void testManyAgentsWithCredit() throws Exception {
+	// far more agents than rights, so credit is reclaimed constantly
+	run("credit, many agents", 4, 512, 100);
+    }
+
+    private void run(String label, int maxCredit, int agentCount, int cycles)
+	throws InterruptedException
+    {
+	ThreadServiceProxy root = makeNode("Node", null, maxCredit);
+	CountDownLatch done = new CountDownLatch(agentCount);
+	Agent[] agents = new Agent[agentCount];
+	for (int i = 0; i < agentCount; i++) {
+	    ThreadServiceProxy proxy = makeNode("Agent"+i, root, maxCredit);
+	    agents[i] = new Agent(cycles, done);
+	    agents[i].schedulable = 
+		proxy.getThread(agents[i], agents[i], "Agent"+i, LANE);
+	}
+	long start = System.nanoTime();
+	for (int i = 0; i < agentCount; i++) {
+	    agents[i].schedulable.start();
+	}
+	boolean finished = done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+	long millis = (System.nanoTime() - start) / 1000000;
+	assertTrue(label+ ": " +done.getCount()+ " of " +agentCount+
+		   " agents didn't finish their cycles",
+		   finished);
+	long total = (long) agentCount * cycles;
+	System.out.println(label+ ": " +agentCount+ " agents, " +total+
+			   " cycles in " +millis+ " ms, " +
+			   (millis == 0 ? total : total * 1000 / millis)+
+			   " cycles/sec");
+    }
+
+    // Like ThreadServiceProvider.makeProxies
+    private ThreadServiceProxy makeNode(String name, 
+					ThreadServiceProxy parent,
+					int maxCredit)
+    {
+	int laneCount = ThreadService.LANE_COUNT;
+	ThreadListenerProxy listeners = new ThreadListenerProxy(laneCount);
+	Scheduler[] schedulers = new Scheduler[laneCount];
+	for (int i = 0; i < laneCount; i++) {
+	    Scheduler scheduler;
+	    if (maxCredit > 0) {
+		CreditScheduler credit = new CreditScheduler(listeners);
+		credit.setMaxCredit(maxCredit);
+		scheduler = credit;
+	    } else {
+		scheduler = new PropagatingScheduler(listeners);
+	    }
+	    scheduler.setLane(i);
+	    scheduler.setAbsoluteMax(MAX_THREADS);
+	    schedulers[i] = scheduler;
+	}
+	TreeNode node = new TreeNode(schedulers, pools, name, parent);
+	listeners.setTreeNode(node);
+	return new ThreadServiceProxy(node);
+    }
+
+    /** A plugin-like Runnable that restarts itself after a short cycle */
+    private static final class Agent implements Runnable {
+	private final int cycles;
+	private final CountDownLatch done;
+	private Schedulable schedulable;
+	private int count;
+
+	Agent(int cycles, CountDownLatch done) {
+	    this.cycles = cycles;
+	    this.done = done;
+	}
+
+	public void run() {
+	    long x = count;
+	    for (int i = 0; i < 1000; i++) {
+		x = x * 31 + i;
+	    }
+	    sink = x;
+	    if (++count < cycles) {
+		schedulable.start();
+	    } else {
+		done.countDown();
+	    }
+	}
+    }
+
+    public static void main(String[] args) {
+	junit.textui.TestRunner.run(CreditSchedulerTest.class);
+    }
+}
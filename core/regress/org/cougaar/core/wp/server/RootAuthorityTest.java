@@ -0,0 +1,242 @@
+/*
+ * <copyright>
+ *
+ *  Copyright 1997-2004 BBNT Solutions, LLC
+ *  under sponsorship of the Defense Advanced Research Projects
+ *  Agency (DARPA).
+ *
+ *  You can redistribute this software and/or modify it under the
+ *  terms of the Cougaar Open Source License as published on the
+ *  Cougaar Open Source Website (www.cougaar.org).
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * </copyright>
+ */
+
+package org.cougaar.core.wp.server;
+
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+import org.cougaar.core.logging.NullLoggingServiceImpl;
+import org.cougaar.core.mts.MessageAddress;
+import org.cougaar.core.persist.PersistenceState;
+import org.cougaar.core.service.UIDService;
+import org.cougaar.core.util.UID;
+import org.cougaar.core.util.UniqueObject;
+import org.cougaar.core.wp.resolver.Lease;
+import org.cougaar.core.wp.resolver.Record;
+
+/**
+ * Lookups in the {@link RootAuthority} don't take its lock, so this
+ * checks that concurrent lookups never see a record's uid paired
+ * with another binding's data, and measures the lookup throughput
+ * as the rate of concurrent modifies grows.
+ */
+public class RootAuthorityTest extends TestCase {
+
+  private static final int NAMES = 64;
+  private static final int READERS = 4;
+  private static final int WRITERS = 2;
+  private static final long RUN_MILLIS = 2000;
+
+  private RootAuthority ra;
+  private volatile boolean running;
+  private final AtomicReference failure = new AtomicReference();
+
+  @Override
+  protected void setUp() {
+    ra = new RootAuthority();
+    ra.setLoggingService(NullLoggingServiceImpl.getLoggingService());
+    ra.setUIDService(new TestUIDService("Test"));
+    ra.loadDirectory();
+  }
+
+  /**
+   * Each binding's data is its uid's string, so a lookup that pairs
+   * a uid with the wrong data is caught.
+   */
+  public void testConcurrentLookupAndModify() throws Exception {
+    AtomicLong lookups = new AtomicLong();
+    AtomicLong modifies = new AtomicLong();
+    Thread[] threads = start(READERS, WRITERS, 0, lookups, modifies);
+    Thread.sleep(RUN_MILLIS);
+    stop(threads);
+    assertNull(String.valueOf(failure.get()), failure.get());
+
+    // once quiet, every name answers with the last thing written
+    for (int i = 0; i < NAMES; i++) {
+      String name = "n" + i;
+      Object answer = ra.localLookup(name, null);
+      assertTrue(name + " answered " + answer, answer instanceof Record);
+      Record r = (Record) answer;
+      Object data = r.getData();
+      assertTrue(name + " answered " + r,
+                 data == null || data.equals(r.getUID().toString()));
+    }
+    assertTrue("no modifies", modifies.get() > 0);
+    assertTrue("no lookups", lookups.get() > 0);
+  }
+
+  /**
+   * Lookup throughput with no writers, with paced writers, and with
+   * writers modifying as fast as they can.
+   */
+  public void testLookupThroughput() throws Exception {
+    measure("no modifies", 0, 0);
+    measure("paced modifies", WRITERS, 1);
+    measure("unpaced modifies", WRITERS, 0);
+    assertNull(String.valueOf(failure.get()), failure.get());
+  }
+
+  private void measure(String label, int writers, long pauseMillis)
+    throws InterruptedException {
+    AtomicLong lookups = new AtomicLong();
+    AtomicLong modifies = new AtomicLong();
+    Thread[] threads = start(READERS, writers, pauseMillis, lookups, modifies);
+    long start = System.currentTimeMillis();
+    Thread.sleep(RUN_MILLIS);
+    stop(threads);
+    long millis = System.currentTimeMillis() - start;
+    System.out.println(
+        label+": "+
+        (lookups.get() * 1000 / millis)+" lookups/sec, "+
+        (modifies.get() * 1000 / millis)+" modifies/sec");
+  }
+
+  private Thread[] start(
+      int readers, int writers, final long pauseMillis,
+      final AtomicLong lookups, final AtomicLong modifies) {
+    running = true;
+    Thread[] threads = new Thread[readers + writers];
+    for (int i = 0; i < readers; i++) {
+      threads[i] = new Thread("Reader-"+i) {
+        @Override
+        public void run() {
+          int n = 0;
+          while (running) {
+            lookup((n++ % 8) == 0 ? "." : ("n" + (n % NAMES)));
+            lookups.incrementAndGet();
+          }
+        }
+      };
+    }
+    for (int w = 0; w < writers; w++) {
+      final int first = w;
+      final int step = writers;
+      threads[readers + w] = new Thread("Writer-"+w) {
+        @Override
+        public void run() {
+          UIDService uids = new TestUIDService("Writer-"+first);
+          int n = 0;
+          while (running) {
+            // each writer owns every step'th name
+            String name = "n" + (first + step * (n % (NAMES / step)));
+            UID uid = uids.nextUID();
+            // unbind now and then
+            Object data = ((n % 5) == 4 ? null : uid.toString());
+            Object answer = ra.localModify(name, new Record(uid, -1, data));
+            if (!(answer instanceof Lease)) {
+              recordFailure(name + " modify returned " + answer);
+            }
+            modifies.incrementAndGet();
+            n++;
+            if (pauseMillis > 0) {
+              try {
+                Thread.sleep(pauseMillis);
+              } catch (InterruptedException ie) {
+                return;
+              }
+            }
+          }
+        }
+      };
+    }
+    for (int i = 0; i < threads.length; i++) {
+      threads[i].start();
+    }
+    return threads;
+  }
+
+  private void stop(Thread[] threads) throws InterruptedException {
+    running = false;
+    for (int i = 0; i < threads.length; i++) {
+      threads[i].join();
+    }
+  }
+
+  private void lookup(String name) {
+    Object answer;
+    try {
+      answer = ra.localLookup(name, null);
+    } catch (RuntimeException e) {
+      recordFailure(name + " lookup threw " + e);
+      return;
+    }
+    if (!(answer instanceof Record)) {
+      recordFailure(name + " lookup returned " + answer);
+      return;
+    }
+    Record r = (Record) answer;
+    Object data = r.getData();
+    if (name.charAt(0) == '.') {
+      if (data != null && !(data instanceof Set)) {
+        recordFailure(name + " list returned " + r);
+      }
+    } else if (data != null && !data.equals(r.getUID().toString())) {
+      recordFailure(name + " paired uid " + r.getUID() + " with " + data);
+    }
+  }
+
+  private void recordFailure(String reason) {
+    failure.compareAndSet(null, reason);
+  }
+
+  private static class TestUIDService implements UIDService {
+    private final String prefix;
+    private long count = 0;
+
+    TestUIDService(String prefix) {
+      this.prefix = prefix;
+    }
+
+    public MessageAddress getMessageAddress() {
+      return MessageAddress.getMessageAddress(prefix);
+    }
+
+    public synchronized UID nextUID() {
+      return new UID(prefix, ++count);
+    }
+
+    public UID registerUniqueObject(UniqueObject o) {
+      UID uid = nextUID();
+      o.setUID(uid);
+      return uid;
+    }
+
+    public PersistenceState getPersistenceState() {
+      return null;
+    }
+
+    public void setPersistenceState(PersistenceState state) {
+    }
+  }
+
+  public static void main(String[] args) {
+    junit.textui.TestRunner.run(RootAuthorityTest.class);
+  }
+}
@@ -44,6 +44,7 @@ import org.cougaar.core.logging.LoggingServiceWithPrefix;
 import org.cougaar.core.mts.Message;
 import org.cougaar.core.mts.MessageAddress;
 import org.cougaar.core.mts.MessageHandler;
+import org.cougaar.core.mts.TypedMessageHandler;
 import org.cougaar.core.node.NodeIdentificationService;
 import org.cougaar.core.node.service.NaturalTimeService;
 import org.cougaar.core.service.AgentIdentificationService;
@@ -138,7 +139,10 @@ public void load() {
     }
 
     // register message handler for DemoControlMessages
-    MessageHandler mh = new MessageHandler() {
+    MessageHandler mh = new TypedMessageHandler() {
+      public Class getMessageClass() {
+        return DemoControlMessage.class;
+      }
       public boolean handleMessage(Message message) {
         if (message instanceof DemoControlMessage) {
           receiveLater((DemoControlMessage) message);
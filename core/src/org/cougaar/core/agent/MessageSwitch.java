@@ -29,6 +29,8 @@ package org.cougaar.core.agent;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.cougaar.bootstrap.SystemProperties;
 import org.cougaar.core.agent.service.MessageSwitchService;
@@ -41,6 +43,7 @@ import org.cougaar.core.mts.Message;
 import org.cougaar.core.mts.MessageAddress;
 import org.cougaar.core.mts.MessageHandler;
 import org.cougaar.core.mts.MessageTransportClient;
+import org.cougaar.core.mts.TypedMessageHandler;
 import org.cougaar.core.persist.PersistenceClient;
 import org.cougaar.core.persist.PersistenceIdentity;
 import org.cougaar.core.persist.PersistenceService;
@@ -622,32 +625,93 @@ public void unload() {
    * MessageSwitchImpl is a MessageHandler which calls an ordered 
    * list of other MessageHandler instances in order until 
    * one returns a true value from handle.
+   * <p>
+   * The handlers for each message class are precomputed into a
+   * dispatch table, which skips the {@link TypedMessageHandler}s
+   * of other classes and is read without the handlers lock.
    */
   private static final class MessageSwitchImpl implements MessageHandler {
+    private static final MessageHandler[] NO_HANDLERS =
+      new MessageHandler[0];
+
     private final LoggingService log;
     /** List of MessageHandler instances */
     private final List handlers = new ArrayList(11);
     /** list of pending (unhandled) messages - protected by lock on handlers. */
     private List pendingMessages = new ArrayList(11);
 
+    /**
+     * Map&lt;Class, MessageHandler[]&gt; of the handlers for each
+     * message class, replaced when the handlers change.
+     */
+    private volatile Map table = new ConcurrentHashMap();
+    /**
+     * incremented after the table is replaced, so a reader of the
+     * version sees the matching table.  Modified within
+     * synchronized(handlers).
+     */
+    private volatile int version;
+
     public MessageSwitchImpl(LoggingService log) {
       this.log = log;
     }
 
     public boolean handleMessage(Message m) {
-      synchronized (handlers) {
-        for (int i=0, l=handlers.size(); i<l; i++) {
-          MessageHandler h = (MessageHandler) handlers.get(i);
-          if (h.handleMessage(m)) return true;
+      Class cl = m.getClass();
+      while (true) {
+        int v = version;
+        Map t = table;
+        MessageHandler[] hs = (MessageHandler[]) t.get(cl);
+        if (hs == null) {
+          synchronized (handlers) {
+            hs = getHandlers(cl);
+          }
+          t.put(cl, hs);
+        }
+        for (int i = 0; i < hs.length; i++) {
+          if (hs[i].handleMessage(m)) return true;
+        }
+        synchronized (handlers) {
+          if (v == version) {
+            pendMessage(m);
+            return false;
+          }
+          // a handler was added while we were dispatching, so we
+          // must try again rather than miss its resubmit
         }
-        pendMessage(m);
       }
-      return false;
+    }
+
+    // must be called within synchronized(handlers)
+    private MessageHandler[] getHandlers(Class cl) {
+      List l = null;
+      for (int i=0, n=handlers.size(); i<n; i++) {
+        MessageHandler h = (MessageHandler) handlers.get(i);
+        if (h instanceof TypedMessageHandler &&
+            !((TypedMessageHandler) h).getMessageClass().isAssignableFrom(cl)) {
+          continue;
+        }
+        if (l == null) {
+          l = new ArrayList(n);
+        }
+        l.add(h);
+      }
+      return
+        (l == null ?
+         NO_HANDLERS :
+         (MessageHandler[]) l.toArray(new MessageHandler[l.size()]));
+    }
+
+    // must be called within synchronized(handlers)
+    private void handlersChanged() {
+      table = new ConcurrentHashMap();
+      version++;
     }
 
     public void addMessageHandler(MessageHandler mh) {
       synchronized (handlers) {
         handlers.add(mh);
+        handlersChanged();
         resubmitPendingMessages(mh);
       }
     }
@@ -655,6 +719,7 @@ public void unload() {
    public void removeMessageHandler(MessageHandler mh) {
       synchronized (handlers) {
         handlers.remove(mh);
+        handlersChanged();
       }
     }
 
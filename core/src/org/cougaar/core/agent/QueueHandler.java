@@ -28,6 +28,10 @@ package org.cougaar.core.agent;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.cougaar.core.agent.service.MessageSwitchService;
 import org.cougaar.core.blackboard.BlackboardForAgent;
@@ -36,6 +40,7 @@ import org.cougaar.core.component.ServiceBroker;
 import org.cougaar.core.mts.Message;
 import org.cougaar.core.mts.MessageAddress;
 import org.cougaar.core.mts.MessageHandler;
+import org.cougaar.core.mts.TypedMessageHandler;
 import org.cougaar.core.service.AgentIdentificationService;
 import org.cougaar.core.service.LoggingService;
 import org.cougaar.core.service.ThreadService;
@@ -46,6 +51,10 @@ import org.cougaar.util.GenericStateModelAdapter;
  * This component buffers blackboard messages while the agent is
  * loading, plus switches threads when receiving messages to avoid
  * blocking the message transport thread.
+ * <p>
+ * Received messages are added to a lock-free queue, and the
+ * queue's thread is only restarted by the first message of each
+ * batch.
  */
 public final class QueueHandler
 extends GenericStateModelAdapter
@@ -86,7 +95,10 @@ public void load() {
 
 
     // register message handler to observe all incoming messages
-    MessageHandler mh = new MessageHandler() {
+    MessageHandler mh = new TypedMessageHandler() {
+      public Class getMessageClass() {
+        return ClusterMessage.class;
+      }
       public boolean handleMessage(Message message) {
         if (message instanceof ClusterMessage) {
           // internal message queue
@@ -168,7 +180,11 @@ public void unload() {
   private void stopThread() {
     synchronized (lock) {
       if (isStarted) {
-        getHandler().halt();
+        QueueHandlerBody h = getHandler();
+        h.halt();
+        if (log.isInfoEnabled()) {
+          log.info(h.getStatistics());
+        }
         isStarted = false;
         body = null;
       }
@@ -209,11 +225,21 @@ public void unload() {
 
   private static final class QueueHandlerBody implements Runnable {
     private QueueClient client;
-    private final List queue = new ArrayList();
+    // multiple MTS threads add, our thread removes
+    private final Queue queue = new ConcurrentLinkedQueue();
     private final List msgs = new ArrayList();
-    private boolean ready = false;
+    private final Object lock = new Object();
+    private volatile boolean ready = false;
     private boolean active = false;
+    // true if our thread has been started for the queued messages
+    private final AtomicBoolean scheduled = new AtomicBoolean();
     private Schedulable sched;
+    // statistics
+    private final AtomicInteger depth = new AtomicInteger();
+    private int maxDepth;
+    private int batches;
+    private int received;
+    private int maxBatch;
     public QueueHandlerBody(QueueClient client,
         ThreadService tsvc)
     {
@@ -222,18 +248,19 @@ public void unload() {
           client.getMessageAddress()+"/RQ");
     }
     void start() {
-      synchronized (queue) {
+      synchronized (lock) {
         ready = true;
+        scheduled.set(true);
         sched.start();
       }
     }
     public void halt() {
-      synchronized (queue) {
+      synchronized (lock) {
         ready = false;
         sched.cancel();
         while (active) {
           try {
-            queue.wait();
+            lock.wait();
           } catch (InterruptedException ie) {
           }
         }
@@ -241,31 +268,56 @@ public void unload() {
       client = null;
     }
     public void run() {
-      synchronized (queue) {
+      synchronized (lock) {
         if (!ready) {
           return;
         }
-        if (queue.isEmpty()) {
-          return;
-        }
-
         active = true;
-        msgs.addAll(queue);
-        queue.clear();
-      }
-      if (!msgs.isEmpty()) {
-        client.receiveQueuedMessages(msgs);
-        msgs.clear();
       }
-      synchronized (queue) {
-        active = false;
-        queue.notify(); // only used for halt()
+      // clear before we drain, so a message added after our last
+      // poll will restart us
+      scheduled.set(false);
+      try {
+        Object m;
+        while ((m = queue.poll()) != null) {
+          msgs.add(m);
+        }
+        int n = msgs.size();
+        if (n > 0) {
+          depth.addAndGet(-n);
+          batches++;
+          received += n;
+          if (maxBatch < n) {
+            maxBatch = n;
+          }
+          client.receiveQueuedMessages(msgs);
+          msgs.clear();
+        }
+      } finally {
+        synchronized (lock) {
+          active = false;
+          lock.notify(); // only used for halt()
+        }
       }
     }
     public void addMessage(ClusterMessage m) {
-      synchronized (queue) {
-        queue.add(m);
-        if (ready) sched.start(); // restart 
+      queue.add(m);
+      int d = depth.incrementAndGet();
+      if (maxDepth < d) {
+        // racy, but only used for statistics
+        maxDepth = d;
+      }
+      if (ready && scheduled.compareAndSet(false, true)) {
+        sched.start(); // restart 
+      }
+    }
+    public String getStatistics() {
+      synchronized (lock) {
+        return
+          "Received "+received+" messages in "+batches+
+          " batches, max batch "+maxBatch+
+          ", queue depth "+depth.get()+
+          ", max queue depth "+maxDepth;
       }
     }
   }
@@ -0,0 +1,251 @@
+/*
+ * <copyright>
+ *  
+ *  Copyright 1997-2004 BBNT Solutions, LLC
+ *  under sponsorship of the Defense Advanced Research Projects
+ *  Agency (DARPA).
+ * 
+ *  You can redistribute this software and/or modify it under the
+ *  terms of the Cougaar Open Source License as published on the
+ *  Cougaar Open Source Website (www.cougaar.org).
+ * 
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *  
+ * </copyright>
+ */
+
+
+package org.cougaar.core.agent.service.alarm;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * A priority queue of {@link Alarm}s ordered by expiration time, used
+ * by the {@link Timer}.
+ * <p>
+ * This is a binary heap with lazy cancellation:  "remove" finds the
+ * alarm's heap entry via an identity map and marks it cancelled in
+ * constant time.  Cancelled entries are discarded when they reach
+ * the top of the heap, or all at once when they make up more than
+ * half of the heap.  Alarms with equal expiration times are returned
+ * in the order in which they were added.
+ * <p>
+ * An alarm's expiration time is read once, when it is added, since
+ * the Alarm API requires it to be a fixed value.
+ * <p>
+ * This class is not synchronized; the Timer guards it with its
+ * "sem" lock.
+ */
+final class AlarmQueue {
+
+  private static final int INITIAL_CAPACITY = 64;
+
+  private Entry[] heap = new Entry[INITIAL_CAPACITY];
+  /** number of heap slots in use, including cancelled entries */
+  private int used;
+  /** number of cancelled entries still in the heap */
+  private int cancelled;
+  private long nextSequence;
+
+  /**
+   * Map from Alarm to its most recently added live Entry, which
+   * links to any older live entries for the same alarm.
+   */
+  private final Map<Alarm,Entry> index = new IdentityHashMap<Alarm,Entry>();
+
+  private static final class Entry {
+    final Alarm alarm;
+    final long time;
+    final long sequence;
+    Entry older;
+    boolean isCancelled;
+
+    Entry(Alarm alarm, long sequence, Entry older) {
+      this.alarm = alarm;
+      this.time = alarm.getExpirationTime();
+      this.sequence = sequence;
+      this.older = older;
+    }
+
+    boolean before(Entry e) {
+      return (time < e.time || (time == e.time && sequence < e.sequence));
+    }
+  }
+
+  /** @return the number of live alarms in the queue */
+  public int size() {
+    return used - cancelled;
+  }
+
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  public void add(Alarm alarm) {
+    Entry e = new Entry(alarm, nextSequence++, index.get(alarm));
+    index.put(alarm, e);
+    if (used == heap.length) {
+      Entry[] bigger = new Entry[heap.length << 1];
+      System.arraycopy(heap, 0, bigger, 0, used);
+      heap = bigger;
+    }
+    heap[used] = e;
+    siftUp(used++);
+  }
+
+  /**
+   * Remove the earliest occurrence of the alarm.
+   * @return false if the alarm was not queued
+   */
+  public boolean remove(Alarm alarm) {
+    Entry e = index.get(alarm);
+    if (e == null) {
+      return false;
+    }
+    while (e.older != null) {
+      e = e.older;
+    }
+    unlink(e);
+    e.isCancelled = true;
+    if (++cancelled > (used >>> 1)) {
+      purge();
+    }
+    return true;
+  }
+
+  /** @return the alarm with the earliest expiration time, or null */
+  public Alarm peek() {
+    skipCancelled();
+    return (used == 0 ? null : heap[0].alarm);
+  }
+
+  /** Remove and return the alarm with the earliest expiration time */
+  public Alarm poll() {
+    skipCancelled();
+    if (used == 0) {
+      return null;
+    }
+    Entry top = heap[0];
+    unlink(top);
+    removeTop();
+    return top.alarm;
+  }
+
+  public void clear() {
+    for (int i = 0; i < used; i++) {
+      heap[i] = null;
+    }
+    used = 0;
+    cancelled = 0;
+    index.clear();
+  }
+
+  @Override
+  public String toString() {
+    StringBuffer buf = new StringBuffer("[");
+    boolean first = true;
+    for (int i = 0; i < used; i++) {
+      if (heap[i].isCancelled) continue;
+      if (!first) buf.append(", ");
+      buf.append(heap[i].alarm);
+      first = false;
+    }
+    return buf.append("]").toString();
+  }
+
+  private void skipCancelled() {
+    while (used > 0 && heap[0].isCancelled) {
+      removeTop();
+      --cancelled;
+    }
+  }
+
+  // remove a live entry from the index chain of its alarm
+  private void unlink(Entry e) {
+    Entry head = index.get(e.alarm);
+    if (head == e) {
+      if (e.older == null) {
+        index.remove(e.alarm);
+      } else {
+        index.put(e.alarm, e.older);
+      }
+      return;
+    }
+    for (Entry x = head; x != null; x = x.older) {
+      if (x.older == e) {
+        x.older = e.older;
+        return;
+      }
+    }
+  }
+
+  private void removeTop() {
+    Entry last = heap[--used];
+    heap[used] = null;
+    if (used > 0) {
+      heap[0] = last;
+      siftDown(0);
+    }
+  }
+
+  // drop all cancelled entries and rebuild the heap
+  private void purge() {
+    int n = 0;
+    for (int i = 0; i < used; i++) {
+      if (!heap[i].isCancelled) {
+        heap[n++] = heap[i];
+      }
+    }
+    for (int i = n; i < used; i++) {
+      heap[i] = null;
+    }
+    used = n;
+    cancelled = 0;
+    for (int i = (used >>> 1) - 1; i >= 0; i--) {
+      siftDown(i);
+    }
+  }
+
+  private void siftUp(int slot) {
+    Entry e = heap[slot];
+    while (slot > 0) {
+      int parent = (slot - 1) >>> 1;
+      Entry p = heap[parent];
+      if (!e.before(p)) {
+        break;
+      }
+      heap[slot] = p;
+      slot = parent;
+    }
+    heap[slot] = e;
+  }
+
+  private void siftDown(int slot) {
+    Entry e = heap[slot];
+    int half = used >>> 1;
+    while (slot < half) {
+      int child = (slot << 1) + 1;
+      int right = child + 1;
+      if (right < used && heap[right].before(heap[child])) {
+        child = right;
+      }
+      if (!heap[child].before(e)) {
+        break;
+      }
+      heap[slot] = heap[child];
+      slot = child;
+    }
+    heap[slot] = e;
+  }
+}
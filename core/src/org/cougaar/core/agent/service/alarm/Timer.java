@@ -27,9 +27,6 @@
 package org.cougaar.core.agent.service.alarm;
 
 import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.Iterator;
-import java.util.ListIterator;
 
 import org.cougaar.bootstrap.SystemProperties;
 import org.cougaar.core.service.ThreadService;
@@ -72,9 +69,8 @@ public abstract class Timer implements Runnable {
         "org.cougaar.core.agent.service.alarm.Timer.useSchedulable",
         true);
 
-  /** all alarms */
-  // this could be optimized to use a heap
-  private final ArrayList alarms = new ArrayList();
+  /** all alarms, ordered by expiration time */
+  private final AlarmQueue alarms = new AlarmQueue();
 
   /** Pending Periodic Alarms.  
    * PeriodicAlarms which have gone off but
@@ -92,15 +88,6 @@ public abstract class Timer implements Runnable {
   private final ArrayList pas = new ArrayList();
 
 
-  private static final Comparator COMPARATOR = new Comparator() {
-      public int compare(Object a, Object b) {
-        long ta = ((Alarm)a).getExpirationTime();
-        long tb = ((Alarm)b).getExpirationTime();
-        if (ta>tb) return 1;
-        if (ta==tb) return 0;
-        return -1;
-      }};
-
   protected final Object sem = new Object();
 
   private Schedulable schedulable;
@@ -125,14 +112,7 @@ public abstract class Timer implements Runnable {
       log.debug("Stop timer");
     }
     synchronized (sem) {
-      Iterator it = alarms.iterator();
-      while (it.hasNext()) {
-        Alarm alarm = (Alarm) it.next();
-        if (alarm == null) {
-          continue;
-        }
-        it.remove();
-      }
+      alarms.clear();
     }
     //schedulable.cancel();
     //schedulable = null;
@@ -191,20 +171,13 @@ public abstract class Timer implements Runnable {
 
   // must be called within sync(sem) 
   private Alarm peekAlarm() {
-    if (alarms.isEmpty())
-      return null;
-    else
-      return (Alarm) alarms.get(0);
+    return alarms.peek();
   }
 
   // must be called within sync(sem) 
   private Alarm nextAlarm() {
-    if (alarms.isEmpty()) return null;
-    Alarm top = (Alarm) alarms.get(0);
-    if (top != null) 
-      alarms.remove(0);
-    if (alarms.isEmpty()) return null;
-    return (Alarm) alarms.get(0);
+    alarms.poll();
+    return alarms.peek();
   }
 
   // must be called only within a sync(sem)
@@ -212,29 +185,9 @@ public abstract class Timer implements Runnable {
     if (log.isDebugEnabled()) {
       log.debug("insert("+alarm+")");
     }
-    boolean added = false;
-    // find the right insertion point
-    ListIterator i = alarms.listIterator(0);
-    if (i.hasNext()) {
-      while (i.hasNext()) {
-        Alarm cur = (Alarm) i.next();
-        // stop if the alarm is < the current insertion point
-        if (COMPARATOR.compare(alarm, cur) < 0) {
-          i.previous();         // back up one step
-          i.add(alarm);         // add before cur
-          added = true;
-          break;               
-        }
-      }
-    }
-    if (!added) {
-      // no elements were greater, add at end
-      alarms.add(alarm);
-    }
+    alarms.add(alarm);
     if (log.isDetailEnabled()) {
-      synchronized (sem) {
-        log.detail("Alarms = "+alarms);
-      }
+      log.detail("Alarms = "+alarms);
     }
   }
 
@@ -27,6 +27,7 @@
 package org.cougaar.core.blackboard;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Enumeration;
@@ -49,6 +50,7 @@ import org.cougaar.core.persist.BlackboardPersistence;
 import org.cougaar.core.persist.Persistence;
 import org.cougaar.core.persist.PersistenceObject;
 import org.cougaar.core.service.AlarmService;
+import org.cougaar.core.service.BlackboardMetricsService;
 import org.cougaar.core.service.DomainForBlackboardService;
 import org.cougaar.core.service.LoggingService;
 import org.cougaar.core.service.ThreadService;
@@ -83,6 +85,11 @@ import org.cougaar.util.log.Logging;
  * @property org.cougaar.core.blackboard.waitForNewCommChangeNotifications Time in 
  * milliseconds to wait for more community changes before asking the community 
  * service for them. Default is 1,000.
+ * @property org.cougaar.core.blackboard.indexByClass
+ *   If enabled (the default), index all published objects by
+ *   class, so queries, counts and subscription fills with a
+ *   {@link ClassBoundPredicate} only visit the matching objects
+ *   instead of the entire blackboard.
  */
 public class Blackboard extends Subscriber
   implements
@@ -91,6 +98,8 @@ public class Blackboard extends Subscriber
   PrivilegedClaimant
 {
   protected CollectionSubscription everything;
+  /** the "everything" collection, or null if not indexed by class */
+  private IndexedObjectSet everythingIndex;
   protected MessageAddress self;
   private Distributor myDistributor;
   protected ServiceBroker myServiceBroker;
@@ -116,6 +125,9 @@ public class Blackboard extends Subscriber
   public static final boolean PEDANTIC = 
     SystemProperties.getBoolean("org.cougaar.core.blackboard.pedantic", true);
 
+  private static final boolean INDEX_BY_CLASS =
+    SystemProperties.getBoolean("org.cougaar.core.blackboard.indexByClass", true);
+
 
   /** the queue of messages to send */
   private List sendQueue = new ArrayList();
@@ -237,7 +249,7 @@ protected EnvelopeTuple clientChangedObject(Object o, List changes) {
     myDistributor = null;
   }
 
-  private static class AllObjectsSet extends HashSet {
+  private static class AllObjectsSet extends IndexedObjectSet {
     /**
     * 
     */
@@ -251,8 +263,8 @@ protected EnvelopeTuple clientChangedObject(Object o, List changes) {
       }
     }
 
-    public AllObjectsSet(int size) {
-      super(size);
+    public AllObjectsSet(int size, boolean indexByClass) {
+      super(size, indexByClass);
     }
     @Override
    public boolean add(Object o) {
@@ -291,11 +303,18 @@ protected EnvelopeTuple clientChangedObject(Object o, List changes) {
   }
 
   public final void init() {
-    everything =
-      new CollectionSubscription(anythingP,
-                                 enablePublishException
-                                 ? new AllObjectsSet(111)
-                                 : new HashSet(111));
+    HashSet allObjects;
+    if (enablePublishException) {
+      allObjects = new AllObjectsSet(111, INDEX_BY_CLASS);
+    } else if (INDEX_BY_CLASS) {
+      allObjects = new IndexedObjectSet(111);
+    } else {
+      allObjects = new HashSet(111);
+    }
+    if (INDEX_BY_CLASS) {
+      everythingIndex = (IndexedObjectSet) allObjects;
+    }
+    everything = new CollectionSubscription(anythingP, allObjects);
     subscribe(everything);
     setReadyToPersist();
   }
@@ -315,16 +334,60 @@ protected EnvelopeTuple clientChangedObject(Object o, List changes) {
       return; // Don't fill ourselves
     }
     Envelope envelope = createQueryEnvelope(subscription);
-    envelope.bulkAddObject(everything.getCollection());
+    envelope.bulkAddObject(getCandidates(subscription.predicate));
     subscription.fill(envelope);
   }
 
   public void fillQuery(Subscription subscription) {
     Envelope envelope = createQueryEnvelope(subscription);
-    envelope.bulkAddObject(everything.getCollection());
+    envelope.bulkAddObject(getCandidates(subscription.predicate));
     subscription.fill(envelope);
   }
 
+  /**
+   * Snapshot the published objects that may match a new
+   * subscription or query.  Called under the protection of the
+   * distributor lock, so the snapshot is consistent with the
+   * envelopes that are distributed after it.
+   * @see #fillSubscription(Subscription,Object[],int)
+   */
+  Object[] snapshotSubscription(Subscription subscription) {
+    return getCandidates(subscription.predicate).toArray();
+  }
+
+  /**
+   * Fill a subscription or query from a snapshot, in batches of at
+   * most "batchSize" objects.  Unlike the other fill methods, this
+   * is called without the distributor lock, so the subscription's
+   * predicate doesn't block distribution.
+   * @see #snapshotSubscription
+   */
+  void fillSubscription(
+      Subscription subscription, Object[] snapshot, int batchSize) {
+    List l = Arrays.asList(snapshot);
+    for (int i = 0, n = snapshot.length; i < n; i += batchSize) {
+      Envelope envelope = createQueryEnvelope(subscription);
+      envelope.bulkAddObject(l.subList(i, Math.min(n, i + batchSize)));
+      subscription.fill(envelope);
+    }
+  }
+
+  /**
+   * @return the published objects that may match the predicate,
+   * which is the entire blackboard unless the predicate is a
+   * {@link ClassBoundPredicate} and we maintain a class index.
+   */
+  private Collection getCandidates(UnaryPredicate predicate) {
+    if (everythingIndex != null &&
+        predicate instanceof ClassBoundPredicate) {
+      Class<?>[] bounds = ((ClassBoundPredicate) predicate).getClassBounds();
+      if (bounds != null && bounds.length > 0) {
+        return everythingIndex.select(bounds);
+      }
+    }
+    return everything.getCollection();
+  }
+
   private Envelope createQueryEnvelope(Subscription subscription) {
     if (isTimestamped()) {
       TimestampedEnvelope te = new TimestampedEnvelope();
@@ -395,7 +458,7 @@ protected EnvelopeTuple clientChangedObject(Object o, List changes) {
   public Enumeration searchBlackboard(UnaryPredicate predicate) {
     Vector vec = new Vector();
 
-    for (Iterator i = everything.getCollection().iterator(); i.hasNext(); ) {
+    for (Iterator i = getCandidates(predicate).iterator(); i.hasNext(); ) {
       Object o = i.next();
       if (predicate.execute(o)) {
         vec.addElement(o);
@@ -405,7 +468,9 @@ protected EnvelopeTuple clientChangedObject(Object o, List changes) {
   }
 
   public int countBlackboard(Class cl) {
-    // could optimize by maintaining an LRU table
+    if (everythingIndex != null) {
+      return everythingIndex.count(cl);
+    }
     int c = 0;
     for (Iterator i = everything.getCollection().iterator(); i.hasNext(); ) {
       Object o = i.next();
@@ -418,7 +483,7 @@ protected EnvelopeTuple clientChangedObject(Object o, List changes) {
 
   public int countBlackboard(UnaryPredicate predicate) {
     int c = 0;
-    for (Iterator i = everything.getCollection().iterator(); i.hasNext(); ) {
+    for (Iterator i = getCandidates(predicate).iterator(); i.hasNext(); ) {
       Object o = i.next();
       if (predicate.execute(o)) {
         c++;
@@ -640,6 +705,12 @@ protected EnvelopeTuple clientChangedObject(Object o, List changes) {
     myDomainService.invokeEnvelopeLogicProviders(obj, isPersistenceEnvelope);
   }
 
+  /** @return the EnvelopeLogicProvider invocation statistics */
+  List<BlackboardMetricsService.LogicProviderStatistics>
+    getLogicProviderStatistics() {
+    return myDomainService.getLogicProviderStatistics();
+  }
+
   private void handleActiveSubscriptionObjects(EnvelopeTuple tup) {
     if (ActiveSubscriptionObject.deferCommit) {
       Object o = tup.getObject();
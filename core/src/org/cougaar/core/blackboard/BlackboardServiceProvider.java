@@ -27,6 +27,7 @@
 package org.cougaar.core.blackboard;
 
 import java.util.Collection;
+import java.util.List;
 
 import org.cougaar.core.component.ServiceBroker;
 import org.cougaar.core.component.ServiceProvider;
@@ -107,6 +108,18 @@ public class BlackboardServiceProvider implements ServiceProvider {
     public int getBlackboardCount(UnaryPredicate predicate) {
       return distributor.getBlackboardCount(predicate);
     }
+    public long getSubscriptionFillCount() {
+      return distributor.getSubscriptionFillCount();
+    }
+    public long getSubscriptionFillTime() {
+      return distributor.getSubscriptionFillTime();
+    }
+    public long getMaxSubscriptionFillTime() {
+      return distributor.getMaxSubscriptionFillTime();
+    }
+    public List<LogicProviderStatistics> getLogicProviderStatistics() {
+      return distributor.getLogicProviderStatistics();
+    }
   }
 
   /** The implementation of BlackboardQueryService */
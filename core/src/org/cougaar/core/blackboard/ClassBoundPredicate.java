@@ -0,0 +1,51 @@
+/*
+ * <copyright>
+ *  
+ *  Copyright 1997-2007 BBNT Solutions, LLC
+ *  under sponsorship of the Defense Advanced Research Projects
+ *  Agency (DARPA).
+ * 
+ *  You can redistribute this software and/or modify it under the
+ *  terms of the Cougaar Open Source License as published on the
+ *  Cougaar Open Source Website (www.cougaar.org).
+ * 
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *  
+ * </copyright>
+ */
+
+package org.cougaar.core.blackboard;
+
+import org.cougaar.util.UnaryPredicate;
+
+/**
+ * A {@link UnaryPredicate} that declares the classes and interfaces
+ * that any matching object must be an instance of.
+ * <p>
+ * The bound is a promise: "execute" must return false for any object
+ * that is not an instance of at least one of the listed classes.  The
+ * {@link Distributor} uses this promise to avoid delivering (and
+ * waking subscribers for) envelopes that can't match any of a
+ * subscriber's subscriptions.
+ *
+ * @see ClassPredicate
+ */
+public interface ClassBoundPredicate<T> extends UnaryPredicate<T> {
+
+  /**
+   * @return the non-empty array of classes and interfaces, at least
+   * one of which a matching object must be assignable to.  A null
+   * result disables class routing for this predicate.
+   */
+  Class<?>[] getClassBounds();
+}
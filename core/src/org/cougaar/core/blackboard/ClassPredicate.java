@@ -0,0 +1,69 @@
+/*
+ * <copyright>
+ *  
+ *  Copyright 1997-2007 BBNT Solutions, LLC
+ *  under sponsorship of the Defense Advanced Research Projects
+ *  Agency (DARPA).
+ * 
+ *  You can redistribute this software and/or modify it under the
+ *  terms of the Cougaar Open Source License as published on the
+ *  Cougaar Open Source Website (www.cougaar.org).
+ * 
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *  
+ * </copyright>
+ */
+
+package org.cougaar.core.blackboard;
+
+/**
+ * A {@link ClassBoundPredicate} that matches all instances of a
+ * single class or interface.
+ * <p>
+ * Subclasses may override "execute" to further restrict the
+ * matches, but must still return false for objects that are not
+ * instances of the bound class. 
+ */
+public class ClassPredicate<T> implements ClassBoundPredicate<T> {
+
+  /**
+   * 
+   */
+  private static final long serialVersionUID = 1L;
+
+  private final Class<?> cl;
+  private final Class<?>[] bounds;
+
+  public ClassPredicate(Class<?> cl) {
+    if (cl == null) throw new IllegalArgumentException("Null class");
+    this.cl = cl;
+    this.bounds = new Class<?>[] { cl };
+  }
+
+  public final Class<?> getBoundClass() {
+    return cl;
+  }
+
+  public final Class<?>[] getClassBounds() {
+    return bounds;
+  }
+
+  public boolean execute(Object o) {
+    return cl.isInstance(o);
+  }
+
+  @Override
+  public String toString() {
+    return "(instanceof "+cl.getName()+")";
+  }
+}
@@ -0,0 +1,152 @@
+/*
+ * <copyright>
+ *  
+ *  Copyright 1997-2007 BBNT Solutions, LLC
+ *  under sponsorship of the Defense Advanced Research Projects
+ *  Agency (DARPA).
+ * 
+ *  You can redistribute this software and/or modify it under the
+ *  terms of the Cougaar Open Source License as published on the
+ *  Cougaar Open Source Website (www.cougaar.org).
+ * 
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *  
+ * </copyright>
+ */
+
+package org.cougaar.core.blackboard;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The set of classes that a {@link Subscriber}'s subscriptions may
+ * match, as declared by their {@link ClassBoundPredicate}s.
+ * <p>
+ * A ClassRouting is immutable except for its match cache, which is
+ * only accessed by the {@link Distributor} while holding its
+ * distributor lock.  The Subscriber replaces its ClassRouting
+ * whenever its set of subscriptions changes.
+ */
+final class ClassRouting {
+
+  /** the union of our subscription class bounds */
+  private final Class<?>[] bounds;
+
+  /** map from concrete Class to Boolean.TRUE if it matches the bounds */
+  private final Map<Class<?>,Boolean> cache = new HashMap<Class<?>,Boolean>();
+
+  private ClassRouting(Class<?>[] bounds) {
+    this.bounds = bounds;
+  }
+
+  /**
+   * Create a ClassRouting for the given list of subscriptions.
+   * @return null if any subscription may match objects of any class
+   */
+  static ClassRouting create(List subscriptions) {
+    if (subscriptions.isEmpty()) {
+      // keep the original delivery rules for subscribers
+      // that are still setting up their subscriptions
+      return null;
+    }
+    List<Class<?>> l = new ArrayList<Class<?>>();
+    for (int i = 0, n = subscriptions.size(); i < n; i++) {
+      Subscription s = (Subscription) subscriptions.get(i);
+      if (s instanceof TodoSubscription) {
+        // fed directly by "receiveEnvelopes", never by tuples
+        continue;
+      }
+      if (!(s instanceof CollectionSubscription) ||
+          !(s.predicate instanceof ClassBoundPredicate)) {
+        return null;
+      }
+      Class<?>[] b = ((ClassBoundPredicate) s.predicate).getClassBounds();
+      if (b == null || b.length == 0) {
+        return null;
+      }
+      for (int j = 0; j < b.length; j++) {
+        if (!l.contains(b[j])) {
+          l.add(b[j]);
+        }
+      }
+    }
+    return new ClassRouting(l.toArray(new Class<?>[l.size()]));
+  }
+
+  /**
+   * Copy the envelopes that contain at least one tuple matching our
+   * class bounds into the "toList".
+   */
+  void selectEnvelopes(List envelopes, List toList) {
+    for (int i = 0, n = envelopes.size(); i < n; i++) {
+      Envelope e = (Envelope) envelopes.get(i);
+      if (matches(e)) {
+        toList.add(e);
+      }
+    }
+  }
+
+  private boolean matches(Envelope e) {
+    if (e instanceof InitializeSubscriptionEnvelope) {
+      return true;
+    }
+    List deltas = e.getRawDeltas();
+    for (int i = 0, n = deltas.size(); i < n; i++) {
+      EnvelopeTuple tuple = (EnvelopeTuple) deltas.get(i);
+      if (tuple.isBulk()) {
+        Collection c = ((BulkEnvelopeTuple) tuple).getCollection();
+        for (Iterator iter = c.iterator(); iter.hasNext(); ) {
+          if (matches(iter.next())) {
+            return true;
+          }
+        }
+      } else if (matches(tuple.getObject())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean matches(Object o) {
+    if (o == null) {
+      return false;
+    }
+    Class<?> cl = o.getClass();
+    Boolean b = cache.get(cl);
+    if (b == null) {
+      b = Boolean.FALSE;
+      for (int i = 0; i < bounds.length; i++) {
+        if (bounds[i].isAssignableFrom(cl)) {
+          b = Boolean.TRUE;
+          break;
+        }
+      }
+      cache.put(cl, b);
+    }
+    return b.booleanValue();
+  }
+
+  @Override
+  public String toString() {
+    StringBuffer buf = new StringBuffer("(routing");
+    for (int i = 0; i < bounds.length; i++) {
+      buf.append(" ").append(bounds[i].getName());
+    }
+    return buf.append(")").toString();
+  }
+}
@@ -32,7 +32,10 @@ import java.io.ObjectInput;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutput;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.util.Collection;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
 
 import org.cougaar.core.agent.ClusterContextTable;
 import org.cougaar.core.agent.ClusterMessage;
@@ -44,6 +47,15 @@ import org.cougaar.util.log.Logging;
 
 /**
  * A {@link org.cougaar.core.mts.Message} containing {@link Directive}s.
+ * <p>
+ * Once a DirectiveMessage is sent, neither the message's directives
+ * nor the objects they refer to may be modified by the sender.  This
+ * allows a message transport to hand the message to an agent in the
+ * same JVM by reference instead of serializing a copy.  The
+ * sender's blackboard objects should be copied into the directive
+ * if the sender will modify them later.  The
+ * "org.cougaar.core.blackboard.verifyDirectives" option of the
+ * {@link Distributor} checks this contract.
  */
 public class DirectiveMessage extends ClusterMessage
   implements Externalizable
@@ -55,6 +67,13 @@ public class DirectiveMessage extends ClusterMessage
    * Used in keep alive messages to detect out-of-sync condition.
    */
   private boolean allMessagesAcknowledged = false;
+
+  /**
+   * The checksum of our directives when sent, or zero if not
+   * checked.  Transient, so it's only checked if the message is
+   * delivered by reference.
+   */
+  private transient long sentChecksum;
    
   public DirectiveMessage() {
     super();
@@ -101,6 +120,62 @@ public class DirectiveMessage extends ClusterMessage
     return allMessagesAcknowledged;
   }
 
+  /**
+   * Record a checksum of the directives as they're sent.
+   * @see #verifyDirectives()
+   */
+  final void stampDirectives() {
+    sentChecksum = checksumDirectives();
+  }
+
+  /**
+   * Check that the directives haven't been modified since
+   * {@link #stampDirectives()} was called.
+   * @return false if the serialized directives have changed
+   */
+  final boolean verifyDirectives() {
+    return (sentChecksum == 0 || sentChecksum == checksumDirectives());
+  }
+
+  private long checksumDirectives() {
+    final CRC32 crc = new CRC32();
+    final OutputStream sink = 
+      new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+      };
+    Runnable thunk =
+      new Runnable() {
+        public void run() {
+          try {
+            ObjectOutputStream os =
+              new ObjectOutputStream(new CheckedOutputStream(sink, crc));
+            os.writeInt(directives.length);
+            for (int i = 0; i < directives.length; i++) {
+              os.writeObject(directives[i]);
+            }
+            os.close();
+          } catch (Exception e) {
+            throw new RuntimeException("Thunk", e);
+          }
+        }
+      };
+    try {
+      withContext(getSource(), thunk);
+    } catch (IOException ioe) {
+      Logging.getLogger(DirectiveMessage.class).error(
+          "Unable to checksum "+this, ioe);
+      return 0;
+    }
+    long ret = crc.getValue();
+    // reserve zero for "not checked"
+    return (ret == 0 ? 1 : ret);
+  }
+
   @Override
 public String toString() {
     StringBuffer buf = new StringBuffer();
@@ -38,6 +38,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.cougaar.bootstrap.SystemProperties;
 import org.cougaar.core.agent.service.MessageSwitchService;
@@ -50,6 +51,7 @@ import org.cougaar.core.persist.PersistenceObject;
 import org.cougaar.core.persist.PersistenceSubscriberState;
 import org.cougaar.core.persist.RehydrationResult;
 import org.cougaar.core.service.AgentIdentificationService;
+import org.cougaar.core.service.BlackboardMetricsService;
 import org.cougaar.core.service.QuiescenceReportForDistributorService;
 import org.cougaar.core.service.ThreadService;
 import org.cougaar.core.thread.Schedulable;
@@ -68,6 +70,25 @@ import org.cougaar.util.log.Logging;
  * @property org.cougaar.core.agent.singleTransactionModel
  *   Enables a blackboard/agent run model where only one
  *   transaction may be open at a given time.
+ * @property org.cougaar.core.blackboard.routeByClass
+ *   if set to <em>false</em>, disables the filtering of distributed
+ *   envelopes by the {@link ClassBoundPredicate}s of subscribers'
+ *   subscriptions (defaults to true).
+ * @property org.cougaar.core.blackboard.incrementalFill
+ *   if set to <em>false</em>, fill new subscriptions and queries
+ *   while holding the distributor lock, instead of snapshotting the
+ *   blackboard under the lock and running the predicate outside it
+ *   (defaults to true).
+ * @property org.cougaar.core.blackboard.fillBatchSize
+ *   the maximum number of snapshot objects added to a subscription
+ *   per fill envelope when incrementalFill is enabled (defaults to
+ *   1000).
+ * @property org.cougaar.core.blackboard.verifyDirectives
+ *   if set to <em>true</em>, checksum the directives of each sent
+ *   {@link DirectiveMessage} and log an error if an agent in the
+ *   same JVM receives them modified, which breaks the message's
+ *   no-modification-after-send contract.  Expensive, for testing
+ *   only (defaults to false).
  */
 final class Distributor {
 
@@ -151,6 +172,18 @@ final class Distributor {
   private static final boolean SINGLE_TRANSACTION = 
     SystemProperties.getBoolean(SINGLE_TRANSACTION_PROP, DEFAULT_SINGLE_TRANSACTION);
 
+  private static final boolean ROUTE_BY_CLASS =
+    SystemProperties.getBoolean("org.cougaar.core.blackboard.routeByClass", true);
+
+  private static final boolean INCREMENTAL_FILL =
+    SystemProperties.getBoolean("org.cougaar.core.blackboard.incrementalFill", true);
+
+  private static final int FILL_BATCH_SIZE =
+    Math.max(1, SystemProperties.getInt("org.cougaar.core.blackboard.fillBatchSize", 1000));
+
+  private static final boolean VERIFY_DIRECTIVES =
+    SystemProperties.getBoolean("org.cougaar.core.blackboard.verifyDirectives");
+
   //
   // these are set in the constructor and are final:
   //
@@ -186,6 +219,11 @@ final class Distributor {
   /** If persistence is non-null, is it a dummy? */
   private boolean dummyPersistence;
 
+  /** subscription fill metrics */
+  private final AtomicLong fillCount = new AtomicLong();
+  private final AtomicLong totalFillTime = new AtomicLong();
+  private final AtomicLong maxFillTime = new AtomicLong();
+
   /** The reservation manager for persistence */
   private static final ReservationManager persistenceReservationManager =
       new ReservationManager(PERSISTENCE_RESERVATION_TIMEOUT);
@@ -279,6 +317,7 @@ final class Distributor {
 
   // temporary lists, for use within "distribute()":
   private final List outboxes = new ArrayList();
+  private final List routedOutboxes = new ArrayList();
   private final List messagesToSend = new ArrayList();
 
   // temporary list, for use within "receiveMessages()":
@@ -755,6 +794,8 @@ final class Distributor {
   public void fillSubscription(Subscription subscription) {
     assert !Thread.holdsLock(distributorLock);
     assert !Thread.holdsLock(transactionLock);
+    long startTime = System.currentTimeMillis();
+    Object[] snapshot = null;
     synchronized (distributorLock) {
       Subscriber subscriber = subscription.getSubscriber();
       PersistenceSubscriberState subscriberState = null;
@@ -775,6 +816,11 @@ final class Distributor {
         rehydrateNewSubscription(subscription,
             subscriberState.transactionEnvelopes,
             subscriberState.pendingEnvelopes);
+      } else if (INCREMENTAL_FILL && subscriber != blackboard) {
+        // fill below, outside the lock.  Envelopes distributed
+        // after the snapshot are queued behind the initialize
+        // envelope, so they're applied on top of the fill.
+        snapshot = blackboard.snapshotSubscription(subscription);
       } else {
         blackboard.fillSubscription(subscription);
       }
@@ -800,16 +846,60 @@ final class Distributor {
                                         // requires quiescence.
       }
     }
+    if (snapshot != null) {
+      blackboard.fillSubscription(subscription, snapshot, FILL_BATCH_SIZE);
+    }
+    long fillTime = System.currentTimeMillis() - startTime;
+    fillCount.incrementAndGet();
+    totalFillTime.addAndGet(fillTime);
+    while (true) {
+      long max = maxFillTime.get();
+      if (fillTime <= max || maxFillTime.compareAndSet(max, fillTime)) {
+        break;
+      }
+    }
   }
 
   public void fillQuery(Subscription subscription) {
     assert !Thread.holdsLock(distributorLock);
     assert !Thread.holdsLock(transactionLock);
+    if (INCREMENTAL_FILL) {
+      Object[] snapshot;
+      synchronized (distributorLock) {
+        snapshot = blackboard.snapshotSubscription(subscription);
+      }
+      blackboard.fillSubscription(subscription, snapshot, FILL_BATCH_SIZE);
+      return;
+    }
     synchronized (distributorLock) {
       blackboard.fillQuery(subscription);
     }
   }
 
+  /** @return the number of subscriptions filled */
+  public long getSubscriptionFillCount() {
+    return fillCount.get();
+  }
+
+  /** @return the total milliseconds spent filling subscriptions */
+  public long getSubscriptionFillTime() {
+    return totalFillTime.get();
+  }
+
+  /** @return the longest time in milliseconds to fill a subscription */
+  public long getMaxSubscriptionFillTime() {
+    return maxFillTime.get();
+  }
+
+  /**
+   * Pass thru to blackboard for its EnvelopeLogicProvider statistics.
+   * Used by BlackboardMetricsService
+   */
+  public List<BlackboardMetricsService.LogicProviderStatistics>
+    getLogicProviderStatistics() {
+    return blackboard.getLogicProviderStatistics();
+  }
+
   /**
    * The main workhorse of the distributor. Distributes the contents
    * of an outbox envelope to everybody.
@@ -890,8 +980,16 @@ final class Distributor {
       Subscriber subscriber = (Subscriber) iter.next();
       if (subscriber == blackboard) continue;
       boolean subscriberBusy = false;
-      if (haveSomethingToDistribute) {
-        subscriber.receiveEnvelopes(outboxes, clientQuiescenceRequired);
+      List envelopes = outboxes;
+      if (haveSomethingToDistribute && ROUTE_BY_CLASS) {
+        // only pass along the envelopes that might match
+        routedOutboxes.clear();
+        if (subscriber.selectEnvelopes(outboxes, routedOutboxes)) {
+          envelopes = routedOutboxes;
+        }
+      }
+      if (haveSomethingToDistribute && !envelopes.isEmpty()) {
+        subscriber.receiveEnvelopes(envelopes, clientQuiescenceRequired);
         subscriberBusy = true;
       } else if (subscriber.isBusy()) {
         subscriberBusy = true;
@@ -926,6 +1024,7 @@ final class Distributor {
 	// If the publisher is q-relevant, then we number the message
 	// to require a succesful receipt for quiescence
         if (clientQuiescenceRequired) quiescenceMonitor.numberOutgoingMessage(msg);
+        if (VERIFY_DIRECTIVES) msg.stampDirectives();
         if (logger.isDetailEnabled()) {
           Directive[] dirs = msg.getDirectives();
           for (int j = 0; j < dirs.length; j++) {
@@ -955,6 +1054,7 @@ final class Distributor {
       }
     }
     outboxes.clear();
+    routedOutboxes.clear();
 
     // Update the cumulative quiescence of all the subscriber inboxes
     // based on this distribute: Non-q if a Q-relevant comp published something
@@ -1178,6 +1278,10 @@ final class Distributor {
           Object m = msgs.next();
           if (m instanceof DirectiveMessage) {
             DirectiveMessage msg = (DirectiveMessage) m;
+            if (VERIFY_DIRECTIVES && !msg.verifyDirectives()) {
+              logger.error(
+                  "Directives modified after they were sent: "+msg);
+            }
             int code = getMessageManager().receiveMessage(msg);
             if ((code & MessageManager.RESTART) != 0) {
               try {
@@ -0,0 +1,223 @@
+/*
+ * <copyright>
+ *  
+ *  Copyright 1997-2007 BBNT Solutions, LLC
+ *  under sponsorship of the Defense Advanced Research Projects
+ *  Agency (DARPA).
+ * 
+ *  You can redistribute this software and/or modify it under the
+ *  terms of the Cougaar Open Source License as published on the
+ *  Cougaar Open Source Website (www.cougaar.org).
+ * 
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *  
+ * </copyright>
+ */
+
+package org.cougaar.core.blackboard;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The {@link HashSet} behind the {@link Blackboard}'s collection of
+ * all published objects, with a secondary index by concrete class.
+ * <p>
+ * Queries and subscription fills with a {@link ClassBoundPredicate}
+ * use the index to visit only the objects whose class matches the
+ * predicate's bounds, instead of scanning the entire blackboard.
+ * Like the set itself, the index is only accessed under the
+ * protection of the distributor lock.
+ * <p>
+ * A set created without the index is a plain HashSet, and doesn't
+ * support {@link #count} or {@link #select}.
+ */
+class IndexedObjectSet extends HashSet {
+
+  /**
+   * 
+   */
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * map from concrete Class to the Set of published instances
+   * of exactly that class.  Emptied sets are kept, since the
+   * number of classes is small and their instances tend to come
+   * and go.
+   */
+  private final Map<Class<?>,Set<Object>> byClass =
+    new HashMap<Class<?>,Set<Object>>();
+
+  /**
+   * map from a bound Class to the array of indexed concrete classes
+   * that are assignable to it, cleared whenever a new concrete class
+   * is indexed.
+   */
+  private final Map<Class<?>,Class<?>[]> matchCache =
+    new HashMap<Class<?>,Class<?>[]>();
+
+  /** false if objects are not indexed by class */
+  private final boolean indexed;
+
+  public IndexedObjectSet(int size) {
+    this(size, true);
+  }
+
+  public IndexedObjectSet(int size, boolean indexed) {
+    super(size);
+    this.indexed = indexed;
+  }
+
+  @Override
+  public boolean add(Object o) {
+    boolean result = super.add(o);
+    if (result && indexed) {
+      index(o);
+    }
+    return result;
+  }
+
+  @Override
+  public boolean remove(Object o) {
+    boolean result = super.remove(o);
+    if (result && indexed) {
+      unindex(o);
+    }
+    return result;
+  }
+
+  @Override
+  public void clear() {
+    super.clear();
+    byClass.clear();
+    matchCache.clear();
+  }
+
+  @Override
+  public Iterator iterator() {
+    if (!indexed) {
+      return super.iterator();
+    }
+    final Iterator iter = super.iterator();
+    return new Iterator() {
+      private Object last;
+      public boolean hasNext() {
+        return iter.hasNext();
+      }
+      public Object next() {
+        last = iter.next();
+        return last;
+      }
+      public void remove() {
+        iter.remove();
+        unindex(last);
+      }
+    };
+  }
+
+  private void index(Object o) {
+    if (o == null) {
+      return;
+    }
+    Class<?> cl = o.getClass();
+    Set<Object> s = byClass.get(cl);
+    if (s == null) {
+      s = new HashSet<Object>(13);
+      byClass.put(cl, s);
+      matchCache.clear();
+    }
+    s.add(o);
+  }
+
+  private void unindex(Object o) {
+    if (o == null) {
+      return;
+    }
+    Set<Object> s = byClass.get(o.getClass());
+    if (s != null) {
+      s.remove(o);
+    }
+  }
+
+  /**
+   * @return the indexed concrete classes that are assignable to
+   * the bound class
+   */
+  private Class<?>[] getMatchingClasses(Class<?> bound) {
+    Class<?>[] ret = matchCache.get(bound);
+    if (ret == null) {
+      List<Class<?>> l = new ArrayList<Class<?>>();
+      for (Iterator<Class<?>> iter = byClass.keySet().iterator();
+          iter.hasNext();
+          ) {
+        Class<?> cl = iter.next();
+        if (bound.isAssignableFrom(cl)) {
+          l.add(cl);
+        }
+      }
+      ret = l.toArray(new Class<?>[l.size()]);
+      matchCache.put(bound, ret);
+    }
+    return ret;
+  }
+
+  /**
+   * @return the number of objects that are instances of the class
+   */
+  public int count(Class<?> bound) {
+    int c = 0;
+    Class<?>[] classes = getMatchingClasses(bound);
+    for (int i = 0; i < classes.length; i++) {
+      c += byClass.get(classes[i]).size();
+    }
+    return c;
+  }
+
+  /**
+   * @return a new Collection of the objects that are instances of
+   * at least one of the bound classes
+   */
+  public Collection select(Class<?>[] bounds) {
+    if (bounds.length == 1) {
+      return collect(getMatchingClasses(bounds[0]));
+    }
+    List<Class<?>> l = new ArrayList<Class<?>>();
+    for (int i = 0; i < bounds.length; i++) {
+      Class<?>[] classes = getMatchingClasses(bounds[i]);
+      for (int j = 0; j < classes.length; j++) {
+        if (!l.contains(classes[j])) {
+          l.add(classes[j]);
+        }
+      }
+    }
+    return collect(l.toArray(new Class<?>[l.size()]));
+  }
+
+  private Collection collect(Class<?>[] classes) {
+    int n = 0;
+    for (int i = 0; i < classes.length; i++) {
+      n += byClass.get(classes[i]).size();
+    }
+    List<Object> ret = new ArrayList<Object>(n);
+    for (int i = 0; i < classes.length; i++) {
+      ret.addAll(byClass.get(classes[i]));
+    }
+    return ret;
+  }
+}
@@ -33,6 +33,9 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.cougaar.bootstrap.SystemProperties;
 import org.cougaar.core.persist.Persistence;
@@ -170,7 +173,6 @@ public class Subscriber {
   protected boolean privateUpdateSubscriptions() {
     boolean changedp = false;
     synchronized (subscriptions) {
-      transactionAllowsQuiescence = inboxAllowsQuiescence;
       transactionEnvelopes = flushInbox();
       try {
         for (int i = 0, n = subscriptions.size(); i < n; i++) {
@@ -248,7 +250,9 @@ public class Subscriber {
       transactionEnvelopes = null;
       transactionAllowsQuiescence = true;
     } else {
+      boolean allowsQuiescence = transactionAllowsQuiescence;
       recycleInbox(flushInbox());
+      transactionAllowsQuiescence = allowsQuiescence;
     }
     if (enableTimestamps &&
         (box instanceof TimestampedEnvelope)) {
@@ -268,7 +272,15 @@ public class Subscriber {
   }
 
   public List getPendingEnvelopes() {
-    return pendingEnvelopes;
+    // a snapshot, since the inbox is a queue of batches
+    List result = new ArrayList();
+    for (Iterator iter = pendingEnvelopes.iterator(); iter.hasNext(); ) {
+      InboxBatch batch = (InboxBatch) iter.next();
+      for (int i = 0; i < batch.envelopes.length; i++) {
+        result.add(batch.envelopes[i]);
+      }
+    }
+    return result;
   }
 
   //////////////////////////////////////////////////////
@@ -314,6 +326,12 @@ public class Subscriber {
   /** our set of active subscriptions. Access must be synchronized on self. */
   protected final List subscriptions = new ArrayList(5);
 
+  /**
+   * The classes our subscriptions may match, or null if unknown.
+   * Replaced whenever our subscriptions change.
+   */
+  private volatile ClassRouting classRouting = null;
+
   protected void resetSubscriptionChanges() {
     synchronized (subscriptions) {
       int l = subscriptions.size();
@@ -410,6 +428,7 @@ public class Subscriber {
     synchronized (subscriptions) {
       subscription.setSubscriber(this);
       subscriptions.add(subscription);
+      classRouting = ClassRouting.create(subscriptions);
       theDistributor.fillSubscription(subscription);
     }
     setHaveNewSubscriptions();  // make sure we get counted.
@@ -458,56 +477,102 @@ public class Subscriber {
     checkTransactionOK("unsubscribe()");
     synchronized (subscriptions) {
       subscriptions.remove(subscription);
+      classRouting = ClassRouting.create(subscriptions);
+    }
+  }
+
+  /**
+   * Select the envelopes that may match our subscriptions.
+   * <p>
+   * Called by the Distributor while holding its distributor lock. 
+   * @return false if our subscriptions may match objects of any
+   *   class, in which case the "toList" is left unchanged
+   * @see ClassBoundPredicate
+   */
+  boolean selectEnvelopes(List envelopes, List toList) {
+    ClassRouting cr = classRouting;
+    if (cr == null) {
+      return false;
     }
+    cr.selectEnvelopes(envelopes, toList);
+    return true;
   }
 
   /*
    * Inbox invariants:
-   * pendingEnvelopes accumulates new envelopes for the next transaction (always).
-   * transactionEnvelopes has the previous pendingEnvelopes during a
+   * pendingEnvelopes accumulates batches of new envelopes for the next
+   * transaction (always).  It is a lock-free queue: any number of
+   * producers may add batches, but only the client thread removes
+   * them, in flushInbox or when discarding an unused inbox.
+   * transactionEnvelopes has the previously pending envelopes during a
    * transaction, null otherwise.
    * idleEnvelopes has an empty list when no transaction is active.
    *
-   * The list cycle around from idle to pending to transaction back to
-   * idle. idle and transaction are never null at the same time; one
-   * of them always has the list the pendingEnvelopes does not have
+   * The two lists cycle around from idle to transaction back to idle,
+   * so idle and transaction are never null at the same time.
    *
+   * inboxState packs the rest of the inbox state into one word:
+   * the low bit is set if the watchers have been signaled for
+   * envelopes that have not yet been flushed, and the remaining bits
+   * count the pending batches that require quiescence.
    */
-  private List pendingEnvelopes = new ArrayList();     // Envelopes to be added at next transaction
+  private final Queue pendingEnvelopes = new ConcurrentLinkedQueue(); // InboxBatches to be added at next transaction
   private List transactionEnvelopes = null;            // Envelopes of current transaction
   private List idleEnvelopes = new ArrayList();        // Alternate list
-  private final Object inboxLock = new Object();       // For synchronized access to inboxes
-  private boolean inboxAllowsQuiescence = true;        // True if inbox allows quiescence
-  private boolean transactionAllowsQuiescence = true;  // True if inbox being processed allowed quiescence.
+  private final Object inboxLock = new Object();       // For subscribers without subscriptions, see receiveEnvelopes
+  private final AtomicInteger inboxState = new AtomicInteger(); // see above
+  private volatile boolean transactionAllowsQuiescence = true;  // True if inbox being processed allowed quiescence.
+
+  private static final int INBOX_SIGNALED = 1;
+  private static final int INBOX_QUIESCENCE_BLOCKER = 2;
+
+  /** The envelopes of one "receiveEnvelopes" call */
+  private static final class InboxBatch {
+    final Object[] envelopes;
+    final boolean quiescenceRequired;
+    InboxBatch(List envelopes, boolean quiescenceRequired) {
+      this.envelopes = envelopes.toArray();
+      this.quiescenceRequired = quiescenceRequired;
+    }
+  }
 
   /**
    * Called by non-client methods to add an envelope to our inboxes.
-   * This is complicated because we wish to avoid holding envelopes
-   * when there is no possibility of their ever being used (no
-   * subscriptions). A simple test of the number of subscriptions is
-   * insufficient because, if a transaction is open, new subscriptions
-   * may be created that, in later transactions, need to receive the
-   * envelopes. So the test includes a test of transactions being
-   * open. We use transactionLock.tryGetBusyFlag() because we can't
-   * block and the fact that the lock is busy, is a sufficient
-   * indication that we must put the new envelopes into the inbox. It
-   * may turn out that the inbox did not need to be stuffed (because
-   * there will not be any subscriptions), but this is handled when
-   * the transaction is closed where the inbox is emptied if there are
-   * no subscriptions.
+   * <p>
+   * If we have subscriptions then the envelopes are queued without
+   * locking, and the watchers are only signaled if they haven't been
+   * signaled since our last flushInbox.
+   * <p>
+   * Otherwise this is complicated because we wish to avoid holding
+   * envelopes when there is no possibility of their ever being used
+   * (no subscriptions). A simple test of the number of subscriptions
+   * is insufficient because, if a transaction is open, new
+   * subscriptions may be created that, in later transactions, need to
+   * receive the envelopes. So the test includes a test of
+   * transactions being open. We use transactionLock.tryGetBusyFlag()
+   * because we can't block and the fact that the lock is busy, is a
+   * sufficient indication that we must put the new envelopes into the
+   * inbox. It may turn out that the inbox did not need to be stuffed
+   * (because there will not be any subscriptions), but this is handled
+   * when the transaction is closed where the inbox is emptied if there
+   * are no subscriptions.
    */
   public void receiveEnvelopes(List envelopes, boolean envelopeQuiescenceRequired) {
+    if (!subscriptions.isEmpty()) {
+      enqueueEnvelopes(envelopes, envelopeQuiescenceRequired);
+      signalInboxActivity();
+      return;
+    }
     boolean signalActivity = false;
     synchronized (inboxLock) {
       boolean notBusy = transactionLock.tryGetBusyFlag(); 
       // if notBusy, then the client isn't running (and wont) until we're done.
       // if !notBusy, then the client IS running so we need to dump the envelopes
       //  in regardless (because it might add a watcher or subscription
-      boolean hasWatchers; synchronized (watchers) { hasWatchers = !watchers.isEmpty(); }
+      boolean hasWatchers = (watcherArray.length > 0);
       boolean hasSubscriptions = !subscriptions.isEmpty();
       if (hasSubscriptions || (hasWatchers && !notBusy)) {
-        pendingEnvelopes.addAll(envelopes);
-        if (envelopeQuiescenceRequired) { inboxAllowsQuiescence = false; }
+        enqueueEnvelopes(envelopes, envelopeQuiescenceRequired);
         signalActivity = true;
       } else {
         if (logger.isInfoEnabled() && !hasSubscriptions && !notBusy && !hasWatchers) {
@@ -518,29 +583,80 @@ public class Subscriber {
       }
       if (notBusy) transactionLock.freeBusyFlag();
     }
-    if (signalActivity) signalExternalActivity();
+    if (signalActivity) signalInboxActivity();
   }
 
-  public boolean isBusy() {
-    synchronized (inboxLock) {
-      return (pendingEnvelopes.size() > 0);
+  private void enqueueEnvelopes(List envelopes, boolean envelopeQuiescenceRequired) {
+    // count the blocker before the batch is visible, so the
+    // batch can't be flushed before it is counted
+    if (envelopeQuiescenceRequired) {
+      inboxState.addAndGet(INBOX_QUIESCENCE_BLOCKER);
     }
+    pendingEnvelopes.offer(new InboxBatch(envelopes, envelopeQuiescenceRequired));
   }
 
-  public boolean isQuiescent() {
-    synchronized (inboxLock) {
-      return (inboxAllowsQuiescence && transactionAllowsQuiescence);
+  private void signalInboxActivity() {
+    while (true) {
+      int state = inboxState.get();
+      if ((state & INBOX_SIGNALED) != 0) {
+        // the client will see our envelopes when it flushes
+        return;
+      }
+      if (inboxState.compareAndSet(state, state | INBOX_SIGNALED)) {
+        break;
+      }
     }
+    signalExternalActivity();
+  }
+
+  public boolean isBusy() {
+    return !pendingEnvelopes.isEmpty();
+  }
+
+  public boolean isQuiescent() {
+    return 
+      (inboxState.get() < INBOX_QUIESCENCE_BLOCKER) &&
+      transactionAllowsQuiescence;
   }
 
   private List flushInbox() {
-    synchronized (inboxLock) {
-      List result = pendingEnvelopes;
-      pendingEnvelopes = idleEnvelopes;
-      idleEnvelopes = null;
-      inboxAllowsQuiescence = true;
-      return result;
+    // clear the signal before draining, so producers that find the
+    // signal already set know that we'll see their envelopes
+    while (true) {
+      int state = inboxState.get();
+      if (inboxState.compareAndSet(state, state & ~INBOX_SIGNALED)) {
+        break;
+      }
+    }
+    List result = idleEnvelopes;
+    idleEnvelopes = null;
+    if (result == null) {
+      result = new ArrayList();
     }
+    transactionAllowsQuiescence = drainInbox(result);
+    return result;
+  }
+
+  /**
+   * Remove all pending batches, appending their envelopes to the
+   * list if it is not null.
+   * @return true if none of the batches required quiescence
+   */
+  private boolean drainInbox(List toList) {
+    boolean allowsQuiescence = true;
+    InboxBatch batch;
+    while ((batch = (InboxBatch) pendingEnvelopes.poll()) != null) {
+      if (toList != null) {
+        for (int i = 0; i < batch.envelopes.length; i++) {
+          toList.add(batch.envelopes[i]);
+        }
+      }
+      if (batch.quiescenceRequired) {
+        allowsQuiescence = false;
+        inboxState.addAndGet(-INBOX_QUIESCENCE_BLOCKER);
+      }
+    }
+    return allowsQuiescence;
   }
 
   private void recycleInbox(List old) {
@@ -985,7 +1101,7 @@ public class Subscriber {
       // openTransaction
       synchronized (inboxLock) {
         if (getSubscriptionCount() == 0) {
-          pendingEnvelopes.clear();
+          drainInbox(null);
         }
         if (! transactionLock.freeBusyFlag()) {
           throw new SubscriberException("Failed to close an owned transaction");
@@ -1056,6 +1172,9 @@ public class Subscriber {
    */
   private final List watchers = new ArrayList(1);
 
+  /** copy of the watchers list, replaced whenever it changes */
+  private volatile SubscriptionWatcher[] watcherArray = new SubscriptionWatcher[0];
+
   public final SubscriptionWatcher registerInterest(SubscriptionWatcher w) {
     if (w == null) {
       throw new IllegalArgumentException("Null SubscriptionWatcher");
@@ -1063,6 +1182,7 @@ public class Subscriber {
 
     synchronized (watchers) {
       watchers.add(w);
+      updateWatcherArray();
     }
 
     return w;
@@ -1089,9 +1209,15 @@ public class Subscriber {
         throw new SubscriberException(
             "Attempt to unregisterInterest of unknown SubscriptionWatcher");
       }
+      updateWatcherArray();
     }
   }
 
+  private void updateWatcherArray() {
+    watcherArray = (SubscriptionWatcher[]) 
+      watchers.toArray(new SubscriptionWatcher[watchers.size()]);
+  }
+
 
   //
   // watcher triggers
@@ -1135,11 +1261,9 @@ public class Subscriber {
   /** called to notify all SubscriptionWatchers.
    */
   private final void wakeSubscriptionWatchers(int event) {
-    synchronized (watchers) {
-      int l = watchers.size();
-      for (int i=0; i<l; i++) {
-        ((SubscriptionWatcher) (watchers.get(i))).signalNotify(event);
-      }
+    SubscriptionWatcher[] a = watcherArray;
+    for (int i = 0; i < a.length; i++) {
+      a[i].signalNotify(event);
     }
   }
 
@@ -48,7 +48,7 @@ import org.cougaar.util.GenericStateModelAdapter;
  */
 public abstract class DomainAdapter 
   extends GenericStateModelAdapter
-  implements Component, Domain 
+  implements Component, DispatchableDomain 
 {
 
   private BindingSite bindingSite;
@@ -61,6 +61,7 @@ public abstract class DomainAdapter
   private final List myMessageLPs = new ArrayList();
   private final List myRestartLPs = new ArrayList();
   private final List myABAChangeLPs = new ArrayList();
+  private Boolean dispatchable;
   
   private Factory myFactory;
   private XPlan myXPlan;
@@ -278,6 +279,27 @@ public void unload() {
     return myEnvelopeLPs;
   }
 
+  /**
+   * @return our EnvelopeLogicProviders, or null if a subclass
+   * overrides {@link #invokeEnvelopeLogicProviders} and so must be
+   * invoked through that method
+   */
+  public List getEnvelopeLogicProviders() {
+    if (dispatchable == null) {
+      boolean b;
+      try {
+        Class declarer = getClass().getMethod(
+            "invokeEnvelopeLogicProviders",
+            EnvelopeTuple.class, boolean.class).getDeclaringClass();
+        b = (declarer == DomainAdapter.class);
+      } catch (NoSuchMethodException e) {
+        b = false;
+      }
+      dispatchable = Boolean.valueOf(b);
+    }
+    return (dispatchable.booleanValue() ? myEnvelopeLPs : null);
+  }
+
   protected final List getMessageLPs() {
     return myMessageLPs;
   }
@@ -31,16 +31,22 @@ import java.io.FileNotFoundException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Enumeration;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.cougaar.bootstrap.SystemProperties;
 import org.cougaar.core.agent.Agent;
 import org.cougaar.core.blackboard.Blackboard;
+import org.cougaar.core.blackboard.ChangeEnvelopeTuple;
 import org.cougaar.core.blackboard.DirectiveMessage;
 import org.cougaar.core.blackboard.EnvelopeTuple;
 import org.cougaar.core.component.ComponentDescription;
@@ -51,12 +57,19 @@ import org.cougaar.core.component.ServiceProvider;
 import org.cougaar.core.mts.MessageAddress;
 import org.cougaar.core.node.ComponentInitializerService;
 import org.cougaar.core.service.AgentIdentificationService;
+import org.cougaar.core.service.BlackboardMetricsService;
 import org.cougaar.core.service.DomainForBlackboardService;
 import org.cougaar.core.service.DomainService;
 import org.cougaar.core.service.LoggingService;
 
 /**
  * This component is a container for {@link Domain}s.
+ * <p>
+ * EnvelopeLogicProviders of {@link DispatchableDomain}s are invoked
+ * through a dispatch table, cached by the concrete class of each
+ * tuple's object, that skips any {@link TypedEnvelopeLogicProvider}
+ * that doesn't handle that class.  Other domains are invoked as a
+ * whole, in the same order.
  *
  * @property org.cougaar.core.load.planning
  *   If enabled, the domain manager will load the planning-specific
@@ -105,6 +118,11 @@ extends ContainerSupport
   private final Object lock = new Object();
   private List delayedXPlans = Collections.EMPTY_LIST;
   private List domains = Collections.EMPTY_LIST;
+  // EnvelopeLogicProvider dispatch, cleared when the domains change
+  private volatile Dispatch dispatch;
+  // invocation statistics, by LP or domain, kept across rebuilds
+  private final Map lpStats = new IdentityHashMap();
+  private final List lpStatsList = new ArrayList();
   private Blackboard blackboard = null;
 
   private MessageAddress self;
@@ -217,6 +235,7 @@ public void load() {
       l.addAll(domains);
       l.add(d);
       domains = l;
+      dispatch = null;
       // add xplan
       if (xplan instanceof SupportsDelayedLPActions &&
           (!delayedXPlans.contains(xplan))) {
@@ -262,6 +281,7 @@ public void load() {
         l.add(domains.get(j));
       }
       domains = l;
+      dispatch = null;
       // fix delayed xplans
       XPlan xplan = d.getXPlan();
       if (xplan instanceof SupportsDelayedLPActions &&
@@ -353,9 +373,84 @@ public void load() {
   /** invoke EnvelopeLogicProviders across all currently loaded domains */
   private void invokeEnvelopeLogicProviders(
       EnvelopeTuple tuple, boolean persistenceEnv) {
-    for (Iterator iter = domainIterator(); iter.hasNext(); ) {
-      Domain d = (Domain) iter.next();
-      d.invokeEnvelopeLogicProviders(tuple, persistenceEnv);
+    Dispatch d = dispatch;
+    if (d == null || !d.isCurrent()) {
+      d = makeDispatch();
+    }
+    Object o = tuple.getObject();
+    Target[] targets = d.getTargets(o == null ? null : o.getClass());
+    if (targets.length == 0) {
+      return;
+    }
+    Collection changeReports = null;
+    if (tuple instanceof ChangeEnvelopeTuple) {
+      changeReports = ((ChangeEnvelopeTuple) tuple).getChangeReports();
+    }
+    for (int i = 0; i < targets.length; i++) {
+      targets[i].invoke(tuple, changeReports, persistenceEnv);
+    }
+  }
+
+  private Dispatch makeDispatch() {
+    synchronized (lock) {
+      List targets = new ArrayList();
+      List lists = new ArrayList();
+      for (int i = 0, n = domains.size(); i < n; i++) {
+        Domain d = (Domain) domains.get(i);
+        List lps =
+          (d instanceof DispatchableDomain ?
+           ((DispatchableDomain) d).getEnvelopeLogicProviders() :
+           null);
+        if (lps == null) {
+          targets.add(new Target(d, getStats(d, d.getDomainName())));
+          continue;
+        }
+        lists.add(lps);
+        // DomainAdapter logs and ignores LP exceptions
+        boolean catchExceptions = (d instanceof DomainAdapter);
+        synchronized (lps) {
+          for (int j = 0, m = lps.size(); j < m; j++) {
+            EnvelopeLogicProvider lp = (EnvelopeLogicProvider) lps.get(j);
+            targets.add(
+                new Target(
+                  lp,
+                  getStats(lp, lp.getClass().getName()),
+                  catchExceptions));
+          }
+        }
+      }
+      Dispatch d = new Dispatch(
+          (Target[]) targets.toArray(new Target[targets.size()]),
+          (List[]) lists.toArray(new List[lists.size()]));
+      dispatch = d;
+      return d;
+    }
+  }
+
+  // caller must synchronize on lock
+  private Stats getStats(Object key, String name) {
+    Stats stats = (Stats) lpStats.get(key);
+    if (stats == null) {
+      stats = new Stats(name);
+      lpStats.put(key, stats);
+      lpStatsList.add(stats);
+    }
+    return stats;
+  }
+
+  private List<BlackboardMetricsService.LogicProviderStatistics> 
+    getLogicProviderStatistics() {
+    synchronized (lock) {
+      List<BlackboardMetricsService.LogicProviderStatistics> ret = 
+        new ArrayList<BlackboardMetricsService.LogicProviderStatistics>(
+            lpStatsList.size());
+      for (int i = 0, n = lpStatsList.size(); i < n; i++) {
+        Stats stats = (Stats) lpStatsList.get(i);
+        ret.add(
+            new BlackboardMetricsService.LogicProviderStatistics(
+              stats.name, stats.invocations.get(), stats.nanos.get()));
+      }
+      return ret;
     }
   }
 
@@ -631,6 +726,10 @@ public void unload() {
           public void invokeABAChangeLogicProviders(Set communities) {
             DomainManager.this.invokeABAChangeLogicProviders(communities);
           }
+          public List<BlackboardMetricsService.LogicProviderStatistics> 
+            getLogicProviderStatistics() {
+            return DomainManager.this.getLogicProviderStatistics();
+          }
           // cleanup
           private void onRelease() {
             // set the domain manager's blackboard to null?
@@ -771,4 +870,127 @@ public String toString() {
       }
     }
   }
+
+  /** Invocation counts and time for one LP or domain */
+  private static final class Stats {
+    private final String name;
+    private final AtomicLong invocations = new AtomicLong();
+    private final AtomicLong nanos = new AtomicLong();
+    Stats(String name) {
+      this.name = name;
+    }
+  }
+
+  /** An EnvelopeLogicProvider, or a domain invoked as a whole */
+  private static final class Target {
+    private final EnvelopeLogicProvider lp;
+    private final Domain domain;
+    // the handled classes, or null for all
+    private final Class[] classes;
+    private final boolean catchExceptions;
+    private final Stats stats;
+
+    Target(EnvelopeLogicProvider lp, Stats stats, boolean catchExceptions) {
+      this.lp = lp;
+      this.domain = null;
+      this.classes = 
+        (lp instanceof TypedEnvelopeLogicProvider ?
+         ((TypedEnvelopeLogicProvider) lp).getHandledClasses() :
+         null);
+      this.catchExceptions = catchExceptions;
+      this.stats = stats;
+    }
+
+    Target(Domain domain, Stats stats) {
+      this.lp = null;
+      this.domain = domain;
+      this.classes = null;
+      this.catchExceptions = false;
+      this.stats = stats;
+    }
+
+    boolean handles(Class cl) {
+      if (classes == null || cl == null) {
+        return true;
+      }
+      for (int i = 0; i < classes.length; i++) {
+        if (classes[i].isAssignableFrom(cl)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    void invoke(
+        EnvelopeTuple tuple, Collection changeReports, boolean persistenceEnv) {
+      if (lp != null &&
+          persistenceEnv &&
+          !(lp instanceof LogicProviderNeedingPersistenceEnvelopes)) {
+        return; // This lp does not want contents of PersistenceEnvelopes
+      }
+      long t = System.nanoTime();
+      try {
+        if (lp == null) {
+          domain.invokeEnvelopeLogicProviders(tuple, persistenceEnv);
+        } else if (catchExceptions) {
+          try {
+            lp.execute(tuple, changeReports);
+          } catch (Exception e) {
+            e.printStackTrace();
+          }
+        } else {
+          lp.execute(tuple, changeReports);
+        }
+      } finally {
+        stats.invocations.incrementAndGet();
+        stats.nanos.addAndGet(System.nanoTime() - t);
+      }
+    }
+  }
+
+  /** The Targets in invocation order, and their subsets by class */
+  private static final class Dispatch {
+    private final Target[] targets;
+    // the LP lists we read, and their sizes at the time
+    private final List[] lists;
+    private final int[] sizes;
+    private final Map byClass = new ConcurrentHashMap();
+
+    Dispatch(Target[] targets, List[] lists) {
+      this.targets = targets;
+      this.lists = lists;
+      sizes = new int[lists.length];
+      for (int i = 0; i < lists.length; i++) {
+        sizes[i] = lists[i].size();
+      }
+    }
+
+    /** @return false if LPs have since been added to a domain */
+    boolean isCurrent() {
+      for (int i = 0; i < lists.length; i++) {
+        if (lists[i].size() != sizes[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    Target[] getTargets(Class cl) {
+      if (cl == null) {
+        return targets;
+      }
+      Target[] ret = (Target[]) byClass.get(cl);
+      if (ret == null) {
+        List l = new ArrayList(targets.length);
+        for (int i = 0; i < targets.length; i++) {
+          if (targets[i].handles(cl)) {
+            l.add(targets[i]);
+          }
+        }
+        ret = (Target[]) l.toArray(new Target[l.size()]);
+        byClass.put(cl, ret);
+      }
+      return ret;
+    }
+  }
 }
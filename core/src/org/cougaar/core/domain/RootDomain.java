@@ -27,6 +27,7 @@
 package org.cougaar.core.domain;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 
@@ -54,13 +55,14 @@ import org.cougaar.util.GenericStateModelAdapter;
  */
 public final class RootDomain
 extends GenericStateModelAdapter
-implements Component, Domain 
+implements Component, DispatchableDomain 
 {
   private ServiceBroker sb;
   private DomainRegistryService domainRegistryService;
   private MessageAddress self;
   private RootPlan rootplan;
   private RelayLP relayLP;
+  private List envelopeLPs = Collections.EMPTY_LIST;
 
   public void setParameter(Object o) {
     String domainName = (String) (((List) o).get(0));
@@ -105,6 +107,7 @@ public void load() {
     sb.addService(RootPlan.class, new RootPlanServiceProvider());
     rootplan = sb.getService(this, RootPlan.class, null);
     relayLP = new RelayLP(rootplan, self);
+    envelopeLPs = Collections.singletonList(relayLP);
     domainRegistryService = sb.getService(
        this, DomainRegistryService.class, null);
     if (domainRegistryService != null) {
@@ -166,6 +169,11 @@ public void unload() {
     relayLP.execute(tuple, changeReports);
   }
 
+  public List getEnvelopeLogicProviders() {
+    // our only LP skips persistence envelopes, like the method above
+    return envelopeLPs;
+  }
+
   public void invokeRestartLogicProviders(MessageAddress cid) {
     relayLP.restart(cid);
   }
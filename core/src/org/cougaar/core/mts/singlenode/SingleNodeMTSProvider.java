@@ -29,11 +29,13 @@ package org.cougaar.core.mts.singlenode;
 import org.cougaar.core.component.Component;
 import org.cougaar.core.component.ServiceBroker;
 import org.cougaar.core.component.ServiceProvider;
+import org.cougaar.core.mts.MessageQueueDumpService;
 import org.cougaar.core.mts.MessageTransportClient;
 import org.cougaar.core.node.NodeControlService;
 import org.cougaar.core.service.LoggingService;
 import org.cougaar.core.service.MessageTransportService;
 import org.cougaar.util.GenericStateModelAdapter;
+import org.cougaar.util.log.Logger;
 
 /**
  * This component is a baseline implementation of a single-node
@@ -51,6 +53,7 @@ public final class SingleNodeMTSProvider
   private ServiceBroker sb;
   protected LoggingService loggingService;
   private SingleNodeMTSProxy proxy;
+  private MessageQueueDumpService mqds;
 
   public void setServiceBroker(ServiceBroker sb) {
     this.sb = sb;
@@ -65,7 +68,7 @@ public void load() {
       sb.getService(this, LoggingService.class, null);
 
     // Make router
-    SingleNodeRouterImpl router = new SingleNodeRouterImpl(sb);
+    final SingleNodeRouterImpl router = new SingleNodeRouterImpl(sb);
 
     // Make proxy
     proxy = new SingleNodeMTSProxy(router);
@@ -74,6 +77,14 @@ public void load() {
 
     ServiceBroker rootsb = ncs.getRootServiceBroker();
     rootsb.addService(MessageTransportService.class, this);
+
+    // Dump the router's delivery queues and statistics
+    mqds = new MessageQueueDumpService() {
+      public int dumpQueues(Logger logger) {
+        return router.dumpQueues(logger);
+      }
+    };
+    rootsb.addService(MessageQueueDumpService.class, this);
   }
 
   // ServiceProvider
@@ -87,6 +98,8 @@ public void load() {
       } else {
         throw new IllegalArgumentException(NOT_A_CLIENT);
       }
+    } else if (serviceClass == MessageQueueDumpService.class) {
+      return mqds;
     } else {
       return null;
     }
@@ -28,7 +28,15 @@ package org.cougaar.core.mts.singlenode;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.cougaar.bootstrap.SystemProperties;
 import org.cougaar.core.component.ServiceBroker;
 import org.cougaar.core.mts.AgentState;
 import org.cougaar.core.mts.Message;
@@ -36,56 +44,78 @@ import org.cougaar.core.mts.MessageAddress;
 import org.cougaar.core.mts.MessageTransportClient;
 import org.cougaar.core.mts.SimpleMessageAttributes;
 import org.cougaar.core.service.LoggingService;
+import org.cougaar.core.service.ThreadService;
+import org.cougaar.core.thread.Schedulable;
+import org.cougaar.util.log.Logger;
 
 /**
  * The message router implementation.
  * <p>
- * The {@link #routeMessage} method finds the {@link
- * MessageTransportClient} for each message's target and
- * delivers the message.  If the client doesn't exist, the
- * message is buffered until the client registers.
+ * The {@link #routeMessage} method finds the {@link Destination}
+ * for each message's target and queues the message.  Each
+ * destination's queue is drained by its own {@link Schedulable},
+ * so deliveries to different agents run in parallel and a slow
+ * agent doesn't block the sender.  If the client doesn't exist,
+ * the message is buffered until the client registers, up to a
+ * limit.
+ * <p>
+ * If the ThreadService isn't available then messages are
+ * delivered in the sender's thread.
+ *
+ * @property org.cougaar.core.mts.singlenode.maxWaitingMessages
+ *   The maximum number of messages buffered for a target that
+ *   hasn't registered, after which further messages are dropped.
+ *   Defaults to 10000.
  */
 final class SingleNodeRouterImpl
 {
+    private static final int MAX_WAITING_MESSAGES =
+	SystemProperties.getInt(
+		"org.cougaar.core.mts.singlenode.maxWaitingMessages", 10000);
+
     private LoggingService loggingService;
+    private ThreadService threadService;
     private HashMap agentStates = new HashMap();
-    private HashMap clients; 
-    private HashMap waitingMsgs; 
+    // Map<MessageAddress, Destination>
+    private final Map destinations = new ConcurrentHashMap();
     String agentID; 
 
+    // delivery statistics
+    private final AtomicLong deliveredCount = new AtomicLong();
+    private final AtomicLong totalLatency = new AtomicLong();
+    private final AtomicLong maxLatency = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+
     public SingleNodeRouterImpl(ServiceBroker sb) {
-	clients = new HashMap();
-	waitingMsgs = new HashMap();
-	
 	loggingService = sb.getService(this, LoggingService.class, null);
+	threadService = sb.getService(this, ThreadService.class, null);
     }
     
     /**
-     * Find destination agent's receiving queue then deliver the
-     * message to the client
+     * Find destination agent's receiving queue then queue the
+     * message for delivery to the client
      */
     public void routeMessage(Message message) {
 	MessageAddress dest = message.getTarget();
-	MessageTransportClient dest_client = (MessageTransportClient)
-	    clients.get(dest);
-	// deliver msgs
-	// first check client is registered, if not, hold onto the msg
-	if(dest_client == null) {
-	    ArrayList messages = (ArrayList) waitingMsgs.get(dest);
-	    if (messages == null) {
-		messages = new ArrayList();
-		waitingMsgs.put(dest, messages);
+	Destination d = getDestination(dest);
+	d.add(message);
+    }
+    
+    private Destination getDestination(MessageAddress addr) {
+	Destination d = (Destination) destinations.get(addr);
+	if (d == null) {
+	    Destination newD = new Destination(addr);
+	    d = (Destination)
+		((ConcurrentHashMap) destinations).putIfAbsent(addr, newD);
+	    if (d == null) {
+		d = newD;
 	    }
-	    messages.add(message);
-	} else { 
-	    deliverMessage(message, dest_client);
-	    
 	}
+	return d;
     }
-    
         
     /** invokes the clients receiveMessage() */
-    public synchronized void deliverMessage(Message message, MessageTransportClient client) {
+    public void deliverMessage(Message message, MessageTransportClient client) {
 	try {
 	    client.receiveMessage(message);
 	} catch (Throwable th) {
@@ -93,6 +123,18 @@ final class SingleNodeRouterImpl
 		loggingService.error("MessageTransportClient threw an exception in receiveMessage, not retrying.", th);
 	}
     }
+
+    private void delivered(long queuedTime) {
+	long latency = System.currentTimeMillis() - queuedTime;
+	deliveredCount.incrementAndGet();
+	totalLatency.addAndGet(latency);
+	while (true) {
+	    long max = maxLatency.get();
+	    if (latency <= max || maxLatency.compareAndSet(max, latency)) {
+		break;
+	    }
+	}
+    }
     
     public void release() {
 	// removeAgentState(client.getMessageAddress());	Do we need this??
@@ -119,35 +161,18 @@ final class SingleNodeRouterImpl
     /** Redirects the request to the MessageTransportRegistry. */
     public void registerClient(MessageTransportClient client) {
 	MessageAddress key = client.getMessageAddress();
-	
 	// Deliver any pending messages.
-	ArrayList msgs = (ArrayList) waitingMsgs.get(key);
-	if (msgs != null) {
-	    // look for undelivered msgs & deliver them to newly registerd client
-	    for(Iterator iter=msgs.iterator(); iter.hasNext();) {
-		Message message = ((Message)iter.next());
-		deliverMessage(message, client);
-	    }
-	}
-
-	// stick in hashmap
-	try {
-	    clients.put(key, client);
-	} catch (Exception e) {
-	    if (loggingService.isErrorEnabled())
-		loggingService.error(e.toString());
-	}
-	
+	getDestination(key).setClient(client);
     }
     
     /**Redirects the request to the MessageTransportRegistry. */
     public void unregisterClient(MessageTransportClient client) {
 	MessageAddress key = client.getMessageAddress();
-	// remove from client hash
-	try {
-	    clients.remove(key);
-	    waitingMsgs.remove(key);
-	} catch (Exception e) {} // Map declares exceptions we wont see here
+	// remove from client hash, dropping any undelivered messages
+	Destination d = (Destination) destinations.remove(key);
+	if (d != null) {
+	    d.close();
+	}
     }
     
     public String getIdentifier() {
@@ -156,7 +181,8 @@ final class SingleNodeRouterImpl
     
     /** Redirects the request to the MessageTransportRegistry. */
     public boolean addressKnown(MessageAddress a) {
-	return clients.containsKey(a);
+	Destination d = (Destination) destinations.get(a);
+	return d != null && d.client != null;
     }
  
 
@@ -175,4 +201,137 @@ final class SingleNodeRouterImpl
 				       " which is not an AgentState instance");
 	}
     }
+
+    /**
+     * Log the delivery queues and statistics.
+     * @return the number of queued messages
+     */
+    public int dumpQueues(Logger logger) {
+	int count = 0;
+	for (Iterator iter = destinations.values().iterator(); iter.hasNext(); ) {
+	    Destination d = (Destination) iter.next();
+	    int depth = d.depth.get();
+	    count += depth;
+	    if (depth > 0 || d.client == null) {
+		logger.warn(d.addr+" "+
+			    (d.client == null ? "waiting" : "registered")+
+			    " queue="+depth+
+			    " maxQueue="+d.maxDepth);
+	    }
+	}
+	long n = deliveredCount.get();
+	logger.warn("Delivered "+n+" messages"+
+		    ", average latency "+
+		    (n == 0 ? 0 : totalLatency.get() / n)+
+		    " ms, max latency "+maxLatency.get()+
+		    " ms, dropped "+droppedCount.get());
+	return count;
+    }
+
+    /**
+     * A delivery queue for one target address.
+     */
+    private final class Destination implements Runnable {
+	private final MessageAddress addr;
+	private volatile MessageTransportClient client;
+	// Queue<Pending>, multiple senders add, our thread removes
+	private final Queue queue = new ConcurrentLinkedQueue();
+	private final AtomicInteger depth = new AtomicInteger();
+	private int maxDepth;
+	// true if our thread has been started for the queued messages
+	private final AtomicBoolean scheduled = new AtomicBoolean();
+	private Schedulable sched;
+	private volatile boolean closed;
+
+	public Destination(MessageAddress addr) {
+	    this.addr = addr;
+	}
+
+	public void add(Message message) {
+	    if (client == null && depth.get() >= MAX_WAITING_MESSAGES) {
+		droppedCount.incrementAndGet();
+		if (loggingService.isWarnEnabled())
+		    loggingService.warn("Dropping message for unregistered "+addr+
+					", "+MAX_WAITING_MESSAGES+
+					" messages are already waiting: "+message);
+		return;
+	    }
+	    queue.add(new Pending(message, System.currentTimeMillis()));
+	    int d = depth.incrementAndGet();
+	    if (maxDepth < d) {
+		// racy, but only used for statistics
+		maxDepth = d;
+	    }
+	    if (client != null) {
+		schedule();
+	    }
+	}
+
+	public void setClient(MessageTransportClient client) {
+	    synchronized (this) {
+		if (sched == null && threadService != null) {
+		    sched = threadService.getThread(
+			    SingleNodeRouterImpl.this, this,
+			    "SingleNode MTS delivery to "+addr);
+		}
+	    }
+	    this.client = client;
+	    schedule();
+	}
+
+	public void close() {
+	    closed = true;
+	    client = null;
+	    Schedulable s;
+	    synchronized (this) {
+		s = sched;
+	    }
+	    if (s != null) {
+		s.cancel();
+	    }
+	}
+
+	private void schedule() {
+	    if (!scheduled.compareAndSet(false, true)) {
+		return;
+	    }
+	    Schedulable s;
+	    synchronized (this) {
+		s = sched;
+	    }
+	    if (s == null) {
+		// no ThreadService, deliver in the caller's thread
+		synchronized (queue) {
+		    run();
+		}
+	    } else {
+		s.start();
+	    }
+	}
+
+	public void run() {
+	    // clear before we drain, so a message added after our last
+	    // poll will restart us
+	    scheduled.set(false);
+	    MessageTransportClient c = client;
+	    if (c == null) {
+		return;
+	    }
+	    Pending p;
+	    while (!closed && (p = (Pending) queue.poll()) != null) {
+		depth.decrementAndGet();
+		deliverMessage(p.message, c);
+		delivered(p.queuedTime);
+	    }
+	}
+    }
+
+    private static final class Pending {
+	private final Message message;
+	private final long queuedTime;
+	public Pending(Message message, long queuedTime) {
+	    this.message = message;
+	    this.queuedTime = queuedTime;
+	}
+    }
 }
@@ -40,6 +40,7 @@ import org.cougaar.core.component.ServiceProvider;
 import org.cougaar.core.mts.MessageQueueDumpService;
 import org.cougaar.core.service.BlackboardQueryService;
 import org.cougaar.core.service.SuicideService;
+import org.cougaar.core.service.ThreadService;
 import org.cougaar.core.thread.CougaarThread;
 import org.cougaar.core.thread.Schedulable;
 import org.cougaar.core.thread.ThreadStatusService;
@@ -209,6 +210,9 @@ public final class StateDumpServiceComponent
 	    logger.warn("Dumping Schedulables");
 	    int count = threadStatus.iterateOverStatus(this);
 	    logger.warn("Dumped " +count+ " Schedulables");
+	    for (int lane=0; lane<ThreadService.LANE_COUNT; lane++) {
+		logger.warn(threadStatus.getLaneStatus(lane).toString());
+	    }
 	}
 
 	private void dumpQueues()
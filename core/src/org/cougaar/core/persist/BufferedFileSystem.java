@@ -36,8 +36,9 @@ import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 
-import org.cougaar.util.CircularQueue;
+import org.cougaar.bootstrap.SystemProperties;
 import org.cougaar.util.log.Logger;
+import org.cougaar.util.log.Logging;
 
 /**
  * Support for buffered and otherwise queued access to the
@@ -45,15 +46,35 @@ import org.cougaar.util.log.Logger;
  * renaming and reading files. All file write and rename actions
  * return immediately without waiting for the actual filesystem
  * operations to complete. File reads invariably block until prior
- * writes and renames have concluded.
+ * writes and renames of the same BufferedFileSystem have concluded.
+ * <p>
+ * The writes of all BufferedFileSystems in the node are performed by
+ * a single writer thread as group commits: every job queued while
+ * the previous group was being committed is written in order, then
+ * each file closed in the group is synced once, and only then are
+ * the group's renames performed. Java offers no single sync of a
+ * whole file system, so a group costs one sync per closed file, but
+ * when many agents persist at once their deltas and sequence files
+ * share one round of syncs instead of each waiting behind the
+ * others' writes, syncs and renames.  The writer's statistics are
+ * shown by the {@link PersistenceMetricsServlet}.
+ *
+ * @property org.cougaar.core.persistence.bufferedFileSystem.maxInFlightBytes
+ * The maximum number of bytes (default 10000000) that may be buffered
+ * awaiting the writer; further writes block until bytes have been
+ * written.
  */
-public class BufferedFileSystem implements Runnable {
+public class BufferedFileSystem {
   private static final int BUFSIZE=100000;
-  private static final int MAXBUFFERS=100; // 10 Mbytes max
-  private static final int MAXKEPTBUFFERS=20; // 2 Mbytes max
+  private static final int MAXBUFFERS = (int) Math.max(1L,
+      SystemProperties.getLong(
+        "org.cougaar.core.persistence.bufferedFileSystem.maxInFlightBytes",
+        10000000L) / BUFSIZE);
+  private static final int MAXKEPTBUFFERS = Math.min(20, MAXBUFFERS); // 2 Mbytes max
 
   private static List buffers = new ArrayList();
   private static int totalBuffers = 0;
+  private static int buffersInFlight = 0;
 
   /**
    * Get a buffer for writing. This is a bit complicated to avoid
@@ -64,12 +85,13 @@ public class BufferedFileSystem implements Runnable {
    */
   private static byte[] getBuffer() {
     synchronized (buffers) {
-      while (totalBuffers >= MAXBUFFERS) {
+      while (totalBuffers >= MAXBUFFERS && buffers.isEmpty()) {
         try {
           buffers.wait();
         } catch (InterruptedException ie) {
         }
       }
+      buffersInFlight++;
       int len = buffers.size();
       if (len > 0) {
         return (byte[]) buffers.remove(len - 1);
@@ -81,6 +103,7 @@ public class BufferedFileSystem implements Runnable {
 
   private static void releaseBuffer(byte[] buf) {
     synchronized (buffers) {
+      buffersInFlight--;
       if (buffers.size() < MAXKEPTBUFFERS) {
         buffers.add(buf);
       } else {
@@ -90,14 +113,13 @@ public class BufferedFileSystem implements Runnable {
     }
   }
 
-  private Logger logger;
-
-  private Thread thread;
+  /** The node-wide writer */
+  private static final Writer writer = new Writer();
 
-  private boolean active;
+  private Logger logger;
 
-  private CircularQueue queue = new CircularQueue();
-  private boolean executingJob = false;
+  /** The number of this file system's jobs not yet completed */
+  private int pendingJobs = 0;
 
   /**
    * Wrap a FileOutputStream to provide safe close semantics.
@@ -109,6 +131,7 @@ public class BufferedFileSystem implements Runnable {
     private FileOutputStream fileOutputStream;
     private byte[] buffer;
     private int nbytes;
+    private boolean closed = false;
     public BufferedFileOutputStream(FileOutputStream stream) {
       fileOutputStream = stream;
       newBuffer();
@@ -120,22 +143,7 @@ public class BufferedFileSystem implements Runnable {
     }
 
     private void switchBuffer(final int nbytes) {
-      enqueueJob(new Runnable() {
-          byte[] buf = buffer;
-          public void run() {
-            try {
-              fileOutputStream.write(buf, 0, nbytes);
-            } catch (IOException ioe) {
-              throw new BufferedFileException(ioe);
-            } finally {
-              releaseBuffer(buf);
-            }
-          }
-          @Override
-         public String toString() {
-            return "Write " + nbytes;
-          }
-        });
+      enqueueJob(new Job(Job.WRITE, fileOutputStream, buffer, nbytes));
       newBuffer();
     }
     
@@ -169,101 +177,221 @@ public class BufferedFileSystem implements Runnable {
 
     @Override
    public void close() throws IOException {
-      flush();
-      enqueueJob(new Runnable() {
-          public void run() {
-            try {
-              fileOutputStream.flush();
-              fileOutputStream.getFD().sync();
-              fileOutputStream.close();
-            } catch (IOException ioe) {
-              throw new BufferedFileException(ioe);
-            }
-          }
-          @Override
-         public String toString() {
-            return "close";
-          }
-        });
+      if (closed) return;
+      closed = true;
+      if (nbytes > 0) {
+        enqueueJob(new Job(Job.WRITE, fileOutputStream, buffer, nbytes));
+      } else {
+        releaseBuffer(buffer);
+      }
+      buffer = null;
+      enqueueJob(new Job(Job.CLOSE, fileOutputStream, null, 0));
       if (logger.isInfoEnabled()) logger.info("Buffered closed");
     }
   }
 
-  private static class BufferedFileException extends RuntimeException {
-    /**
-    * 
-    */
-   private static final long serialVersionUID = 1L;
+  /**
+   * One queued file system operation.
+   */
+  private class Job {
+    static final int WRITE = 0;
+    static final int CLOSE = 1;
+    static final int RENAME = 2;
+
+    final int kind;
+    final FileOutputStream stream;
+    final byte[] buf;
+    final int nbytes;
+    final File from, to;
+    final long enqueueTime = System.currentTimeMillis();
 
-   public BufferedFileException(IOException t) {
-      super("Buffered IOException", t);
+    Job(int kind, FileOutputStream stream, byte[] buf, int nbytes) {
+      this.kind = kind;
+      this.stream = stream;
+      this.buf = buf;
+      this.nbytes = nbytes;
+      this.from = null;
+      this.to = null;
     }
-  }
 
-  public BufferedFileSystem(Logger ls) {
-    logger = ls;
+    Job(File from, File to) {
+      this.kind = RENAME;
+      this.stream = null;
+      this.buf = null;
+      this.nbytes = 0;
+      this.from = from;
+      this.to = to;
+    }
+
+    BufferedFileSystem getOwner() {
+      return BufferedFileSystem.this;
+    }
+
+    @Override
+   public String toString() {
+      switch (kind) {
+      case WRITE: return "Write " + nbytes;
+      case CLOSE: return "close";
+      default: return "rename " + from + " to " + to;
+      }
+    }
   }
 
-  private void enqueueJob(Runnable job) {
-    synchronized (queue) {
+  /**
+   * The node-wide writer thread. Each pass takes every queued job as
+   * one group and commits it in three phases: writes (and flushes of
+   * closing files) in queue order, one sync and close of each closing
+   * file, and finally the renames in queue order, so a file is never
+   * renamed into place before its contents are on the disk.
+   */
+  private static class Writer implements Runnable {
+    private final Logger logger = Logging.getLogger(BufferedFileSystem.class);
+    private List queue = new ArrayList();
+    private Thread thread;
+
+    // Statistics, guarded by this
+    private long groupCount = 0L;
+    private long syncCount = 0L;
+    private long commitCount = 0L;
+    private long totalCommitLatency = 0L;
+    private long maxCommitLatency = 0L;
+
+    synchronized void add(Job job) {
       queue.add(job);
       if (thread == null) {
-        active = true;
         thread = new Thread(this, "BufferedFileSystem");
+        thread.setDaemon(true);
         thread.start();
       }
+      notify();
+    }
+
+    synchronized int getQueueDepth() {
+      return queue.size();
     }
-  }
 
-  public void run() {
-    while (true) {
-      Runnable job;
-      synchronized (queue) {
-        while (queue.size() == 0) {
-          try {
-            queue.wait();
-          } catch (InterruptedException ie) {
+    public void run() {
+      while (true) {
+        List group;
+        synchronized (this) {
+          while (queue.isEmpty()) {
+            try {
+              wait();
+            } catch (InterruptedException ie) {
+            }
           }
-          if (!active) return;
+          group = queue;
+          queue = new ArrayList();
         }
-        job = (Runnable) queue.next();
-        executingJob = true;
-      }
-      if (logger.isInfoEnabled()) logger.info("Buffered job " + job);
-      try {
-        job.run();
-      } catch (Throwable bfe) {
-        logger.error(bfe.getMessage(), bfe.getCause());
-      }
-      synchronized (queue) {
-        executingJob = false;
-        queue.notifyAll();
+        commit(group);
       }
     }
-  }
 
-  public void waitForPrevious() {
-    synchronized (queue) {
-      while (queue.size() > 0 || executingJob) {
+    private void commit(List group) {
+      long startTime = System.currentTimeMillis();
+      List closing = new ArrayList();
+      List renames = new ArrayList();
+      int n = group.size();
+      for (int i = 0; i < n; i++) {
+        Job job = (Job) group.get(i);
+        Logger jobLogger = job.getOwner().logger;
+        if (jobLogger.isInfoEnabled()) jobLogger.info("Buffered job " + job);
         try {
-          queue.wait();
-        } catch (InterruptedException ie) {
+          switch (job.kind) {
+          case Job.WRITE:
+            try {
+              job.stream.write(job.buf, 0, job.nbytes);
+            } finally {
+              releaseBuffer(job.buf);
+            }
+            break;
+          case Job.CLOSE:
+            job.stream.flush();
+            closing.add(job);
+            break;
+          case Job.RENAME:
+            renames.add(job);
+            break;
+          }
+        } catch (Throwable t) {
+          jobLogger.error("Buffered " + job + " failed", t);
+        }
+      }
+      for (int i = 0, m = closing.size(); i < m; i++) {
+        Job job = (Job) closing.get(i);
+        try {
+          job.stream.getFD().sync();
+          job.stream.close();
+        } catch (Throwable t) {
+          job.getOwner().logger.error("Buffered " + job + " failed", t);
         }
       }
+      for (int i = 0, m = renames.size(); i < m; i++) {
+        Job job = (Job) renames.get(i);
+        if (!job.from.renameTo(job.to)) {
+          job.getOwner().logger.error("Buffered " + job + " failed");
+        }
+      }
+      long endTime = System.currentTimeMillis();
+      synchronized (this) {
+        groupCount++;
+        syncCount += closing.size();
+        for (int i = 0, m = closing.size(); i < m; i++) {
+          long latency = endTime - ((Job) closing.get(i)).enqueueTime;
+          commitCount++;
+          totalCommitLatency += latency;
+          if (latency > maxCommitLatency) maxCommitLatency = latency;
+        }
+      }
+      if (logger.isDebugEnabled()) {
+        logger.debug("Committed group of " + n + " jobs with "
+                     + closing.size() + " syncs in "
+                     + (endTime - startTime) + " ms");
+      }
+      for (int i = 0; i < n; i++) {
+        ((Job) group.get(i)).getOwner().jobDone();
+      }
     }
   }
 
-  public void stop() {
-    synchronized (queue) {
-      active = false;
-      queue.notify();
+  public BufferedFileSystem(Logger ls) {
+    logger = ls;
+  }
+
+  private void enqueueJob(Job job) {
+    synchronized (this) {
+      pendingJobs++;
+    }
+    writer.add(job);
+  }
+
+  private synchronized void jobDone() {
+    if (--pendingJobs == 0) {
+      notifyAll();
+    }
+  }
+
+  /**
+   * Wait until all the operations of this file system have been
+   * performed.
+   */
+  public synchronized void waitForPrevious() {
+    while (pendingJobs > 0) {
       try {
-        thread.join();
+        wait();
       } catch (InterruptedException ie) {
       }
     }
   }
 
+  /**
+   * Wait for this file system's pending operations. The writer
+   * thread is shared by the node and keeps running.
+   */
+  public void stop() {
+    waitForPrevious();
+  }
+
   public OutputStream openOutputStream(File file) throws FileNotFoundException {
     return new BufferedFileOutputStream(new FileOutputStream(file));
   }
@@ -274,15 +402,53 @@ public class BufferedFileSystem implements Runnable {
   }
 
   public boolean rename(final File from, final File to) {
-    enqueueJob(new Runnable() {
-        public void run() {
-          from.renameTo(to);
-        }
-        @Override
-      public String toString() {
-          return "rename " + from + " to " + to;
-        }
-      });
+    enqueueJob(new Job(from, to));
     return true;
   }
+
+  /** @return the number of jobs queued for the node-wide writer */
+  public static int getQueueDepth() {
+    return writer.getQueueDepth();
+  }
+
+  /**
+   * @return the number of bytes buffered in open streams or queued
+   * for the writer, bounded by maxInFlightBytes
+   */
+  public static long getInFlightBytes() {
+    synchronized (buffers) {
+      return (long) buffersInFlight * BUFSIZE;
+    }
+  }
+
+  /** @return the number of groups committed by the node-wide writer */
+  public static long getGroupCount() {
+    synchronized (writer) {
+      return writer.groupCount;
+    }
+  }
+
+  /** @return the number of file syncs performed */
+  public static long getSyncCount() {
+    synchronized (writer) {
+      return writer.syncCount;
+    }
+  }
+
+  /**
+   * @return the average time in milliseconds from the close of a
+   * file to its contents being synced to the disk
+   */
+  public static long getAverageCommitLatency() {
+    synchronized (writer) {
+      return writer.commitCount == 0 ? 0L : writer.totalCommitLatency / writer.commitCount;
+    }
+  }
+
+  /** @return the maximum close-to-sync latency in milliseconds */
+  public static long getMaxCommitLatency() {
+    synchronized (writer) {
+      return writer.maxCommitLatency;
+    }
+  }
 }
@@ -0,0 +1,97 @@
+/*
+ * <copyright>
+ *  
+ *  Copyright 1997-2004 BBNT Solutions, LLC
+ *  under sponsorship of the Defense Advanced Research Projects
+ *  Agency (DARPA).
+ * 
+ *  You can redistribute this software and/or modify it under the
+ *  terms of the Cougaar Open Source License as published on the
+ *  Cougaar Open Source Website (www.cougaar.org).
+ * 
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *  
+ * </copyright>
+ */
+
+
+package org.cougaar.core.persist;
+
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+/**
+ * The stand-in written in place of an object that has a registered
+ * {@link PersistenceCodec}. Only the codec id and the state written
+ * by the codec are recorded, and the PersistenceInputStream resolves
+ * the stand-in back into the decoded object.
+ */
+final class CodedObject implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  private transient PersistenceCodecRegistry.Entry entry;
+
+  /** The encoded object when writing, the decoded object after reading */
+  private transient Object value;
+
+  /**
+   * The identity of the object being read, assigned by the
+   * PersistenceInputStream before readObject is called, or null if
+   * the object is not tracked.
+   */
+  private transient PersistenceReference reference;
+
+  /** Used by the PersistenceInputStream to allocate an instance */
+  CodedObject() {
+  }
+
+  CodedObject(PersistenceCodecRegistry.Entry entry, Object value) {
+    this.entry = entry;
+    this.value = value;
+  }
+
+  Object getValue() {
+    return value;
+  }
+
+  PersistenceReference getReference() {
+    return reference;
+  }
+
+  void setReference(PersistenceReference reference) {
+    this.reference = reference;
+  }
+
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    out.writeShort(entry.id);
+    entry.codec.writeObject(value, out);
+  }
+
+  private void readObject(ObjectInputStream in)
+    throws IOException, ClassNotFoundException
+  {
+    int id = in.readShort();
+    entry = PersistenceCodecRegistry.find(id);
+    if (entry == null) {
+      throw new InvalidClassException("No persistence codec registered for id " + id);
+    }
+    if (in instanceof PersistenceInputStream) {
+      value = ((PersistenceInputStream) in).readCoded(this, entry.codec);
+    } else {
+      value = entry.codec.readObject(in, null);
+    }
+  }
+}
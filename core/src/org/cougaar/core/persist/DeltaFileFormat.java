@@ -0,0 +1,363 @@
+/*
+ * <copyright>
+ *  
+ *  Copyright 1997-2004 BBNT Solutions, LLC
+ *  under sponsorship of the Defense Advanced Research Projects
+ *  Agency (DARPA).
+ * 
+ *  You can redistribute this software and/or modify it under the
+ *  terms of the Cougaar Open Source License as published on the
+ *  Cougaar Open Source Website (www.cougaar.org).
+ * 
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *  
+ * </copyright>
+ */
+
+
+package org.cougaar.core.persist;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The framing of delta files written by {@link FilePersistenceBase}:
+ * a header naming the compression, the (optionally compressed)
+ * delta, and a trailer with the stored length and a CRC-32 of the
+ * stored bytes. Compression and checksumming are applied as the
+ * delta streams out, so no additional copy of the delta is made.
+ * <p>
+ * Files without the header are deltas written before the framing
+ * was introduced and are read unchanged.
+ */
+final class DeltaFileFormat {
+  private static final int HEADER_MAGIC = 0x43444C54;  // "CDLT"
+  private static final int TRAILER_MAGIC = 0x43454E44; // "CEND"
+  private static final int VERSION = 1;
+  private static final int HEADER_LENGTH = 8;
+  private static final int TRAILER_LENGTH = 16;
+
+  private static final int FLAG_CHECKSUM = 1;
+
+  private static final int COMPRESSION_NONE = 0;
+  private static final int COMPRESSION_DEFLATE = 1;
+
+  /** The compression level meaning "do not compress" */
+  static final int NO_COMPRESSION = -2;
+
+  private static final int BUFSIZE = 65536;
+
+  private DeltaFileFormat() { }
+
+  /**
+   * Parse a compression parameter value: "none", "fast" (the fastest
+   * deflate level), "deflate" (the default deflate level), "best" or
+   * "deflate:&lt;level&gt;".
+   * @return the deflate level, or NO_COMPRESSION
+   * @throws IllegalArgumentException if the value is not recognized
+   */
+  static int parseCompression(String value) {
+    value = value.trim().toLowerCase();
+    if (value.equals("none") || value.equals("false")) {
+      return NO_COMPRESSION;
+    }
+    if (value.equals("fast")) {
+      return Deflater.BEST_SPEED;
+    }
+    if (value.equals("deflate") || value.equals("true")) {
+      return Deflater.DEFAULT_COMPRESSION;
+    }
+    if (value.equals("best")) {
+      return Deflater.BEST_COMPRESSION;
+    }
+    if (value.startsWith("deflate:")) {
+      int level = Integer.parseInt(value.substring("deflate:".length()));
+      if (level >= Deflater.NO_COMPRESSION && level <= Deflater.BEST_COMPRESSION) {
+        return level;
+      }
+    }
+    throw new IllegalArgumentException("Unknown compression " + value);
+  }
+
+  /**
+   * Start writing a framed delta.
+   * @param out the file stream; closed when the returned stream is closed.
+   * @param level a deflate level or NO_COMPRESSION.
+   * @param checksum compute a CRC-32 of the stored bytes.
+   */
+  static OutputStream openOutput(OutputStream out, int level, boolean checksum)
+    throws IOException
+  {
+    return new DeltaOutputStream(out, level, checksum);
+  }
+
+  /**
+   * Start reading a delta, which may or may not be framed.
+   * @param in the file stream; closed when the returned stream is closed.
+   * @param fileLength the length of the file.
+   * @throws TornDeltaException if the file is framed but too short
+   * to hold a header and trailer.
+   */
+  static InputStream openInput(InputStream in, long fileLength)
+    throws IOException
+  {
+    if (!in.markSupported()) {
+      in = new BufferedInputStream(in, BUFSIZE);
+    }
+    DataInputStream dis = new DataInputStream(in);
+    in.mark(HEADER_LENGTH);
+    if (fileLength < HEADER_LENGTH || dis.readInt() != HEADER_MAGIC) {
+      in.reset();
+      return in;                // Unframed delta
+    }
+    int version = dis.readUnsignedByte();
+    if (version > VERSION) {
+      throw new IOException("Unsupported delta file version " + version);
+    }
+    int compression = dis.readUnsignedByte();
+    dis.readUnsignedByte();     // flags
+    dis.readUnsignedByte();     // unused
+    long storedLength = fileLength - HEADER_LENGTH - TRAILER_LENGTH;
+    if (storedLength < 0) {
+      throw new TornDeltaException("Delta truncated to " + fileLength + " bytes");
+    }
+    InputStream stored = new BoundedInputStream(in, storedLength);
+    switch (compression) {
+    case COMPRESSION_NONE:
+      return stored;
+    case COMPRESSION_DEFLATE:
+      return new InflaterInputStream(stored, new Inflater(), BUFSIZE) {
+        private boolean closed = false;
+        @Override
+        public void close() throws IOException {
+          if (!closed) {
+            closed = true;
+            inf.end();
+            super.close();
+          }
+        }
+      };
+    default:
+      throw new IOException("Unknown delta compression " + compression);
+    }
+  }
+
+  /**
+   * Check that a delta was completely written. The trailer must be
+   * present and agree with the file length and, if the delta was
+   * written with a checksum, the stored bytes must match it. Unframed
+   * deltas can not be checked and always pass.
+   * @param in the file stream, which is consumed and closed.
+   * @param fileLength the length of the file.
+   * @throws TornDeltaException if the check fails.
+   */
+  static void verify(InputStream in, long fileLength) throws IOException {
+    if (!in.markSupported()) {
+      in = new BufferedInputStream(in, BUFSIZE);
+    }
+    DataInputStream dis = new DataInputStream(in);
+    try {
+      if (fileLength < HEADER_LENGTH || dis.readInt() != HEADER_MAGIC) {
+        return;
+      }
+      dis.readUnsignedByte();   // version
+      dis.readUnsignedByte();   // compression
+      int flags = dis.readUnsignedByte();
+      dis.readUnsignedByte();
+      long storedLength = fileLength - HEADER_LENGTH - TRAILER_LENGTH;
+      if (storedLength < 0) {
+        throw new TornDeltaException("Delta truncated to " + fileLength + " bytes");
+      }
+      CRC32 crc = new CRC32();
+      if ((flags & FLAG_CHECKSUM) != 0) {
+        byte[] buf = new byte[BUFSIZE];
+        long remaining = storedLength;
+        while (remaining > 0) {
+          int n = dis.read(buf, 0, (int) Math.min(buf.length, remaining));
+          if (n < 0) {
+            throw new TornDeltaException("Delta truncated");
+          }
+          crc.update(buf, 0, n);
+          remaining -= n;
+        }
+      } else {
+        long remaining = storedLength;
+        while (remaining > 0) {
+          long n = dis.skip(remaining);
+          if (n <= 0) {
+            throw new TornDeltaException("Delta truncated");
+          }
+          remaining -= n;
+        }
+      }
+      if (dis.readInt() != TRAILER_MAGIC) {
+        throw new TornDeltaException("Delta trailer missing");
+      }
+      long length = dis.readLong();
+      int value = dis.readInt();
+      if (length != storedLength) {
+        throw new TornDeltaException(
+            "Delta length " + storedLength + " does not match trailer " + length);
+      }
+      if ((flags & FLAG_CHECKSUM) != 0 && value != (int) crc.getValue()) {
+        throw new TornDeltaException("Delta checksum mismatch");
+      }
+    } catch (java.io.EOFException eof) {
+      throw new TornDeltaException("Delta truncated");
+    } finally {
+      dis.close();
+    }
+  }
+
+  /**
+   * Writes the header immediately, counts and checksums the stored
+   * bytes, and writes the trailer on close.
+   */
+  private static class DeltaOutputStream extends FilterOutputStream {
+    private final DataOutputStream file;
+    private final CRC32 crc;
+    private final Deflater deflater;
+    private final DeflaterOutputStream deflaterStream;
+    private long storedLength = 0L;
+    private boolean closed = false;
+
+    DeltaOutputStream(OutputStream out, int level, boolean checksum)
+      throws IOException
+    {
+      super(out);
+      file = new DataOutputStream(out);
+      crc = (checksum ? new CRC32() : null);
+      file.writeInt(HEADER_MAGIC);
+      file.writeByte(VERSION);
+      file.writeByte(level == NO_COMPRESSION ? COMPRESSION_NONE : COMPRESSION_DEFLATE);
+      file.writeByte(checksum ? FLAG_CHECKSUM : 0);
+      file.writeByte(0);
+      if (level == NO_COMPRESSION) {
+        deflater = null;
+        deflaterStream = null;
+      } else {
+        deflater = new Deflater(level);
+        OutputStream stored = new OutputStream() {
+          @Override
+          public void write(int b) throws IOException {
+            store(new byte[] {(byte) b}, 0, 1);
+          }
+          @Override
+          public void write(byte[] b, int offset, int nb) throws IOException {
+            store(b, offset, nb);
+          }
+        };
+        deflaterStream = new DeflaterOutputStream(stored, deflater, BUFSIZE);
+      }
+    }
+
+    private void store(byte[] b, int offset, int nb) throws IOException {
+      if (crc != null) crc.update(b, offset, nb);
+      storedLength += nb;
+      out.write(b, offset, nb);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int offset, int nb) throws IOException {
+      if (deflaterStream != null) {
+        deflaterStream.write(b, offset, nb);
+      } else {
+        store(b, offset, nb);
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      // A sync flush would hurt the compression, so only flush
+      // what has already been compressed
+      out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (closed) return;
+      closed = true;
+      if (deflaterStream != null) {
+        deflaterStream.finish();
+        deflater.end();
+      }
+      file.writeInt(TRAILER_MAGIC);
+      file.writeLong(storedLength);
+      file.writeInt(crc == null ? 0 : (int) crc.getValue());
+      out.close();
+    }
+  }
+
+  /**
+   * Reads at most a fixed number of bytes, leaving the trailer
+   * unread.
+   */
+  private static class BoundedInputStream extends FilterInputStream {
+    private long remaining;
+
+    BoundedInputStream(InputStream in, long length) {
+      super(in);
+      remaining = length;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (remaining <= 0) return -1;
+      int b = in.read();
+      if (b >= 0) remaining--;
+      return b;
+    }
+
+    @Override
+    public int read(byte[] buf, int offset, int nb) throws IOException {
+      if (remaining <= 0) return -1;
+      if (nb > remaining) nb = (int) remaining;
+      nb = in.read(buf, offset, nb);
+      if (nb > 0) remaining -= nb;
+      return nb;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      n = in.skip(Math.min(n, remaining));
+      if (n > 0) remaining -= n;
+      return n;
+    }
+
+    @Override
+    public int available() throws IOException {
+      return (int) Math.min(in.available(), remaining);
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+  }
+}
@@ -38,11 +38,16 @@ import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.cougaar.bootstrap.SystemProperties;
 import org.cougaar.core.service.DataProtectionKey;
@@ -72,6 +77,26 @@ import org.cougaar.util.log.Logger;
  * org.cougaar.install.path. This property is not used if the plugin
  * is configured with a specific parameter specifying the location of
  * the persistence root.
+ *
+ * @property org.cougaar.core.persistence.compression
+ * The default compression of delta files: "none" (the default),
+ * "fast", "deflate", "best" or "deflate:&lt;level&gt;". Overridden by
+ * the "compression=" plugin parameter.
+ *
+ * @property org.cougaar.core.persistence.checksum
+ * If true (the default), delta files carry a CRC-32. The final delta
+ * of a sequence is verified before rehydration, so that a torn final
+ * delta is detected and skipped. Overridden by the "checksum=" plugin
+ * parameter.
+ *
+ * @property org.cougaar.core.persistence.mappedRead
+ * If true (the default), deltas are memory-mapped for rehydration
+ * rather than read through file streams. Each mapping is released as
+ * soon as its delta is read, where the JVM allows it; otherwise it
+ * lasts until it is garbage collected, and on Windows the delta file
+ * can't be deleted until then, so set this false where old deltas
+ * must be cleaned up promptly. Overridden by the "mappedRead=" plugin
+ * parameter.
  */
 public abstract class FilePersistenceBase
   extends PersistencePluginAdapter
@@ -97,12 +122,53 @@ public abstract class FilePersistenceBase
   private String instanceId;
   private FileMutex mutex;
   private int deltaNumber;      // The number of the currently open output file.
+  private int compression = DeltaFileFormat.NO_COMPRESSION;
+  private boolean checksum =
+    SystemProperties.getBoolean(PERSISTENCE_CHECKSUM_PROP, true);
+  private boolean mappedRead =
+    SystemProperties.getBoolean(PERSISTENCE_MAPPED_READ_PROP, true);
+  // The final delta of each sequence read, the only ones that can be torn
+  private Set finalDeltas = new HashSet();
+  // The mappings of the deltas being read, released when they finish
+  private Map mappings = new HashMap();
+
+  /**
+   * Parse a compression setting, logging an error and not
+   * compressing if it is not recognized.
+   */
+  private static int parseCompression(Logger logger, String setting, String value) {
+    try {
+      return DeltaFileFormat.parseCompression(value);
+    } catch (IllegalArgumentException iae) {
+      logger.error("Parse error " + setting + "=" + value + ", not compressing");
+      return DeltaFileFormat.NO_COMPRESSION;
+    }
+  }
+
+  /**
+   * Parse a boolean parameter as SystemProperties.getBoolean does,
+   * warning of values that are neither "true" nor "false".
+   */
+  private boolean parseBoolean(String param, String value) {
+    if (!value.equalsIgnoreCase("true") && !value.equalsIgnoreCase("false")) {
+      if (pps.getLogger().isWarnEnabled()) {
+        pps.getLogger().warn(name + ": " + param + " is neither true nor false, using false");
+      }
+    }
+    return Boolean.valueOf(value).booleanValue();
+  }
 
   @Override
 protected void handleParameter(String param) {
     String value;
     if ((value = parseParamValue(param, PERSISTENCE_ROOT_PREFIX)) != null) {
       persistenceRoot = new File(value);
+    } else if ((value = parseParamValue(param, PERSISTENCE_COMPRESSION_PREFIX)) != null) {
+      compression = parseCompression(pps.getLogger(), PERSISTENCE_COMPRESSION_NAME, value);
+    } else if ((value = parseParamValue(param, PERSISTENCE_CHECKSUM_PREFIX)) != null) {
+      checksum = parseBoolean(param, value);
+    } else if ((value = parseParamValue(param, PERSISTENCE_MAPPED_READ_PREFIX)) != null) {
+      mappedRead = parseBoolean(param, value);
     } else {
       if (pps.getLogger().isWarnEnabled()) {
         pps.getLogger().warn(name + ": Unrecognized parameter " + param);
@@ -120,6 +186,11 @@ protected void handleParameter(String param) {
     if (params.length == 1 && params[0].indexOf('=') < 0) {
       params[0] = PERSISTENCE_ROOT_PREFIX + params[0];
     }
+    // The default, which the parameters override
+    String value = SystemProperties.getProperty(PERSISTENCE_COMPRESSION_PROP);
+    if (value != null) {
+      compression = parseCompression(pps.getLogger(), PERSISTENCE_COMPRESSION_PROP, value);
+    }
     init(pps, name, params);
     if (persistenceRoot == null) {
       persistenceRoot = getDefaultPersistenceRoot(name);
@@ -247,7 +318,9 @@ public void unlockOwnership() throws PersistenceException {
         sequenceFile = new File(persistenceDirectory, names[i]);
       }
       try {
-        result.add(readSequenceFile(sequenceFile));
+        SequenceNumbers sequenceNumbers = readSequenceFile(sequenceFile);
+        finalDeltas.add(new Integer(sequenceNumbers.current - 1));
+        result.add(sequenceNumbers);
       } catch (IOException e) {
 	pps.getLogger().error("Error reading " + sequenceFile, e);
       }
@@ -328,7 +401,7 @@ public void unlockOwnership() throws PersistenceException {
     if (ls.isInfoEnabled()) {
       ls.info("Persist to " + tempFile);
     }
-    return openFileOutputStream(tempFile);
+    return DeltaFileFormat.openOutput(openFileOutputStream(tempFile), compression, checksum);
   }
 
   public void finishOutputStream(SequenceNumbers retainNumbers,
@@ -353,10 +426,48 @@ public void unlockOwnership() throws PersistenceException {
     if (ls.isInfoEnabled()) {
       ls.info("rehydrate " + deltaFile);
     }
-    return openFileInputStream(deltaFile);
+    // Opening the file first waits for any buffered writes
+    InputStream is = openFileInputStream(deltaFile);
+    long length = deltaFile.length();
+    // Earlier deltas were complete before the next one was started,
+    // so only a final delta is read an extra time to verify it
+    boolean verify =
+      finalDeltas.isEmpty() || finalDeltas.contains(new Integer(deltaNumber));
+    if (mappedRead) {
+      is.close();
+      ByteBuffer mapping = MappedFileInputStream.map(deltaFile);
+      if (mapping != null) {
+        // Verify and decode share the one mapping
+        try {
+          if (verify) {
+            DeltaFileFormat.verify(new MappedFileInputStream(mapping), length);
+          }
+          is = DeltaFileFormat.openInput(new MappedFileInputStream(mapping), length);
+        } catch (IOException ioe) {
+          // finishInputStream won't be called
+          MappedFileInputStream.unmap(mapping);
+          throw ioe;
+        }
+        mappings.put(new Integer(deltaNumber), mapping);
+        return is;
+      }
+      is = openFileInputStream(deltaFile);
+    }
+    if (verify) {
+      DeltaFileFormat.verify(is, length);
+      is = openFileInputStream(deltaFile);
+    }
+    return DeltaFileFormat.openInput(is, length);
   }
 
   public void finishInputStream(int deltaNumber) {
+    ByteBuffer mapping = (ByteBuffer) mappings.remove(new Integer(deltaNumber));
+    if (mapping != null && !MappedFileInputStream.unmap(mapping)) {
+      Logger ls = pps.getLogger();
+      if (ls.isDebugEnabled()) {
+        ls.debug("Mapping of delta " + deltaNumber + " left to the garbage collector");
+      }
+    }
   }
 
   private void deleteOldPersistence() {
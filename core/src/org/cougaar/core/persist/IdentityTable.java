@@ -29,7 +29,9 @@ package org.cougaar.core.persist;
 import java.lang.ref.ReferenceQueue;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.cougaar.util.GC;
 import org.cougaar.util.log.Logger;
@@ -50,6 +52,14 @@ import org.cougaar.util.log.Logger;
  * {@link WeakReference}s so that values to which there are no longer
  * any references get removed from the table. WeakHashMap has weak
  * keys, not weak values.
+ * <p>
+ * Entries are pruned as their values are reclaimed by the garbage
+ * collector, via a ReferenceQueue.  A full garbage collection is
+ * only forced when the table was created with "fullGC" set.
+ * <p>
+ * A table created with an {@link Owner} also enters its objects into
+ * a node-wide map, to find the agents that have objects in common
+ * and so must not serialize at the same time as other agents.
  */
 class IdentityTable {
   static class MyArrayList extends ArrayList {
@@ -85,6 +95,34 @@ class IdentityTable {
 
   private Logger logger;
 
+  private final boolean fullGC;
+
+  /**
+   * The agent whose table this is, or null if objects in common with
+   * other agents are not looked for.
+   */
+  private final Owner owner;
+
+  /**
+   * The Owner of the table holding each object, by identity hash
+   * code, for all the tables of the node that have an Owner.
+   */
+  private static final ConcurrentHashMap<Integer, Owner> owners =
+    new ConcurrentHashMap<Integer, Owner>();
+
+  /**
+   * An agent that has identityTables. It is marked shared once one of
+   * its objects is found in another agent's table, or merely has the
+   * same identity hash code as an object there, and stays so.
+   */
+  static final class Owner {
+    private volatile boolean shared = false;
+
+    boolean isShared() {
+      return shared;
+    }
+  }
+
   /**
    * This list keeps all the PersistenceAssociation objects indexed
    * by their refId. Only the first encountered (last written) version
@@ -92,37 +130,79 @@ class IdentityTable {
    */
   private MyArrayList persistentObjects = new MyArrayList();
 
-  IdentityTable(Logger logger) {
+  /**
+   * Forget all the objects of an agent that is going away.
+   */
+  static void removeOwner(Owner owner) {
+    owners.values().removeAll(Collections.singleton(owner));
+  }
+
+  IdentityTable(Logger logger, boolean fullGC, Owner owner) {
     this.logger = logger;
+    this.fullGC = fullGC;
+    this.owner = owner;
+  }
+
+  /**
+   * Remove the associations of collected objects, forcing a full
+   * garbage collection first if so configured.
+   * @return the number of associations removed
+   */
+  public int prune() {
+    if (fullGC) {
+      GC.gc();
+    }
+    return processQueue();
   }
 
-  private void processQueue() {
+  private int processQueue() {
+    int removed = 0;
     PersistenceAssociation pAssoc;
     while ((pAssoc = (PersistenceAssociation) referenceQueue.poll()) != null) {
       if (logger.isDetailEnabled()) logger.detail("processQueue removing " + pAssoc);
-      int hashIndex = (pAssoc.hash & 0x7fffffff) % table.length;
-      for (PersistenceAssociation x = table[hashIndex], prev = null; ; prev = x, x = x.next) {
-        if (x == null) {
-          break;  // Not found due to "clear()"
-        }
-        if (x == pAssoc) {
-          if (prev == null) {
-            table[hashIndex] = pAssoc.next;
-          } else {
-            prev.next = pAssoc.next;
-          }
-          count--;
-          break;
+      unlink(pAssoc);
+      removed++;
+    }
+    return removed;
+  }
+
+  /**
+   * Remove an association whose object is still reachable but is no
+   * longer wanted in the table. Later references to the object will
+   * be written in line, or will create a new association.
+   */
+  public void remove(PersistenceAssociation pAssoc) {
+    if (logger.isDetailEnabled()) logger.detail("remove " + pAssoc);
+    pAssoc.clear();             // Keep it off the reference queue
+    unlink(pAssoc);
+  }
+
+  private void unlink(PersistenceAssociation pAssoc) {
+    int hashIndex = (pAssoc.hash & 0x7fffffff) % table.length;
+    for (PersistenceAssociation x = table[hashIndex], prev = null; ; prev = x, x = x.next) {
+      if (x == null) {
+        break;  // Not found due to "clear()"
+      }
+      if (x == pAssoc) {
+        if (prev == null) {
+          table[hashIndex] = pAssoc.next;
+        } else {
+          prev.next = pAssoc.next;
         }
+        count--;
+        break;
       }
-      persistentObjects.set(pAssoc.getReferenceId().intValue(), null);
+    }
+    persistentObjects.set(pAssoc.getReferenceId().intValue(), null);
+    if (owner != null) {
+      owners.remove(new Integer(pAssoc.hash), owner);
     }
   }
 
   public void setRehydrationCollection(Collection list) {
     rehydrationCollection = list;
     if (list == null) {
-      GC.gc();
+      prune();
     }
   }
 
@@ -196,6 +276,13 @@ class IdentityTable {
     }
     persistentObjects.set(ix, pAssoc);
     count++;
+    if (owner != null) {
+      Owner other = owners.putIfAbsent(new Integer(pAssoc.hash), owner);
+      if (other != null && other != owner) {
+        other.shared = true;
+        owner.shared = true;
+      }
+    }
     return pAssoc;
   }
 
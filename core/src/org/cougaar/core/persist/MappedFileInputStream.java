@@ -0,0 +1,178 @@
+/*
+ * <copyright>
+ *  
+ *  Copyright 1997-2004 BBNT Solutions, LLC
+ *  under sponsorship of the Defense Advanced Research Projects
+ *  Agency (DARPA).
+ * 
+ *  You can redistribute this software and/or modify it under the
+ *  terms of the Cougaar Open Source License as published on the
+ *  Cougaar Open Source Website (www.cougaar.org).
+ * 
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *  
+ * </copyright>
+ */
+
+
+package org.cougaar.core.persist;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * An InputStream over a read-only memory mapping of a file. The file
+ * contents are paged in by the operating system as they are read
+ * instead of being copied through an input buffer, and several
+ * streams may share one mapping.
+ * <p>
+ * A mapping otherwise lasts until it is garbage collected, and on
+ * some platforms, such as Windows, a mapped file can't be deleted,
+ * so mappings should be released with {@link #unmap} once their
+ * streams are closed.
+ */
+final class MappedFileInputStream extends InputStream {
+  private final ByteBuffer buffer;
+  private boolean closed = false;
+
+  /**
+   * Map a file.
+   * @return the mapping, or null if the file is too large to be
+   * mapped as one buffer.
+   */
+  static ByteBuffer map(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = raf.getChannel();
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        return null;
+      }
+      // The mapping remains valid after the channel is closed
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0L, size);
+    } finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * Release a mapping now rather than when it is garbage collected.
+   * No stream may read the mapping afterwards. Java has no public way
+   * to do this, so it uses the cleaner of the JVM's mapped buffers,
+   * or sun.misc.Unsafe.invokeCleaner on newer JVMs, where there is
+   * one, and otherwise leaves the mapping to the garbage collector.
+   * @return true if the mapping was released.
+   */
+  static boolean unmap(ByteBuffer mapping) {
+    try {
+      Method cleanerMethod = mapping.getClass().getMethod("cleaner");
+      cleanerMethod.setAccessible(true);
+      Object cleaner = cleanerMethod.invoke(mapping);
+      if (cleaner != null) {
+        Method cleanMethod = cleaner.getClass().getMethod("clean");
+        cleanMethod.setAccessible(true);
+        cleanMethod.invoke(cleaner);
+        return true;
+      }
+    } catch (Exception e) {
+      // Not accessible on this JVM, try Unsafe
+    }
+    try {
+      Class unsafeClass = Class.forName("sun.misc.Unsafe");
+      Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+      theUnsafe.setAccessible(true);
+      Method invokeCleaner =
+        unsafeClass.getMethod("invokeCleaner", new Class[] {ByteBuffer.class});
+      invokeCleaner.invoke(theUnsafe.get(null), new Object[] {mapping});
+      return true;
+    } catch (Exception e) {
+      return false;
+    }
+  }
+
+  /**
+   * @param mapping the mapped file; the stream reads an independent
+   * view of it.
+   */
+  MappedFileInputStream(ByteBuffer mapping) {
+    buffer = mapping.duplicate();
+    buffer.rewind();
+  }
+
+  /**
+   * Once closed, the stream no longer touches the mapping, which may
+   * then be released.
+   */
+  @Override
+  public void close() {
+    closed = true;
+  }
+
+  private void checkOpen() throws IOException {
+    if (closed) throw new IOException("Stream closed");
+  }
+
+  @Override
+  public int read() throws IOException {
+    checkOpen();
+    if (!buffer.hasRemaining()) return -1;
+    return buffer.get() & 0xff;
+  }
+
+  @Override
+  public int read(byte[] buf, int offset, int nb) throws IOException {
+    checkOpen();
+    if (nb == 0) return 0;
+    int remaining = buffer.remaining();
+    if (remaining == 0) return -1;
+    if (nb > remaining) nb = remaining;
+    buffer.get(buf, offset, nb);
+    return nb;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    checkOpen();
+    if (n <= 0) return 0L;
+    int nb = (int) Math.min(n, buffer.remaining());
+    buffer.position(buffer.position() + nb);
+    return nb;
+  }
+
+  @Override
+  public int available() throws IOException {
+    checkOpen();
+    return buffer.remaining();
+  }
+
+  @Override
+  public boolean markSupported() {
+    return true;
+  }
+
+  @Override
+  public void mark(int readLimit) {
+    buffer.mark();
+  }
+
+  @Override
+  public void reset() {
+    buffer.reset();
+  }
+}
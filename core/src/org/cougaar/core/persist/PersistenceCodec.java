@@ -0,0 +1,72 @@
+/*
+ * <copyright>
+ *  
+ *  Copyright 1997-2004 BBNT Solutions, LLC
+ *  under sponsorship of the Defense Advanced Research Projects
+ *  Agency (DARPA).
+ * 
+ *  You can redistribute this software and/or modify it under the
+ *  terms of the Cougaar Open Source License as published on the
+ *  Cougaar Open Source Website (www.cougaar.org).
+ * 
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *  
+ * </copyright>
+ */
+
+
+package org.cougaar.core.persist;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+/**
+ * A hand-written serializer for one persisted class, registered with
+ * the {@link PersistenceCodecRegistry}.
+ * <p>
+ * Instances of a registered class are written with the codec instead
+ * of the default field-by-field reflection of the
+ * ObjectOutputStream. Nested objects should be written with
+ * <code>out.writeObject</code> so that they continue to participate
+ * in the persistence identity tracking; primitive fields should be
+ * written with the primitive write methods.
+ * <p>
+ * Rehydration updates existing objects in place, so a codec for a
+ * published (blackboard) class must be able to read the persisted
+ * state into an existing instance. Codecs should not be registered
+ * for classes whose nested objects refer back to the instance being
+ * written, since such back-references cannot be resolved until the
+ * codec has returned.
+ */
+public interface PersistenceCodec {
+  /**
+   * Write the state of an object.
+   * @param object the object to write; its class is the class for
+   * which this codec was registered.
+   * @param out the stream to write to.
+   */
+  void writeObject(Object object, ObjectOutput out) throws IOException;
+
+  /**
+   * Read the state written by {@link #writeObject}.
+   * @param in the stream to read from.
+   * @param existing the instance that currently represents the
+   * persisted object and should be updated in place, or null if a
+   * new instance must be created.
+   * @return the rehydrated object, normally <code>existing</code> if
+   * it was non-null.
+   */
+  Object readObject(ObjectInput in, Object existing)
+    throws IOException, ClassNotFoundException;
+}
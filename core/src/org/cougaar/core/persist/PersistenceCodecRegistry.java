@@ -0,0 +1,148 @@
+/*
+ * <copyright>
+ *  
+ *  Copyright 1997-2004 BBNT Solutions, LLC
+ *  under sponsorship of the Defense Advanced Research Projects
+ *  Agency (DARPA).
+ * 
+ *  You can redistribute this software and/or modify it under the
+ *  terms of the Cougaar Open Source License as published on the
+ *  Cougaar Open Source Website (www.cougaar.org).
+ * 
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *  
+ * </copyright>
+ */
+
+
+package org.cougaar.core.persist;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The registry of {@link PersistenceCodec}s used by the
+ * {@link PersistenceOutputStream} and {@link PersistenceInputStream}.
+ * <p>
+ * Each codec is registered for exactly one class (subclasses are not
+ * matched) under an explicit id. The id, not the class name, is
+ * recorded in the persistence delta, so it must remain stable for as
+ * long as deltas written with it must be readable. Objects of
+ * unregistered classes are written with standard serialization.
+ */
+public final class PersistenceCodecRegistry {
+
+  /** The largest codec id; ids are written as a short */
+  public static final int MAX_CODEC_ID = Short.MAX_VALUE;
+
+  private static final Object lock = new Object();
+
+  // copy-on-write, so lookups by the persistence streams need no lock
+  private static volatile Map<Class<?>, Entry> byClass =
+    new HashMap<Class<?>, Entry>();
+  private static volatile Map<Integer, Entry> byId =
+    new HashMap<Integer, Entry>();
+
+  private PersistenceCodecRegistry() { }
+
+  static final class Entry {
+    final Class<?> cl;
+    final int id;
+    final PersistenceCodec codec;
+    Entry(Class<?> cl, int id, PersistenceCodec codec) {
+      this.cl = cl;
+      this.id = id;
+      this.codec = codec;
+    }
+  }
+
+  /**
+   * Register a codec.
+   * @param cl the class whose instances the codec writes.
+   * @param id the stable id under which the codec is recorded.
+   * @param codec the codec.
+   * @throws IllegalArgumentException if the class or the id is
+   * already registered with a different codec, or the id is out of
+   * range.
+   */
+  public static void register(Class<?> cl, int id, PersistenceCodec codec) {
+    if (cl == null || codec == null) {
+      throw new IllegalArgumentException("Null class or codec");
+    }
+    if (id < 0 || id > MAX_CODEC_ID) {
+      throw new IllegalArgumentException(
+          "Codec id " + id + " for " + cl.getName() + " is out of range");
+    }
+    if (cl.isArray() || cl == String.class ||
+        cl == PersistenceReference.class) {
+      throw new IllegalArgumentException(
+          "Codecs are not supported for " + cl.getName());
+    }
+    synchronized (lock) {
+      Entry old = byClass.get(cl);
+      if (old == null) {
+        old = byId.get(new Integer(id));
+      }
+      if (old != null) {
+        if (old.cl == cl && old.id == id && old.codec == codec) {
+          return;
+        }
+        throw new IllegalArgumentException(
+            "Codec " + id + " for " + cl.getName() +
+            " conflicts with codec " + old.id + " for " + old.cl.getName());
+      }
+      Entry e = new Entry(cl, id, codec);
+      Map<Class<?>, Entry> newByClass = new HashMap<Class<?>, Entry>(byClass);
+      newByClass.put(cl, e);
+      Map<Integer, Entry> newById = new HashMap<Integer, Entry>(byId);
+      newById.put(new Integer(id), e);
+      byClass = newByClass;
+      byId = newById;
+    }
+  }
+
+  /**
+   * Remove the codec registered for a class.
+   * <p>
+   * Deltas written with the codec can not be read after it has been
+   * removed.
+   */
+  public static void unregister(Class<?> cl) {
+    synchronized (lock) {
+      Entry e = byClass.get(cl);
+      if (e == null) {
+        return;
+      }
+      Map<Class<?>, Entry> newByClass = new HashMap<Class<?>, Entry>(byClass);
+      newByClass.remove(cl);
+      Map<Integer, Entry> newById = new HashMap<Integer, Entry>(byId);
+      newById.remove(new Integer(e.id));
+      byClass = newByClass;
+      byId = newById;
+    }
+  }
+
+  /** @return the codec registered for the exact class, or null */
+  public static PersistenceCodec getCodec(Class<?> cl) {
+    Entry e = byClass.get(cl);
+    return (e == null ? null : e.codec);
+  }
+
+  static Entry find(Class<?> cl) {
+    return byClass.get(cl);
+  }
+
+  static Entry find(int id) {
+    return byId.get(new Integer(id));
+  }
+}
@@ -28,6 +28,7 @@ package org.cougaar.core.persist;
 
 import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InvalidObjectException;
 import java.io.ObjectInputStream;
 import java.io.ObjectStreamClass;
 import java.lang.reflect.InvocationTargetException;
@@ -146,6 +147,25 @@ public void close() throws IOException {
     return pAssoc;
   }
 
+  /**
+   * Read the data of the clients. This is the inverse of
+   * PersistenceOutputStream.writeClientData. Objects written there
+   * for associations are entered into the identityTable.
+   * @param references the array of references for objects that were
+   * written with the client data.
+   */
+  public Object readClientData(PersistenceReference[] references)
+    throws IOException, ClassNotFoundException
+  {
+    this.references = references;
+    nextReadIndex = 0;
+    try {
+      return readObject();
+    } finally {
+      this.references = null;
+    }
+  }
+
   // Use reflection to avoid calling super.newInstanceFromDesc. Don't want to
   // force installation of javaiopatch.jar for compilation if persistence not 
   // involved.
@@ -203,6 +223,15 @@ public void close() throws IOException {
   protected Object newInstanceFromDesc(ObjectStreamClass desc) 
     throws InstantiationException, IllegalAccessException  {
     Class clazz = desc.forClass();
+    if (clazz == CodedObject.class) {
+      // The codec allocates or overwrites the real object; just
+      // remember which object it is
+      CodedObject result = new CodedObject();
+      if (references != null) {
+        result.setReference(references[nextReadIndex++]);
+      }
+      return result;
+    }
     if (references != null &&
 	clazz != PersistenceReference.class &&
 	!clazz.isArray() &&
@@ -233,10 +262,40 @@ public void close() throws IOException {
     return result;
   }
 
+  /**
+   * Read an object written with a {@link PersistenceCodec}. Like
+   * newInstanceFromDesc, an object that already exists in the
+   * identityTable is updated in place, and a new object is entered
+   * into the identityTable under its expected reference.
+   */
+  Object readCoded(CodedObject coded, PersistenceCodec codec)
+    throws IOException, ClassNotFoundException
+  {
+    PersistenceReference reference = coded.getReference();
+    if (reference == null) {
+      return codec.readObject(this, null);
+    }
+    PersistenceAssociation pAssoc = identityTable.get(reference);
+    if (pAssoc == null) {
+      Object result = codec.readObject(this, null);
+      if (result == null) throw new InvalidObjectException("codec returned null @ " + reference);
+      identityTable.create(result, reference);
+      if (logger.isDetailEnabled()) logger.detail("Decoded " + PersistenceServiceComponent.getObjectName(result) + " @ " + reference);
+      return result;
+    }
+    Object existing = pAssoc.getObject();
+    if (existing == null) throw new InvalidObjectException("no object @ " + reference);
+    Object result = codec.readObject(this, existing);
+    if (result != existing) throw new InvalidObjectException("codec replaced object @ " + reference);
+    if (logger.isDetailEnabled()) logger.detail("Decoded over " + PersistenceServiceComponent.getObjectName(result) + " @ " + reference);
+    return result;
+  }
+
   /**
    * Resolve an object just read from the stream into the actual
    * result object. We replace PersistenceReference objects with the
-   * object to which they refer.
+   * object to which they refer, and codec stand-ins with the object
+   * they decoded.
    * @param o the object to resolve.
    * @return the replacement.
    */
@@ -256,6 +315,8 @@ protected Object resolveObject(Object o) throws IOException {
       Object result = pAssoc.getObject();
       if (logger.isDetailEnabled()) logger.detail("Resolving " + PersistenceServiceComponent.getObjectName(result) + " @ " + pRef);
       return result;
+    } else if (o instanceof CodedObject) {
+      return ((CodedObject) o).getValue();
     } else {
       if (logger.isDetailEnabled()) logger.detail("Passing " + PersistenceServiceComponent.getObjectName(o));
       return o;
@@ -42,6 +42,7 @@ public class PersistenceMetricsServiceImpl implements PersistenceMetricsService
   private int base = 0;
   private int size = 0;
   private Metric[] metrics = new Metric[MAX_METRICS];
+  private volatile RehydrationMetric rehydrationMetric;
 
   void addMetric(PersistenceMetricsService.Metric metric) {
     synchronized (metrics) {
@@ -112,5 +113,13 @@ public class PersistenceMetricsServiceImpl implements PersistenceMetricsService
     }
     return 01;
   }
+
+  void setRehydrationMetric(RehydrationMetric metric) {
+    rehydrationMetric = metric;
+  }
+
+  public RehydrationMetric getRehydrationMetric() {
+    return rehydrationMetric;
+  }
 }
 
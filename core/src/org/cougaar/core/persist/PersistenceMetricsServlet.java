@@ -257,6 +257,21 @@ public void execute() {
       printMetric(out, metricsService.getAverage(PersistenceMetricsService.ALL),
                   "Average" + metricsService.getCount(PersistenceMetricsService.ALL) + ") All");
       out.println("  </table>");
+      PersistenceMetricsService.RehydrationMetric rehydration =
+        metricsService.getRehydrationMetric();
+      if (rehydration != null) {
+        out.println("  <p>Rehydrated " + rehydration.getDeltaCount() + " deltas, "
+                    + rehydration.getSize() + " bytes in "
+                    + (rehydration.getEndTime() - rehydration.getStartTime())
+                    + " ms, peak heap " + rehydration.getPeakHeapUsed() + " bytes</p>");
+      }
+      out.println("  <p>Node file writer: " + BufferedFileSystem.getQueueDepth()
+                  + " jobs queued, " + BufferedFileSystem.getInFlightBytes()
+                  + " bytes in flight, " + BufferedFileSystem.getGroupCount()
+                  + " groups committed with " + BufferedFileSystem.getSyncCount()
+                  + " syncs, commit latency average "
+                  + BufferedFileSystem.getAverageCommitLatency() + " ms, max "
+                  + BufferedFileSystem.getMaxCommitLatency() + " ms</p>");
       out.println(" </body>");
       out.println("</html>");
     }
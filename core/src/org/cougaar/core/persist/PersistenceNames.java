@@ -49,6 +49,11 @@ interface PersistenceNames {
   final String PERSISTENCE_DB_INTDEF_NAME = "intDef";
   final String PERSISTENCE_DB_LONGBINARYDEF_NAME = "longBinaryDef";
   final String PERSISTENCE_PARAMETERS_NAME = "parameters";
+  final String PERSISTENCE_MAX_CONCURRENT_NAME = "maxConcurrentPersists";
+  final String PERSISTENCE_FULL_GC_NAME = "fullGC";
+  final String PERSISTENCE_COMPRESSION_NAME = "compression";
+  final String PERSISTENCE_CHECKSUM_NAME = "checksum";
+  final String PERSISTENCE_MAPPED_READ_NAME = "mappedRead";
   final String[] NAMES = {
     PERSISTENCE_ARCHIVE_COUNT_NAME,
     PERSISTENCE_CONSOLIDATION_PERIOD_NAME,
@@ -64,7 +69,10 @@ interface PersistenceNames {
     PERSISTENCE_DB_PASSWORD_NAME,
     PERSISTENCE_DB_INTDEF_NAME,
     PERSISTENCE_DB_LONGBINARYDEF_NAME,
-    PERSISTENCE_PARAMETERS_NAME
+    PERSISTENCE_PARAMETERS_NAME,
+    PERSISTENCE_COMPRESSION_NAME,
+    PERSISTENCE_CHECKSUM_NAME,
+    PERSISTENCE_MAPPED_READ_NAME
   };    
 
   // Simple names with equal signs for "startsWith"
@@ -83,6 +91,9 @@ interface PersistenceNames {
   final String PERSISTENCE_DB_INTDEF_PREFIX            = PERSISTENCE_DB_INTDEF_NAME            + "=";
   final String PERSISTENCE_DB_LONGBINARYDEF_PREFIX     = PERSISTENCE_DB_LONGBINARYDEF_NAME     + "=";
   final String PERSISTENCE_PARAMETERS_PREFIX           = PERSISTENCE_PARAMETERS_NAME           + "=";
+  final String PERSISTENCE_COMPRESSION_PREFIX          = PERSISTENCE_COMPRESSION_NAME          + "=";
+  final String PERSISTENCE_CHECKSUM_PREFIX             = PERSISTENCE_CHECKSUM_NAME             + "=";
+  final String PERSISTENCE_MAPPED_READ_PREFIX          = PERSISTENCE_MAPPED_READ_NAME          + "=";
 
   // Fully-qualified property names
   final String PERSISTENCE_ARCHIVE_COUNT_PROP        = PERSISTENCE_PROP_PREFIX + PERSISTENCE_ARCHIVE_COUNT_NAME;
@@ -100,4 +111,9 @@ interface PersistenceNames {
   final String PERSISTENCE_DB_INTDEF_PROP            = PERSISTENCE_PROP_PREFIX + PERSISTENCE_DB_INTDEF_NAME;
   final String PERSISTENCE_DB_LONGBINARYDEF_PROP     = PERSISTENCE_PROP_PREFIX + PERSISTENCE_DB_LONGBINARYDEF_NAME;
   final String PERSISTENCE_PARAMETERS_PROP           = PERSISTENCE_PROP_PREFIX + PERSISTENCE_PARAMETERS_NAME;
+  final String PERSISTENCE_MAX_CONCURRENT_PROP       = PERSISTENCE_PROP_PREFIX + PERSISTENCE_MAX_CONCURRENT_NAME;
+  final String PERSISTENCE_FULL_GC_PROP              = PERSISTENCE_PROP_PREFIX + PERSISTENCE_FULL_GC_NAME;
+  final String PERSISTENCE_COMPRESSION_PROP          = PERSISTENCE_PROP_PREFIX + PERSISTENCE_COMPRESSION_NAME;
+  final String PERSISTENCE_CHECKSUM_PROP             = PERSISTENCE_PROP_PREFIX + PERSISTENCE_CHECKSUM_NAME;
+  final String PERSISTENCE_MAPPED_READ_PROP          = PERSISTENCE_PROP_PREFIX + PERSISTENCE_MAPPED_READ_NAME;
 }
@@ -54,6 +54,12 @@ public class PersistenceOutputStream extends ObjectOutputStream implements Persi
    */
   private List writeIndex = null;
 
+  /**
+   * If not null, unmarked associations reached while writing are
+   * marked and appended here (full snapshots).
+   */
+  private List reachedAssociations = null;
+
   /**
    * The stream to which the objects are written
    */
@@ -151,6 +157,26 @@ public class PersistenceOutputStream extends ObjectOutputStream implements Persi
     return result;
   }
 
+  /**
+   * Write the data of the clients. Like writeAssociation, this
+   * records the identity of each object written, so that
+   * associations reached only from the client data can be written in
+   * line here and read back into the identityTable.
+   * @return the PersistenceReferences of the objects written.
+   */
+  public PersistenceReference[] writeClientData(Object clientData)
+    throws IOException
+  {
+    writeIndex = new ArrayList();
+    try {
+      writeObject(clientData);
+      PersistenceReference[] result = new PersistenceReference[writeIndex.size()];
+      return (PersistenceReference[]) writeIndex.toArray(result);
+    } finally {
+      writeIndex = null;
+    }
+  }
+
   /**
    * Replace objects that are in the identityTable with reference
    * objects. This operation is suppressed for objects that have
@@ -192,7 +218,12 @@ protected Object replaceObject(Object o) {
 	writeIndex.add(null);   // No identityTable fixup needed
       }
       if (detail) print("Writing " + ix + getShortClassName(o) + " " + o);
-      return o;
+      return encode(o);
+    }
+    if (!pAssoc.isMarked() && reachedAssociations != null) {
+      // Still referenced, so it belongs in this full snapshot
+      pAssoc.setMarked(true);
+      reachedAssociations.add(pAssoc);
     }
     if (pAssoc.isMarked()) {
       if (writeIndex != null) {
@@ -200,12 +231,26 @@ protected Object replaceObject(Object o) {
 	writeIndex.add(pAssoc.getReferenceId());
       }
       if (detail) print("Writing " + ix, pAssoc, " as ", o);
-      return o;
+      return encode(o);
     }
     if (detail) print("Subst ", pAssoc, " for ", o);
     return pAssoc.getReferenceId();
   }
 
+  /**
+   * Substitute a codec stand-in for an object whose class has a
+   * registered PersistenceCodec. The stand-in takes the object's
+   * place in the writeIndex.
+   */
+  private Object encode(Object o) {
+    PersistenceCodecRegistry.Entry entry = PersistenceCodecRegistry.find(o.getClass());
+    if (entry == null) {
+      return o;
+    }
+    if (detail) print("Encoding with codec " + entry.id);
+    return new CodedObject(entry, o);
+  }
+
   private String getShortClassName(Object o) {
     String cn = o.getClass().getName();
     int dot = cn.lastIndexOf('.');
@@ -251,4 +296,13 @@ protected Object replaceObject(Object o) {
   public void setIdentityTable(IdentityTable identityTable) {
     this.identityTable = identityTable;
   }
+
+  /**
+   * Write the unmarked associations reached from the objects being
+   * written in line, marking them and appending them to the given
+   * list, instead of substituting references for them.
+   */
+  public void setReachedAssociations(List list) {
+    reachedAssociations = list;
+  }
 }
@@ -26,6 +26,9 @@
 
 package org.cougaar.core.persist;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
 
 /**
@@ -49,4 +52,58 @@ private int id;
 public String toString() {
     return String.valueOf(id);
   }
+
+  /**
+   * Write an array of references compactly: the length followed by
+   * each id plus one (zero for a null reference) as a variable
+   * length integer. This avoids the per-element object overhead of
+   * serializing the array.
+   * @see #readArray
+   */
+  public static void writeArray(DataOutput out, PersistenceReference[] refs)
+    throws IOException
+  {
+    writeVarInt(out, refs.length);
+    for (int i = 0; i < refs.length; i++) {
+      PersistenceReference ref = refs[i];
+      writeVarInt(out, ref == null ? 0 : ref.id + 1);
+    }
+  }
+
+  /**
+   * Read an array written by {@link #writeArray}.
+   */
+  public static PersistenceReference[] readArray(DataInput in)
+    throws IOException
+  {
+    int length = readVarInt(in);
+    PersistenceReference[] refs = new PersistenceReference[length];
+    for (int i = 0; i < length; i++) {
+      int v = readVarInt(in);
+      if (v != 0) {
+        refs[i] = new PersistenceReference(v - 1);
+      }
+    }
+    return refs;
+  }
+
+  private static void writeVarInt(DataOutput out, int v) throws IOException {
+    while ((v & ~0x7F) != 0) {
+      out.writeByte((v & 0x7F) | 0x80);
+      v >>>= 7;
+    }
+    out.writeByte(v);
+  }
+
+  private static int readVarInt(DataInput in) throws IOException {
+    int v = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      int b = in.readUnsignedByte();
+      v |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return v;
+      }
+    }
+    throw new IOException("Malformed reference array");
+  }
 }
@@ -27,6 +27,7 @@
 package org.cougaar.core.persist;
 
 import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
@@ -47,6 +48,7 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Semaphore;
 
 import org.cougaar.bootstrap.SystemProperties;
 import org.cougaar.core.adaptivity.OMCRangeList;
@@ -66,7 +68,6 @@ import org.cougaar.core.service.DataProtectionServiceClient;
 import org.cougaar.core.service.PersistenceControlService;
 import org.cougaar.core.service.PersistenceMetricsService;
 import org.cougaar.util.CSVUtility;
-import org.cougaar.util.GC;
 import org.cougaar.util.GenericStateModelAdapter;
 import org.cougaar.util.LinkedByteOutputStream;
 import org.cougaar.util.log.Logger;
@@ -133,6 +134,22 @@ import org.cougaar.util.log.Logging;
  * deltas. Default is 300000 (5 minutes). This will be overridden if
  * the persistence control and adaptivity engines are running.
  *
+ * @property org.cougaar.core.persistence.maxConcurrentPersists
+ * The maximum number of agents in this node that may serialize
+ * persistence snapshots at the same time (default 1).  An agent with
+ * an object in its identity table that is also in another agent's
+ * table serializes alone.  Objects shared only beneath objects
+ * that are not themselves shared are not detected, so raise this
+ * only where agents don't share such objects.
+ *
+ * @property org.cougaar.core.persistence.fullGC
+ * Set true to force a full garbage collection before each full
+ * snapshot and after rehydration, so that unreferenced objects are
+ * pruned from the identity table before they are written.  By
+ * default the table is pruned of whatever the collector has already
+ * reclaimed, and a full snapshot writes removed objects only if the
+ * objects it writes still reference them.
+ *
  * @property org.cougaar.core.persistence.DataProtectionServiceStubEnabled
  * set to true to enable 
  * a debugging implementation of DataProtectionService if no real one is found.
@@ -480,7 +497,7 @@ public void load() {
       pluginClasses = (String[]) overridePluginClasses.toArray(pluginClasses);
     }
 
-    identityTable = new IdentityTable(logger);
+    identityTable = new IdentityTable(logger, FULL_GC, tableOwner);
     registerServices(sb);
     try {
       for (int i = 0; i < pluginClasses.length; i++) {
@@ -533,6 +550,9 @@ public void load() {
   @Override
 public void unload() {
     unregisterServices(sb);
+    if (tableOwner != null) {
+      IdentityTable.removeOwner(tableOwner);
+    }
     if (dataProtectionService != null) {
       sb.releaseService(dataProtectionServiceClient,
                         DataProtectionService.class,
@@ -682,6 +702,7 @@ public void unload() {
       try {
         final RehydrationSet[] rehydrationSets = getRehydrationSets(archiveNumber);
         if (pObject != null || rehydrationSets.length > 0) { // Deltas exist
+          rehydrationMetric = new RehydrationMetricImpl();
           try {
             final Map[] resultPtr = new Map[1];
             Runnable thunk = new Runnable() {
@@ -710,11 +731,27 @@ public void unload() {
                                       + rehydrateNumbers.toString());
                         }
                         try {
+                          // Keep the client data of the next-to-last
+                          // delta in case the last delta is torn
+                          Map previousResult = null;
                           while (rehydrateNumbers.first < rehydrateNumbers.current - 1) {
-                            rehydrateOneDelta(ppi, rehydrateNumbers.first++, false);
+                            boolean nextToLast =
+                              rehydrateNumbers.first == rehydrateNumbers.current - 2;
+                            previousResult =
+                              rehydrateOneDelta(ppi, rehydrateNumbers.first++, nextToLast);
+                          }
+                          try {
+                            resultPtr[0] =
+                              rehydrateOneDelta(ppi, rehydrateNumbers.first++, true);
+                          } catch (TornDeltaException tde) {
+                            // Detected before anything was read, so
+                            // the earlier deltas are still consistent
+                            if (previousResult == null) throw tde;
+                            logger.warn("Skipping torn final delta "
+                                        + (rehydrateNumbers.first - 1)
+                                        + ": " + tde.getMessage());
+                            resultPtr[0] = previousResult;
                           }
-                          resultPtr[0] =
-                            rehydrateOneDelta(ppi, rehydrateNumbers.first++, true);
                           success = true;
                           break;      // Successful rehydration
                         } catch (Exception e) { // Rehydration failed
@@ -781,6 +818,14 @@ public void unload() {
       finally {
         rehydrationCollection.clear(); // Allow garbage collection
         identityTable.setRehydrationCollection(null); // Perform garbage collection
+        if (rehydrationMetric != null) {
+          rehydrationMetric.finish();
+          metricsService.setRehydrationMetric(rehydrationMetric);
+          if (logger.isInfoEnabled()) {
+            logger.info(rehydrationMetric.toString());
+          }
+          rehydrationMetric = null;
+        }
       }
     }
   }
@@ -836,26 +881,68 @@ public void unload() {
    * Erase all the effects of a failed rehydration attempt.
    */
   private void resetRehydration(Collection rehydrationCollection) {
-    identityTable = new IdentityTable(logger);
+    identityTable = new IdentityTable(logger, FULL_GC, tableOwner);
     rehydrationCollection.clear();
     identityTable.setRehydrationCollection(rehydrationCollection);
   }
 
+  /** Statistics of the rehydration in progress, if any */
+  private RehydrationMetricImpl rehydrationMetric;
+
+  /** Sample the heap in use every 1024 associations */
+  private static final int HEAP_SAMPLE_MASK = 1023;
+
   private Map rehydrateOneDelta(PersistencePlugin ppi, int deltaNumber, boolean lastDelta)
     throws IOException, ClassNotFoundException
   {
-    InputStream is = ppi.openInputStream(deltaNumber);
+    CountingInputStream is = new CountingInputStream(ppi.openInputStream(deltaNumber));
     DataProtectionService dataProtectionService = getDataProtectionService();
+    ObjectInputStream ois;
     if (dataProtectionService != null) {
       PersistenceKeyEnvelope keyEnvelope = new PersistenceKeyEnvelope(ppi, deltaNumber);
-      is = dataProtectionService.getInputStream(keyEnvelope, is);
+      ois = new ObjectInputStream(dataProtectionService.getInputStream(keyEnvelope, is));
+    } else {
+      ois = new ObjectInputStream(is);
     }
-    ObjectInputStream ois = new ObjectInputStream(is);
     try {
       return rehydrateFromStream(ois, deltaNumber, lastDelta);
     } finally {
       ois.close();
       ppi.finishInputStream(deltaNumber);
+      if (rehydrationMetric != null) {
+        rehydrationMetric.addDelta(is.getCount());
+      }
+    }
+  }
+
+  /**
+   * Counts the bytes read from a persistence medium.
+   */
+  private static class CountingInputStream extends FilterInputStream {
+    private long count = 0L;
+    CountingInputStream(InputStream in) {
+      super(in);
+    }
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b >= 0) count++;
+      return b;
+    }
+    @Override
+    public int read(byte[] buf, int offset, int nb) throws IOException {
+      nb = super.read(buf, offset, nb);
+      if (nb > 0) count += nb;
+      return nb;
+    }
+    @Override
+    public long skip(long n) throws IOException {
+      n = super.skip(n);
+      count += n;
+      return n;
+    }
+    long getCount() {
+      return count;
     }
   }
 
@@ -863,6 +950,9 @@ public void unload() {
     throws IOException, ClassNotFoundException
   {
     ByteArrayInputStream bs = new ByteArrayInputStream(bytes);
+    if (rehydrationMetric != null) {
+      rehydrationMetric.addDelta(bytes.length);
+    }
     return rehydrateFromStream(new ObjectInputStream(bs), 0, true);
   }
 
@@ -871,14 +961,36 @@ public void unload() {
     throws IOException, ClassNotFoundException
   {
     try {
-      identityTable.setNextId(currentInput.readInt());
+      int version = 0;
+      int nextId = currentInput.readInt();
+      if (nextId == DELTA_HEADER_MAGIC) {
+        version = currentInput.readInt();
+        if (version > DELTA_FORMAT_VERSION) {
+          throw new IOException("Unsupported delta format version " + version);
+        }
+        nextId = currentInput.readInt();
+      }
+      identityTable.setNextId(nextId);
       int length = currentInput.readInt();
       if (logger.isDebugEnabled()) {
-        logger.debug("Reading " + length + " objects");
+        logger.debug("Reading " + length + " objects, format version " + version);
       }
       PersistenceReference[][] referenceArrays = new PersistenceReference[length][];
       for (int i = 0; i < length; i++) {
-	referenceArrays[i] = (PersistenceReference []) currentInput.readObject();
+        if (version == 0) {
+          referenceArrays[i] = (PersistenceReference []) currentInput.readObject();
+        } else {
+          referenceArrays[i] = PersistenceReference.readArray(currentInput);
+        }
+      }
+      PersistenceReference[] clientReferences = null;
+      PersistenceReference[][] trailingArrays = new PersistenceReference[0][];
+      if (version >= 2) {
+        clientReferences = PersistenceReference.readArray(currentInput);
+        trailingArrays = new PersistenceReference[currentInput.readInt()][];
+        for (int i = 0; i < trailingArrays.length; i++) {
+          trailingArrays[i] = PersistenceReference.readArray(currentInput);
+        }
       }
       //        byte[] bytes = (byte[]) currentInput.readObject();
       //        PersistenceInputStream stream = new PersistenceInputStream(bytes);
@@ -891,12 +1003,27 @@ public void unload() {
 	for (int i = 0; i < referenceArrays.length; i++) {
           // Side effect: updates identityTable
 	  stream.readAssociation(referenceArrays[i]);
+          referenceArrays[i] = null; // No longer needed
+          if (rehydrationMetric != null && (i & HEAP_SAMPLE_MASK) == 0) {
+            rehydrationMetric.sampleHeap();
+          }
 	}
-	if (lastDelta) {
-          return (Map) stream.readObject();
-        } else {
+	if (!lastDelta && trailingArrays.length == 0) {
           return null;
         }
+        // Associations written in line with the client data must be
+        // read even if the client data itself is not wanted
+        Map clientData;
+        if (clientReferences == null) {
+          clientData = (Map) stream.readObject();
+        } else {
+          clientData = (Map) stream.readClientData(clientReferences);
+        }
+        for (int i = 0; i < trailingArrays.length; i++) {
+          stream.readAssociation(trailingArrays[i]);
+          trailingArrays[i] = null;
+        }
+        return (lastDelta ? clientData : null);
       } finally {
 	stream.close();
       }
@@ -1113,7 +1240,36 @@ public void unload() {
    */
   private ArrayList objectsThatMightGoAway = new ArrayList();
 
-  private final static Object vmPersistLock = new Object();
+  /**
+   * Written in place of the nextId of older deltas (which is never
+   * negative) to introduce a versioned header.
+   */
+  private static final int DELTA_HEADER_MAGIC = 0xC0DEC0DE;
+
+  /**
+   * Delta format versions: 0 is the original format with serialized
+   * reference arrays, 1 writes the reference arrays compactly, 2
+   * adds the references of the client data and the associations
+   * that follow it.
+   */
+  private static final int DELTA_FORMAT_VERSION = 2;
+
+  private static final boolean FULL_GC =
+    SystemProperties.getBoolean(PERSISTENCE_FULL_GC_PROP);
+
+  private static final int MAX_CONCURRENT_PERSISTS =
+    Math.max(1, SystemProperties.getInt(PERSISTENCE_MAX_CONCURRENT_PROP, 1));
+
+  /** Limits the number of agents serializing at the same time */
+  private static final Semaphore vmPersistPermits =
+    new Semaphore(MAX_CONCURRENT_PERSISTS, true);
+
+  /**
+   * Finds the objects this agent has in common with other agents'
+   * identityTables, or null if agents serialize one at a time anyway.
+   */
+  private final IdentityTable.Owner tableOwner =
+    (MAX_CONCURRENT_PERSISTS > 1 ? new IdentityTable.Owner() : null);
 
   /**
    * Process the data from all clients. Envelopes and such are put
@@ -1221,16 +1377,30 @@ public void unload() {
 	// Now gather everything to persist from our clients. Side
 	// effect updates identityTable and if !full, associationsToPersist.
 	Map clientData = getClientData();
+	// Removed objects that a full snapshot writes only if
+	// something it writes still references them
+	List removedAssociations = null;
 	if (full) {
-	  // If full dump, garbage collect unreferenced objects
-          GC.gc();
+	  // If full dump, drop unreferenced objects
+	  int pruned = identityTable.prune();
+	  if (logger.isDebugEnabled()) {
+	    logger.debug("Pruned " + pruned + " collected objects");
+	  }
+	  removedAssociations = new ArrayList();
 	  for (Iterator iter = identityTable.iterator(); iter.hasNext(); ) {
 	    PersistenceAssociation pAssoc = (PersistenceAssociation) iter.next();
 	    if (!pAssoc.isMarked()) {
 	      Object object = pAssoc.getObject();
 	      // it is just barely possible that another gc might have
 	      // collected some additional objects so do a final check
-	      if (object != null) {
+	      if (object == null) {
+		continue;
+	      }
+	      if (pAssoc.isInactive()) {
+		// Without a forced gc this may be garbage that has not
+		// been collected yet
+		removedAssociations.add(pAssoc);
+	      } else {
 		// Prevent additional gc from scavenging the objects
 		// we are committed to persisting
 		addAssociationToPersist(pAssoc);
@@ -1245,36 +1415,67 @@ public void unload() {
 	  } else {
 	    PersistenceOutputStream stream = new PersistenceOutputStream(logger);
 	    PersistenceReference[][] referenceArrays;
+	    PersistenceReference[] clientReferences;
+	    PersistenceReference[][] trailingArrays;
 	    if (logger.isDetailEnabled()) {
 	      writeHistoryHeader();
 	    }
 	    stream.setIdentityTable(identityTable);
-	    // One agent at a time to avoid inter-agent deadlock due to shared objects
+	    // Serializing an object from two agents at once may
+	    // deadlock, so an agent that has objects in common with
+	    // another agent takes every permit
+	    int permits =
+	      (tableOwner != null && tableOwner.isShared() ?
+	       MAX_CONCURRENT_PERSISTS : 1);
 	    try {
 	      if (logger.isInfoEnabled()) {
-		logger.info("Obtaining JVM persist lock");
+		logger.info("Obtaining " + permits + " of " +
+			    MAX_CONCURRENT_PERSISTS + " JVM persist permits");
 	      }
-	      synchronized (vmPersistLock) {
+	      vmPersistPermits.acquireUninterruptibly(permits);
+	      try {
 		if (logger.isInfoEnabled()) {
-		  logger.info("Obtained JVM persist lock, serializing");
+		  logger.info("Obtained JVM persist permits, serializing");
 		}
-		int nObjects = associationsToPersist.size();
-		referenceArrays = new PersistenceReference[nObjects][];
-		for (int i = 0; i < nObjects; i++) {
+		// A full snapshot writes the removed objects reached from
+		// what it writes. Those reached from the associations are
+		// appended to them as we go.
+		stream.setReachedAssociations(removedAssociations == null ? null : associationsToPersist);
+		List referenceList = new ArrayList(associationsToPersist.size());
+		for (int i = 0; i < associationsToPersist.size(); i++) {
 		  PersistenceAssociation pAssoc =
 		    (PersistenceAssociation) associationsToPersist.get(i);
 		  if (logger.isDetailEnabled()) {
 		    logger.detail("Persisting " + pAssoc);
 		  }
-		  referenceArrays[i] = stream.writeAssociation(pAssoc);
+		  referenceList.add(stream.writeAssociation(pAssoc));
+		}
+		referenceArrays = (PersistenceReference[][])
+		  referenceList.toArray(new PersistenceReference[referenceList.size()][]);
+		// Those reached only from the client data are written in
+		// line with it, and their associations follow it
+		List trailingAssociations = new ArrayList();
+		stream.setReachedAssociations(removedAssociations == null ? null : trailingAssociations);
+		clientReferences = stream.writeClientData(clientData);
+		stream.setReachedAssociations(null);
+		trailingArrays = new PersistenceReference[trailingAssociations.size()][];
+		for (int i = 0; i < trailingArrays.length; i++) {
+		  PersistenceAssociation pAssoc =
+		    (PersistenceAssociation) trailingAssociations.get(i);
+		  if (logger.isDetailEnabled()) {
+		    logger.detail("Persisting " + pAssoc);
+		  }
+		  trailingArrays[i] = stream.writeAssociation(pAssoc);
 		}
-		stream.writeObject(clientData);
+		associationsToPersist.addAll(trailingAssociations);
 		bytesSerialized = stream.size();
 		if (logger.isInfoEnabled()) {
 		  logger.info(
 			      "Serialized "+bytesSerialized+
-			      " bytes to buffer, releasing lock");
+			      " bytes to buffer, releasing permits");
 		}
+	      } finally {
+		vmPersistPermits.release(permits);
 	      } // Ok to let other agents persist while we write out our data
 	    } finally {
 	      stream.close();
@@ -1283,7 +1484,8 @@ public void unload() {
 	      int estimatedSize = (int)(1.2 * bytesSerialized);
 	      LinkedByteOutputStream returnByteStream = new LinkedByteOutputStream(estimatedSize);
 	      ObjectOutputStream returnOutput = new ObjectOutputStream(returnByteStream);
-	      writeFinalOutput(returnOutput, referenceArrays, stream);
+	      writeFinalOutput(returnOutput, referenceArrays, clientReferences,
+			       trailingArrays, stream);
 	      returnOutput.close();
 	      result = new PersistenceObject("Persistence state "
 					     + sequenceNumbers.current,
@@ -1295,7 +1497,8 @@ public void unload() {
 	      }
 	    }
 	    if (currentOutput != null) {
-	      writeFinalOutput(currentOutput, referenceArrays, stream);
+	      writeFinalOutput(currentOutput, referenceArrays, clientReferences,
+			       trailingArrays, stream);
 	      currentOutput.close();
 	      if (logger.isInfoEnabled()) {
 		logger.info(
@@ -1303,6 +1506,22 @@ public void unload() {
 	      }
 	    }
 	  } // End of non-dummy persistence
+	  if (removedAssociations != null) {
+	    // Nothing in the snapshot refers to these, so later deltas
+	    // must not refer to them either
+	    int dropped = 0;
+	    for (int i = 0, n = removedAssociations.size(); i < n; i++) {
+	      PersistenceAssociation pAssoc =
+		(PersistenceAssociation) removedAssociations.get(i);
+	      if (!pAssoc.isMarked()) {
+		identityTable.remove(pAssoc);
+		dropped++;
+	      }
+	    }
+	    if (logger.isDebugEnabled()) {
+	      logger.debug("Dropped " + dropped + " unreferenced removed objects");
+	    }
+	  }
 	  clearMarks(associationsToPersist.iterator());
           commitTransaction();
 	  logger.printDot("P");
@@ -1367,13 +1586,22 @@ public void unload() {
 
   private void writeFinalOutput(ObjectOutputStream s,
                                 PersistenceReference[][] referenceArrays,
+                                PersistenceReference[] clientReferences,
+                                PersistenceReference[][] trailingArrays,
                                 PersistenceOutputStream stream)
     throws IOException
   {
+    s.writeInt(DELTA_HEADER_MAGIC);
+    s.writeInt(DELTA_FORMAT_VERSION);
     s.writeInt(identityTable.getNextId());
     s.writeInt(referenceArrays.length);
     for (int i = 0; i < referenceArrays.length; i++) {
-      s.writeObject(referenceArrays[i]);
+      PersistenceReference.writeArray(s, referenceArrays[i]);
+    }
+    PersistenceReference.writeArray(s, clientReferences);
+    s.writeInt(trailingArrays.length);
+    for (int i = 0; i < trailingArrays.length; i++) {
+      PersistenceReference.writeArray(s, trailingArrays[i]);
     }
     stream.writeBytes(s);
     s.flush();
@@ -0,0 +1,106 @@
+/*
+ * <copyright>
+ *  
+ *  Copyright 1997-2004 BBNT Solutions, LLC
+ *  under sponsorship of the Defense Advanced Research Projects
+ *  Agency (DARPA).
+ * 
+ *  You can redistribute this software and/or modify it under the
+ *  terms of the Cougaar Open Source License as published on the
+ *  Cougaar Open Source Website (www.cougaar.org).
+ * 
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *  
+ * </copyright>
+ */
+
+
+package org.cougaar.core.persist;
+
+import org.cougaar.core.service.PersistenceMetricsService;
+
+/**
+ * {@link org.cougaar.core.service.PersistenceMetricsService.RehydrationMetric}
+ * implementation. Updated by the rehydrating thread and published
+ * to the metrics service when rehydration finishes.
+ */
+public class RehydrationMetricImpl implements PersistenceMetricsService.RehydrationMetric {
+  private static final Runtime runtime = Runtime.getRuntime();
+
+  private long startTime, endTime, size;
+  private long initialHeapUsed, peakHeapUsed;
+  private int deltaCount;
+
+  RehydrationMetricImpl() {
+    startTime = System.currentTimeMillis();
+    initialHeapUsed = peakHeapUsed = heapUsed();
+  }
+
+  private static long heapUsed() {
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  void addDelta(long bytes) {
+    deltaCount++;
+    size += bytes;
+    sampleHeap();
+  }
+
+  void sampleHeap() {
+    long used = heapUsed();
+    if (used > peakHeapUsed) peakHeapUsed = used;
+  }
+
+  void finish() {
+    sampleHeap();
+    endTime = System.currentTimeMillis();
+  }
+
+  public long getStartTime() {
+    return startTime;
+  }
+
+  public long getEndTime() {
+    return endTime;
+  }
+
+  public int getDeltaCount() {
+    return deltaCount;
+  }
+
+  public long getSize() {
+    return size;
+  }
+
+  public long getInitialHeapUsed() {
+    return initialHeapUsed;
+  }
+
+  public long getPeakHeapUsed() {
+    return peakHeapUsed;
+  }
+
+  @Override
+public String toString() {
+    return "Rehydrated "
+      + deltaCount
+      + " deltas, "
+      + size
+      + " bytes in "
+      + (endTime - startTime) + " ms, peak heap "
+      + peakHeapUsed
+      + " bytes ("
+      + (peakHeapUsed - initialHeapUsed)
+      + " over initial)";
+  }
+}
@@ -35,6 +35,7 @@ import java.util.SortedSet;
 import java.util.TreeSet;
 
 import org.cougaar.core.agent.service.alarm.Alarm;
+import org.cougaar.core.blackboard.ClassPredicate;
 import org.cougaar.core.blackboard.CollectionSubscription;
 import org.cougaar.core.logging.LoggingServiceWithPrefix;
 import org.cougaar.core.persist.PersistenceNotEnabledException;
@@ -197,12 +198,13 @@ public void execute() {
   };
   
   private static UnaryPredicate deletablePredicate =
-    new UnaryPredicate() {
+    new ClassPredicate(Deletable.class) {
       /**
        * 
        */
       private static final long serialVersionUID = 1L;
 
+      @Override
       public boolean execute(Object o) {
 	if (o instanceof Deletable) {
 	  Deletable d = (Deletable) o;
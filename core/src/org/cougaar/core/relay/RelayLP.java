@@ -38,13 +38,14 @@ import java.util.Set;
 
 import org.cougaar.core.blackboard.ABATranslation;
 import org.cougaar.core.blackboard.ChangeReport;
+import org.cougaar.core.blackboard.ClassPredicate;
 import org.cougaar.core.blackboard.Directive;
 import org.cougaar.core.blackboard.EnvelopeTuple;
 import org.cougaar.core.domain.ABAChangeLogicProvider;
-import org.cougaar.core.domain.EnvelopeLogicProvider;
 import org.cougaar.core.domain.MessageLogicProvider;
 import org.cougaar.core.domain.RestartLogicProvider;
 import org.cougaar.core.domain.RootPlan;
+import org.cougaar.core.domain.TypedEnvelopeLogicProvider;
 import org.cougaar.core.mts.MessageAddress;
 import org.cougaar.core.util.UID;
 import org.cougaar.core.util.UniqueObject;
@@ -60,7 +61,7 @@ import org.cougaar.util.log.LoggerFactory;
  * @see Relay
  */
 public class RelayLP
-implements EnvelopeLogicProvider, MessageLogicProvider, RestartLogicProvider, ABAChangeLogicProvider
+implements TypedEnvelopeLogicProvider, MessageLogicProvider, RestartLogicProvider, ABAChangeLogicProvider
 {
   private final RootPlan rootplan;
   private final MessageAddress self;
@@ -80,6 +81,11 @@ implements EnvelopeLogicProvider, MessageLogicProvider, RestartLogicProvider, AB
   }
 
   // EnvelopeLogicProvider implementation
+  /** We only handle Relay Sources and Targets */
+  public Class[] getHandledClasses() {
+    return new Class[] { Relay.class };
+  }
+
   /**
    * Sends the Content of Relay sources to the their targets and sends
    * target responses back to the source.
@@ -514,16 +520,7 @@ implements EnvelopeLogicProvider, MessageLogicProvider, RestartLogicProvider, AB
         self+": Reconcile with "+
         (cid==null?"all agents":cid.toString()));
     }
-    UnaryPredicate pred = new UnaryPredicate() {
-      /**
-       * 
-       */
-      private static final long serialVersionUID = 1L;
-
-      public boolean execute(Object o) {
-        return o instanceof Relay;
-      }
-    };
+    UnaryPredicate pred = new ClassPredicate(Relay.class);
 
     // Loop over all Relays on the Blackboard
     Enumeration en = rootplan.searchBlackboard(pred);
@@ -612,18 +609,9 @@ implements EnvelopeLogicProvider, MessageLogicProvider, RestartLogicProvider, AB
   }
 
   // ABAChange implementation
+  // FIXME: Somehow require it really is a source from here?
   private static final UnaryPredicate relaySourcePred =
-    new UnaryPredicate() {
-      /**
-       * 
-       */
-      private static final long serialVersionUID = 1L;
-
-      public boolean execute(Object o) {
-	// FIXME: Somehow require it really is a source from here?
-        return o instanceof Relay.Source;
-      }
-    };
+    new ClassPredicate(Relay.Source.class);
 
   // Implement ABAChangeLogicProvider.
 
@@ -26,6 +26,8 @@
 
 package org.cougaar.core.service;
 
+import java.util.List;
+
 import org.cougaar.core.component.Service;
 import org.cougaar.util.UnaryPredicate;
 
@@ -59,4 +61,49 @@ public interface BlackboardMetricsService extends Service {
    */
   int getBlackboardCount(UnaryPredicate predicate);
 
+  /**
+   * Get the number of subscriptions that have been filled with
+   * the blackboard's contents.
+   */
+  long getSubscriptionFillCount();
+
+  /**
+   * Get the total time in milliseconds spent filling new
+   * subscriptions, including any time spent waiting for the
+   * distributor lock.
+   */
+  long getSubscriptionFillTime();
+
+  /**
+   * Get the longest time in milliseconds taken to fill a single
+   * subscription.
+   */
+  long getMaxSubscriptionFillTime();
+
+  /**
+   * Get the invocation statistics of each EnvelopeLogicProvider, or
+   * of each domain whose LPs can't be invoked individually.
+   */
+  List<LogicProviderStatistics> getLogicProviderStatistics();
+
+  /** Invocation statistics for one EnvelopeLogicProvider */
+  final class LogicProviderStatistics {
+    /** the LP's class name, or the domain name */
+    public final String name;
+    /** the number of EnvelopeTuples given to the LP */
+    public final long invocations;
+    /** the total time spent in the LP, in nanoseconds */
+    public final long nanos;
+
+    public LogicProviderStatistics(String name, long invocations, long nanos) {
+      this.name = name;
+      this.invocations = invocations;
+      this.nanos = nanos;
+    }
+
+    @Override
+    public String toString() {
+      return name+" invocations="+invocations+" nanos="+nanos;
+    }
+  }
 }
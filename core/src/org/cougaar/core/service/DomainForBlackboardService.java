@@ -26,6 +26,7 @@
 
 package org.cougaar.core.service;
 
+import java.util.List;
 import java.util.Set;
 
 import org.cougaar.core.blackboard.Blackboard;
@@ -55,4 +56,8 @@ public interface DomainForBlackboardService extends DomainService {
 
   /** invoke ABAChangeLogicProviders across all currently loaded domains */
   void invokeABAChangeLogicProviders(Set communities);
+
+  /** @return the EnvelopeLogicProvider invocation statistics */
+  List<BlackboardMetricsService.LogicProviderStatistics> 
+    getLogicProviderStatistics();
 }  
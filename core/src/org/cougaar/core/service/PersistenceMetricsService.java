@@ -45,6 +45,25 @@ public interface PersistenceMetricsService {
     String getPersistencePluginParam(int i);
   }
 
+  /**
+   * Statistics of the rehydration of the agent.
+   */
+  interface RehydrationMetric {
+    long getStartTime();
+    long getEndTime();
+    /** The number of deltas read */
+    int getDeltaCount();
+    /** The number of (uncompressed) delta bytes read */
+    long getSize();
+    /** The heap in use when rehydration started */
+    long getInitialHeapUsed();
+    /**
+     * The largest heap in use observed during rehydration, sampled
+     * as associations are read
+     */
+    long getPeakHeapUsed();
+  }
+
   /**
    * Designates that averaging should include only full
    * snapshots
@@ -89,4 +108,11 @@ public interface PersistenceMetricsService {
    * which kind of snapshots should be counted.
    */
   int getCount(int which);
+
+  /**
+   * Get the statistics of the rehydration of the agent.
+   * @return the rehydration metric, or null if the agent did not
+   * rehydrate.
+   */
+  RehydrationMetric getRehydrationMetric();
 }
@@ -0,0 +1,214 @@
+/*
+ * <copyright>
+ *  
+ *  Copyright 1997-2004 BBNT Solutions, LLC
+ *  under sponsorship of the Defense Advanced Research Projects
+ *  Agency (DARPA).
+ * 
+ *  You can redistribute this software and/or modify it under the
+ *  terms of the Cougaar Open Source License as published on the
+ *  Cougaar Open Source Website (www.cougaar.org).
+ * 
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *  
+ * </copyright>
+ */
+
+package org.cougaar.core.thread;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.cougaar.bootstrap.SystemProperties;
+
+/**
+ * An extension of {@link PropagatingScheduler} that lets each
+ * non-root {@link Scheduler} keep a few rights as local credit, so
+ * that most starts and stops of an agent's Schedulables only touch
+ * that agent's Scheduler rather than every Scheduler up to the root.
+ * <p>
+ * When a right is released and nothing is queued anywhere in the
+ * lane, the releasing Scheduler first hands it to its own queue, and
+ * otherwise keeps it as credit for its next start.  As soon as any
+ * Schedulable in the lane is queued, idle credit is taken back from
+ * every Scheduler and released up to the root, whose {@link
+ * RightsSelector} decides who gets it.  So round-robin and
+ * percentage-load policies still govern the lane whenever there's
+ * contention.
+ *
+ * @property org.cougaar.thread.scheduler.maxCredit
+ *   The number of idle rights each Scheduler may keep.  If positive,
+ *   the thread service uses this Scheduler instead of the
+ *   PropagatingScheduler.  Defaults to 0.
+ */
+public class CreditScheduler extends PropagatingScheduler {
+
+    static final int MAX_CREDIT = 
+	SystemProperties.getInt("org.cougaar.thread.scheduler.maxCredit", 0);
+
+    private int maxCredit = MAX_CREDIT;
+
+    // rights held from our parent but not in use, guarded by this
+    private int credit = 0;
+
+    // Root only: the total idle credit in the lane, and whether
+    // anything in the lane has been queued since the root last
+    // found nothing pending
+    private final AtomicInteger idleCredit = new AtomicInteger();
+    private volatile boolean demand = false;
+
+    private CreditScheduler root;
+
+    public CreditScheduler(ThreadListenerProxy listenerProxy) {
+	super(listenerProxy);
+    }
+
+    /** Override the maxCredit property for this Scheduler */
+    void setMaxCredit(int maxCredit) {
+	this.maxCredit = maxCredit;
+    }
+
+    private CreditScheduler getRoot() {
+	if (root == null) {
+	    TreeNode node = getTreeNode();
+	    while (node.getParent() != null) {
+		node = node.getParent();
+	    }
+	    Scheduler scheduler = node.getScheduler(getLane());
+	    root = 
+		scheduler instanceof CreditScheduler ? 
+		(CreditScheduler) scheduler :
+		this;
+	}
+	return root;
+    }
+
+    private boolean isRoot() {
+	return getTreeNode().getParent() == null;
+    }
+
+    // Use our credit for a start of our own, if nobody else is waiting
+    private synchronized boolean useCredit() {
+	if (credit == 0 || getRoot().demand || !checkLocalRights()) {
+	    return false;
+	}
+	--credit;
+	getRoot().idleCredit.decrementAndGet();
+	incrementRunCount(this);
+	return true;
+    }
+
+    private synchronized boolean addCredit() {
+	if (credit >= maxCredit) {
+	    return false;
+	}
+	++credit;
+	getRoot().idleCredit.incrementAndGet();
+	return true;
+    }
+
+    private synchronized boolean takeCredit() {
+	if (credit == 0) {
+	    return false;
+	}
+	--credit;
+	getRoot().idleCredit.decrementAndGet();
+	return true;
+    }
+
+    @Override
+   boolean requestRights(Scheduler requestor) {
+	if (requestor == this && !isRoot() && useCredit()) {
+	    return true;
+	}
+	return super.requestRights(requestor);
+    }
+
+    @Override
+   void releaseRights(Scheduler consumer) {
+	if (isRoot()) {
+	    super.releaseRights(consumer);
+	    return;
+	}
+	if (!getRoot().demand) {
+	    // Nobody else is waiting, so keep the right in this
+	    // Scheduler: hand it to our own queue or hold it as credit
+	    decrementRunCount(this);
+	    SchedulableObject handoff;
+	    synchronized (this) {
+		handoff = getNextPending();
+	    }
+	    if (handoff != null) {
+		handoff.thread_start();
+		return;
+	    }
+	    if (addCredit()) {
+		// Someone may have queued since we checked for demand,
+		// and seen no idle credit to reclaim
+		CreditScheduler root = getRoot();
+		if (root.demand) {
+		    root.reclaimCredit();
+		}
+		return;
+	    }
+	    Scheduler parent = getTreeNode().getParent().getScheduler(getLane());
+	    parent.releaseRights(this);
+	    return;
+	}
+	super.releaseRights(consumer);
+    }
+
+    @Override
+   SchedulableObject getNextPending() {
+	SchedulableObject next = super.getNextPending();
+	if (next == null && isRoot()) {
+	    demand = false;
+	}
+	return next;
+    }
+
+    @Override
+   void addPendingThread(SchedulableObject thread) {
+	getRoot().demand = true;
+	super.addPendingThread(thread);
+    }
+
+    @Override
+   void startOrQueue(SchedulableObject thread) {
+	super.startOrQueue(thread);
+	CreditScheduler root = getRoot();
+	if (root.demand && root.idleCredit.get() > 0) {
+	    root.reclaimCredit();
+	}
+    }
+
+    // Release all idle credit in the tree below us, so the root can
+    // give it to queued Schedulables
+    private void reclaimCredit() {
+	List<TreeNode> children = getTreeNode().getChildren();
+	for (int i = 0, n = children.size(); i < n; i++) {
+	    TreeNode child_node = children.get(i);
+	    if (child_node == null) {
+		continue; // being added, see RoundRobinSelector
+	    }
+	    Scheduler child = child_node.getScheduler(getLane());
+	    if (child instanceof CreditScheduler) {
+		CreditScheduler credit_child = (CreditScheduler) child;
+		credit_child.reclaimCredit();
+		while (credit_child.takeCredit()) {
+		    releaseRights(credit_child);
+		}
+	    }
+	}
+    }
+}
@@ -41,8 +41,13 @@ import org.cougaar.util.log.Logger;
  * to handle synchronization.  Queues of this kind are used by {@link
  * Scheduler}s to hold {@link Schedulable}s that are not able to run
  * immediately.
+ * <p>
+ * The next element is found by a linear scan, so the comparator may
+ * change its opinion of queued elements.
  */
-public class DynamicSortedQueue<T extends Schedulable> {
+public class DynamicSortedQueue<T extends Schedulable> 
+    extends SortedQueue<T> 
+{
     private Comparator<T> comparator;
     private final List<T> store;
     
@@ -61,6 +66,7 @@ public class DynamicSortedQueue<T extends Schedulable> {
 
     // This should ONLY be called by the ThreadStatusService.  It's
     // unsafe otherwise.
+    @Override
     int processEach(ThreadStatusService.Body body, 
 		    String schedulerName,
 		    Logger logger) {
@@ -89,6 +95,7 @@ public class DynamicSortedQueue<T extends Schedulable> {
 	return count;
     }
 
+    @Override
     public List<T> filter(UnaryPredicate predicate) {
 	List<T> result = new ArrayList<T>();
 	for (int i = 0, n = store.size(); i < n; i++) {
@@ -108,18 +115,22 @@ public class DynamicSortedQueue<T extends Schedulable> {
 	return "<DQ[" +store.size()+ "] " +store.toString()+ ">";
     }
 
+    @Override
     public boolean contains(T x) {
 	return store.contains(x);
     }
 
+    @Override
     public void setComparator(Comparator<T> comparator) {
 	this.comparator = comparator;
     }
 
+    @Override
     public int size() {
 	return store.size();
     }
 
+    @Override
     public boolean add(T x) {
 	if (store.contains(x)) {
 	    return false;
@@ -129,15 +140,18 @@ public class DynamicSortedQueue<T extends Schedulable> {
     }
 
 
+    @Override
     public void remove(T x) {
 	store.remove(x);
     }
 	    
 
+    @Override
     public boolean isEmpty() {
 	return store.isEmpty();
     }
 
+    @Override
     public T next() {
 	T min = null;
 	for (int i = 0, n = store.size(); i < n; i++) {
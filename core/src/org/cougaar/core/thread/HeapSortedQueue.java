@@ -0,0 +1,271 @@
+/*
+ * <copyright>
+ *  
+ *  Copyright 1997-2004 BBNT Solutions, LLC
+ *  under sponsorship of the Defense Advanced Research Projects
+ *  Agency (DARPA).
+ * 
+ *  You can redistribute this software and/or modify it under the
+ *  terms of the Cougaar Open Source License as published on the
+ *  Cougaar Open Source Website (www.cougaar.org).
+ * 
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *  
+ * </copyright>
+ */
+
+
+package org.cougaar.core.thread;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.cougaar.util.UnaryPredicate;
+import org.cougaar.util.log.Logger;
+
+/**
+ * A {@link SortedQueue} implemented as an indexed binary
+ * heap.  Insertion and removal of the smallest element are O(log n),
+ * and membership tests are O(1) via an identity map from element to
+ * heap slot.  Elements that compare as equal are returned in the
+ * order in which they were added.
+ * <p>
+ * The heap is only reordered when the comparator is set, so the
+ * comparator must not change its opinion of queued elements.  Use a
+ * {@link DynamicSortedQueue} if it might.  The methods are not
+ * synchronized.
+ */
+public class HeapSortedQueue<T extends Schedulable> 
+    extends SortedQueue<T> 
+{
+    private static final int INITIAL_CAPACITY = 16;
+
+    private Comparator<T> comparator;
+    private Entry<T>[] heap;
+    private int size;
+    private long nextSequence;
+    private final Map<T, Entry<T>> index = new IdentityHashMap<T, Entry<T>>();
+
+    private static final class Entry<T> {
+	final T item;
+	final long sequence;
+	int slot;
+
+	Entry(T item, long sequence) {
+	    this.item = item;
+	    this.sequence = sequence;
+	}
+    }
+
+    @SuppressWarnings("unchecked")
+    public HeapSortedQueue(Comparator<T> comparator) {
+	this.comparator = comparator;
+	heap = new Entry[INITIAL_CAPACITY];
+    }
+
+    // This should ONLY be called by the ThreadStatusService.  It's
+    // unsafe otherwise.
+    @Override
+    int processEach(ThreadStatusService.Body body, 
+		    String schedulerName,
+		    Logger logger) {
+	int count = 0;
+	Entry<T>[] snapshot = heap;
+	int n = Math.min(size, snapshot.length);
+	for (int i = 0; i < n; i++) {
+	    Entry<T> entry = snapshot[i];
+	    if (entry == null) {
+		// This is an expected condition to end the loop
+		if (logger.isDebugEnabled()) {
+		    logger.debug("queue size decreased during heap operation");
+		}
+		break;
+	    }
+	    try {
+		body.run(schedulerName, entry.item);
+		count++;
+	    } catch (Throwable t) {
+		logger.error("ThreadStatusService error in body", t);
+	    }
+	}
+	return count;
+    }
+
+    @Override
+    public List<T> filter(UnaryPredicate predicate) {
+	List<T> result = new ArrayList<T>();
+	int kept = 0;
+	for (int i = 0; i < size; i++) {
+	    Entry<T> entry = heap[i];
+	    if (predicate.execute(entry.item)) {
+		heap[kept++] = entry;
+	    } else {
+		result.add(entry.item);
+		index.remove(entry.item);
+	    }
+	}
+	for (int i = kept; i < size; i++) {
+	    heap[i] = null;
+	}
+	size = kept;
+	if (!result.isEmpty()) {
+	    heapify();
+	}
+	return result;
+    }
+
+    @Override
+    public String toString() {
+	StringBuffer buf = new StringBuffer();
+	buf.append("<HQ[").append(size).append("] [");
+	for (int i = 0; i < size; i++) {
+	    if (i > 0) buf.append(", ");
+	    buf.append(heap[i].item);
+	}
+	return buf.append("]>").toString();
+    }
+
+    @Override
+    public boolean contains(T x) {
+	return index.containsKey(x);
+    }
+
+    @Override
+    public void setComparator(Comparator<T> comparator) {
+	this.comparator = comparator;
+	heapify();
+    }
+
+    @Override
+    public int size() {
+	return size;
+    }
+
+    @Override
+    public boolean add(T x) {
+	if (index.containsKey(x)) {
+	    return false;
+	}
+	if (size == heap.length) {
+	    grow();
+	}
+	Entry<T> entry = new Entry<T>(x, nextSequence++);
+	index.put(x, entry);
+	entry.slot = size;
+	heap[size++] = entry;
+	siftUp(entry.slot);
+	return true;
+    }
+
+    @Override
+    public void remove(T x) {
+	Entry<T> entry = index.remove(x);
+	if (entry != null) {
+	    removeAt(entry.slot);
+	}
+    }
+
+    @Override
+    public boolean isEmpty() {
+	return size == 0;
+    }
+
+    @Override
+    public T next() {
+	if (size == 0) {
+	    return null;
+	}
+	Entry<T> min = heap[0];
+	index.remove(min.item);
+	removeAt(0);
+	return min.item;
+    }
+
+    private void removeAt(int slot) {
+	int last = --size;
+	Entry<T> moved = heap[last];
+	heap[last] = null;
+	if (slot == last) {
+	    return;
+	}
+	place(moved, slot);
+	siftDown(slot);
+	if (heap[slot] == moved) {
+	    siftUp(slot);
+	}
+    }
+
+    @SuppressWarnings("unchecked")
+    private void grow() {
+	Entry<T>[] bigger = new Entry[heap.length << 1];
+	System.arraycopy(heap, 0, bigger, 0, size);
+	heap = bigger;
+    }
+
+    private void heapify() {
+	for (int i = 0; i < size; i++) {
+	    heap[i].slot = i;
+	}
+	for (int i = (size >>> 1) - 1; i >= 0; i--) {
+	    siftDown(i);
+	}
+    }
+
+    private int compare(Entry<T> x, Entry<T> y) {
+	int comp = comparator.compare(x.item, y.item);
+	if (comp != 0) {
+	    return comp;
+	}
+	return x.sequence < y.sequence ? -1 : (x.sequence > y.sequence ? 1 : 0);
+    }
+
+    private void place(Entry<T> entry, int slot) {
+	heap[slot] = entry;
+	entry.slot = slot;
+    }
+
+    private void siftUp(int slot) {
+	Entry<T> entry = heap[slot];
+	while (slot > 0) {
+	    int parent = (slot - 1) >>> 1;
+	    Entry<T> p = heap[parent];
+	    if (compare(entry, p) >= 0) {
+		break;
+	    }
+	    place(p, slot);
+	    slot = parent;
+	}
+	place(entry, slot);
+    }
+
+    private void siftDown(int slot) {
+	Entry<T> entry = heap[slot];
+	int half = size >>> 1;
+	while (slot < half) {
+	    int child = (slot << 1) + 1;
+	    int right = child + 1;
+	    if (right < size && compare(heap[right], heap[child]) < 0) {
+		child = right;
+	    }
+	    if (compare(entry, heap[child]) <= 0) {
+		break;
+	    }
+	    place(heap[child], slot);
+	    slot = child;
+	}
+	place(entry, slot);
+    }
+}
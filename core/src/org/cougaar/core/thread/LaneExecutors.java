@@ -0,0 +1,128 @@
+/*
+ * <copyright>
+ *  
+ *  Copyright 1997-2004 BBNT Solutions, LLC
+ *  under sponsorship of the Defense Advanced Research Projects
+ *  Agency (DARPA).
+ * 
+ *  You can redistribute this software and/or modify it under the
+ *  terms of the Cougaar Open Source License as published on the
+ *  Cougaar Open Source Website (www.cougaar.org).
+ * 
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *  
+ * </copyright>
+ */
+
+
+package org.cougaar.core.thread;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.cougaar.util.log.Logger;
+import org.cougaar.util.log.Logging;
+
+/**
+ * Makes the optional {@link Executor}s that back {@link ThreadPool} lanes.
+ * <p>
+ * An executor spec is one of:
+ * <ul>
+ * <li>"thread", or empty: no executor, the lane uses its own native
+ *     pooled threads</li>
+ * <li>"cached": a cached executor of daemon threads, which only holds
+ *     native threads while there's work</li>
+ * <li>"virtual": a virtual-thread-per-task executor, on JVMs that have
+ *     one, otherwise "cached"</li>
+ * <li>the name of a class with a no-argument constructor that
+ *     implements {@link Executor}</li>
+ * </ul>
+ */
+final class LaneExecutors {
+
+    private static final Logger logger =
+	Logging.getLogger(LaneExecutors.class);
+
+    private LaneExecutors() {
+    }
+
+    /**
+     * @return the executor for the spec, or null if the lane should use
+     * native pooled threads
+     */
+    static Executor make(String spec, String poolName) {
+	if (spec == null) {
+	    return null;
+	}
+	spec = spec.trim();
+	if (spec.length() == 0 || spec.equals("thread")) {
+	    return null;
+	}
+	if (spec.equals("cached")) {
+	    return makeCached(poolName);
+	}
+	if (spec.equals("virtual")) {
+	    Executor result = makeVirtual();
+	    if (result == null) {
+		if (logger.isWarnEnabled()) {
+		    logger.warn("Virtual threads aren't supported by this JVM,"+
+				" using a cached executor for " +poolName);
+		}
+		result = makeCached(poolName);
+	    }
+	    return result;
+	}
+	try {
+	    Class<?> cl = Class.forName(spec);
+	    return (Executor) cl.newInstance();
+	} catch (Exception e) {
+	    throw new RuntimeException(
+		"Unable to create executor " +spec+ " for " +poolName, e);
+	}
+    }
+
+    private static Executor makeCached(final String poolName) {
+	ThreadFactory factory = new ThreadFactory() {
+		private final AtomicInteger count = new AtomicInteger();
+		public Thread newThread(Runnable r) {
+		    Thread thread = 
+			new Thread(r, poolName+ "-executor-" +
+				   count.incrementAndGet());
+		    thread.setDaemon(true);
+		    return thread;
+		}
+	    };
+	return Executors.newCachedThreadPool(factory);
+    }
+
+    // Look up the JDK 21 factory reflectively, so we still build and
+    // run on older JVMs.
+    private static Executor makeVirtual() {
+	try {
+	    Method m = 
+		Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+	    return (ExecutorService) m.invoke(null);
+	} catch (NoSuchMethodException e) {
+	    return null;
+	} catch (Exception e) {
+	    if (logger.isWarnEnabled()) {
+		logger.warn("Unable to create a virtual thread executor", e);
+	    }
+	    return null;
+	}
+    }
+}
@@ -26,9 +26,6 @@
 
 package org.cougaar.core.thread;
 
-import java.util.Timer;
-import java.util.TimerTask;
-
 import org.cougaar.util.log.Logger;
 import org.cougaar.util.log.Logging;
 
@@ -52,10 +49,12 @@ final class SchedulableObject implements Schedulable {
     private boolean suspending; // suspend requested but not yet achieved
     private boolean suspended;  // truly suspended
     private SuspendCallback suspendCallback;
-    private TimerTask task;
+    private ScheduleTimer.Task task;
     private int blocking_type = SchedulableStatus.NOT_BLOCKING;
     private String blocking_excuse;
     private ThreadPool.PooledThread thread;
+    // when a start was last requested, for the pool's start latency
+    private volatile long start_time;
 
     SchedulableObject(TreeNode treeNode, 
                       Runnable runnable, 
@@ -110,6 +109,7 @@ final class SchedulableObject implements Schedulable {
 	    restart = start_count > 0;
 	}	
 	if (restart) {
+	    start_time = System.currentTimeMillis();
 	    SchedulableStateChangeQueue.pushStart(this);
 	}
     }
@@ -187,6 +187,11 @@ final class SchedulableObject implements Schedulable {
 
     void claim() {
         // thread has started or restarted
+        long t = start_time;
+        if (t > 0) {
+            start_time = 0;
+            pool.recordStartLatency(System.currentTimeMillis() - t);
+        }
         scheduler.threadClaimed(this);
     }
 
@@ -240,6 +245,7 @@ final class SchedulableObject implements Schedulable {
             }
         }
         // Restart 
+        start_time = System.currentTimeMillis();
         SchedulableStateChangeQueue.pushStart(this);
     }
     
@@ -290,23 +296,20 @@ final class SchedulableObject implements Schedulable {
         	return;
             }
         }
+        start_time = System.currentTimeMillis();
         SchedulableStateChangeQueue.pushStart(this);
     }
 
     // All callers should be synchronized on this
-    private TimerTask task() {
-	cancelTimer();
-	task = new TimerTask() {
-		@Override
-      public void run() {
-		    start();
-		}
-	    };
+    private ScheduleTimer.Task task() {
+	if (task == null) {
+	    task = new ScheduleTimer.Task(this);
+	}
 	return task;
     }
 
-    private Timer timer() {
-	Timer timer = TreeNode.timer();
+    private ScheduleTimer timer() {
+	ScheduleTimer timer = ScheduleTimer.timer();
         if (timer == null) {
 	    Logger logger = Logging.getLogger(this);
 	    if (logger.isWarnEnabled()) {
@@ -319,31 +322,38 @@ final class SchedulableObject implements Schedulable {
     }
 
     synchronized public void schedule(long delay) {
-	Timer timer = timer();
+	ScheduleTimer timer = timer();
         if (timer != null) {
-            timer.schedule(task(), delay);
+            timer.schedule(task(), delay, 0, false);
         }
     }
 
 
     synchronized public void schedule(long delay, long interval) {
-	Timer timer = timer();
+	ScheduleTimer timer = timer();
         if (timer != null) {
-            timer.schedule(task(), delay, interval);
+            timer.schedule(task(), delay, interval, false);
         }
     }
 
     synchronized public void scheduleAtFixedRate(long delay, long interval) {
-	Timer timer = timer();
+	ScheduleTimer timer = timer();
         if (timer != null) {
-            timer.scheduleAtFixedRate(task(), delay, interval);
+            timer.schedule(task(), delay, interval, true);
         }
     }
 
 
     synchronized public void cancelTimer() {
-	if (task != null) task.cancel();
-	task = null;
+	if (task != null) {
+	    ScheduleTimer timer = ScheduleTimer.timer();
+	    if (timer != null) timer.cancel(task);
+	}
+    }
+
+    /** @return a summary of how late this Schedulable's timer has run */
+    synchronized String getTimerLateness() {
+	return task == null ? null : task.getLateness();
     }
 
     synchronized public int getState() {
@@ -94,9 +94,8 @@ public final class SchedulableStatus
 
     public static void beginBlocking(int type, String excuse) 
     {
-	Thread thread = Thread.currentThread();
-	if (thread instanceof ThreadPool.PooledThread) {
-	    ThreadPool.PooledThread pthread = (ThreadPool.PooledThread) thread;
+	ThreadPool.PooledThread pthread = ThreadPool.current();
+	if (pthread != null) {
 	    SchedulableObject sched = pthread.getSchedulable();
 	    checkLegalBlocking(type, sched);
 	    sched.setBlocking(type, excuse == null ? "No excuse given" : excuse);
@@ -121,9 +120,8 @@ public final class SchedulableStatus
 
     public static void endBlocking() 
     {
-	Thread thread = Thread.currentThread();
-	if (thread instanceof ThreadPool.PooledThread) {
-	    ThreadPool.PooledThread pthread = (ThreadPool.PooledThread) thread;
+	ThreadPool.PooledThread pthread = ThreadPool.current();
+	if (pthread != null) {
 	    SchedulableObject sched = pthread.getSchedulable();
 	    sched.clearBlocking();
 	}
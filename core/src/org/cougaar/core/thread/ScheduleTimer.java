@@ -0,0 +1,238 @@
+/*
+ * <copyright>
+ *  
+ *  Copyright 1997-2004 BBNT Solutions, LLC
+ *  under sponsorship of the Defense Advanced Research Projects
+ *  Agency (DARPA).
+ * 
+ *  You can redistribute this software and/or modify it under the
+ *  terms of the Cougaar Open Source License as published on the
+ *  Cougaar Open Source Website (www.cougaar.org).
+ * 
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *  
+ * </copyright>
+ */
+
+
+package org.cougaar.core.thread;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.cougaar.bootstrap.SystemProperties;
+import org.cougaar.util.log.Logger;
+import org.cougaar.util.log.Logging;
+
+/**
+ * The delayed-execution engine behind {@link SchedulableObject}'s
+ * schedule methods.
+ * <p>
+ * Unlike a {@link java.util.Timer}, it has several threads, so one late
+ * callback doesn't hold up the rest, and it periodically purges
+ * cancelled tasks from its queue.  Each Schedulable reuses one
+ * {@link Task} across reschedules, which also keeps that Schedulable's
+ * lateness statistics.
+ *
+ * @property org.cougaar.thread.timer.threads
+ *   The number of threads that run scheduled starts.  Defaults to 2.
+ *
+ * @property org.cougaar.thread.timer.purgeInterval
+ *   The number of cancellations between purges of cancelled tasks.
+ *   Defaults to 100.
+ *
+ * @property org.cougaar.thread.timer.lateWarning
+ *   Log a warning when a scheduled start runs this many milliseconds
+ *   late, or zero to disable.  Defaults to 5000.
+ */
+final class ScheduleTimer {
+
+    private static final int THREADS = 
+	SystemProperties.getInt("org.cougaar.thread.timer.threads", 2);
+    private static final int PURGE_INTERVAL =
+	SystemProperties.getInt("org.cougaar.thread.timer.purgeInterval", 100);
+    private static final long LATE_WARNING =
+	SystemProperties.getLong("org.cougaar.thread.timer.lateWarning", 5000);
+
+    private static final Logger logger = 
+	Logging.getLogger(ScheduleTimer.class);
+
+    private static volatile ScheduleTimer singleton;
+    private static boolean isActive = true;
+
+    private final ScheduledThreadPoolExecutor executor;
+    private final AtomicInteger cancels = new AtomicInteger();
+
+    // node-wide lateness statistics
+    private final AtomicLong runCount = new AtomicLong();
+    private final AtomicLong totalLateness = new AtomicLong();
+    private final AtomicLong maxLateness = new AtomicLong();
+
+    private ScheduleTimer() {
+	ThreadFactory factory = new ThreadFactory() {
+		private final AtomicInteger count = new AtomicInteger();
+		public Thread newThread(Runnable r) {
+		    Thread thread = new Thread(r, "CougaarScheduleTimer-" +
+					       count.incrementAndGet());
+		    thread.setDaemon(true);
+		    return thread;
+		}
+	    };
+	executor = new ScheduledThreadPoolExecutor(Math.max(THREADS, 1), 
+						   factory);
+    }
+
+    /**
+     * @return the node's timer, or null if the thread service has
+     * been unloaded
+     */
+    static synchronized ScheduleTimer timer() {
+	if (singleton == null && isActive) {
+	    singleton = new ScheduleTimer();
+	}
+	return singleton;
+    }
+
+    static synchronized void releaseTimer() {
+	isActive = false;
+	if (singleton != null) {
+	    if (logger.isInfoEnabled()) {
+		logger.info(singleton.getStatistics());
+	    }
+	    singleton.executor.shutdownNow();
+	    singleton = null;
+	}
+    }
+
+    /**
+     * Schedule the task's start, replacing any earlier schedule for it.
+     * If the interval is positive the start repeats, at a fixed rate
+     * or with a fixed delay between starts.
+     */
+    void schedule(Task task, long delay, long interval, boolean fixedRate) {
+	synchronized (task) {
+	    cancel(task);
+	    delay = Math.max(delay, 0);
+	    task.expected = System.currentTimeMillis() + delay;
+	    task.interval = interval;
+	    task.fixedRate = fixedRate;
+	    if (interval <= 0) {
+		task.future = 
+		    executor.schedule(task, delay, TimeUnit.MILLISECONDS);
+	    } else if (fixedRate) {
+		task.future = 
+		    executor.scheduleAtFixedRate(task, delay, interval,
+						 TimeUnit.MILLISECONDS);
+	    } else {
+		task.future = 
+		    executor.scheduleWithFixedDelay(task, delay, interval,
+						    TimeUnit.MILLISECONDS);
+	    }
+	}
+    }
+
+    void cancel(Task task) {
+	synchronized (task) {
+	    ScheduledFuture<?> future = task.future;
+	    if (future == null) {
+		return;
+	    }
+	    task.future = null;
+	    if (future.cancel(false) && 
+		cancels.incrementAndGet() % PURGE_INTERVAL == 0) {
+		// Drop cancelled tasks rather than letting them wait
+		// in the queue until they're due
+		executor.purge();
+	    }
+	}
+    }
+
+    private void recordLateness(long lateness) {
+	runCount.incrementAndGet();
+	totalLateness.addAndGet(lateness);
+	while (true) {
+	    long max = maxLateness.get();
+	    if (lateness <= max || maxLateness.compareAndSet(max, lateness)) {
+		break;
+	    }
+	}
+    }
+
+    String getStatistics() {
+	long runs = runCount.get();
+	return "ScheduleTimer runs=" +runs+
+	    " avgLateness=" +(runs == 0 ? 0 : totalLateness.get() / runs)+
+	    " maxLateness=" +maxLateness.get()+
+	    " cancels=" +cancels.get()+
+	    " queued=" +executor.getQueue().size();
+    }
+
+    /**
+     * A Schedulable's reusable timer handle, which starts the
+     * Schedulable when it runs and keeps track of how late it ran.
+     */
+    static final class Task implements Runnable {
+	private final SchedulableObject schedulable;
+
+	// guarded by this
+	private ScheduledFuture<?> future;
+	private long expected;
+	private long interval;
+	private boolean fixedRate;
+	private long runs;
+	private long totalLateness;
+	private long maxLateness;
+
+	Task(SchedulableObject schedulable) {
+	    this.schedulable = schedulable;
+	}
+
+	public void run() {
+	    long now = System.currentTimeMillis();
+	    long lateness;
+	    synchronized (this) {
+		lateness = Math.max(now - expected, 0);
+		++runs;
+		totalLateness += lateness;
+		if (lateness > maxLateness) {
+		    maxLateness = lateness;
+		}
+		if (interval > 0) {
+		    expected = (fixedRate ? expected : now) + interval;
+		}
+	    }
+	    ScheduleTimer timer = singleton;
+	    if (timer != null) {
+		timer.recordLateness(lateness);
+	    }
+	    if (LATE_WARNING > 0 && lateness >= LATE_WARNING &&
+		logger.isWarnEnabled()) {
+		logger.warn("Scheduled start of " +schedulable.getName()+
+			    " ran " +lateness+ " millis late, " +
+			    getLateness());
+	    }
+	    schedulable.start();
+	}
+
+	/** @return a summary of this task's lateness statistics */
+	synchronized String getLateness() {
+	    return "runs=" +runs+
+		" avgLateness=" +(runs == 0 ? 0 : totalLateness / runs)+
+		" maxLateness=" +maxLateness;
+	}
+    }
+}
@@ -32,6 +32,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.RandomAccess;
 
+import org.cougaar.bootstrap.SystemProperties;
 import org.cougaar.util.UnaryPredicate;
 import org.cougaar.util.log.Logger;
 import org.cougaar.util.log.Logging;
@@ -48,9 +49,14 @@ import org.cougaar.util.log.Logging;
  * mean that there is no maximum.  The precise meaning of 'maximum' is
  * varies by scheduler class.
  *
+ * @property org.cougaar.thread.queue.linear if set to
+ * <em>true</em>, pending threads are held in a linear-scan {@link
+ * DynamicSortedQueue} rather than a {@link HeapSortedQueue}.  Use
+ * this if a queue comparator's ordering of queued threads can change
+ * while they're queued.  The default is false.
  */
 public class Scheduler {
-    private DynamicSortedQueue<SchedulableObject> pendingThreads;
+    private SortedQueue<SchedulableObject> pendingThreads;
     private List<SchedulableObject> disqualified = new ArrayList<SchedulableObject>();
     private UnaryPredicate qualifier;
     private UnaryPredicate childQualifier;
@@ -66,6 +72,9 @@ public class Scheduler {
 
     private static Logger _logger = Logging.getLogger(Scheduler.class);
 
+    private static final boolean LINEAR_QUEUE =
+	SystemProperties.getBoolean("org.cougaar.thread.queue.linear");
+
     private Comparator<SchedulableObject> timeComparator =
 	new Comparator<SchedulableObject>() {
 		@Override
@@ -86,7 +95,11 @@ public class Scheduler {
 	    };
 
     public Scheduler(ThreadListenerProxy listenerProxy) {
-	pendingThreads = new DynamicSortedQueue<SchedulableObject>(timeComparator);
+	if (LINEAR_QUEUE) {
+	    pendingThreads = new DynamicSortedQueue<SchedulableObject>(timeComparator);
+	} else {
+	    pendingThreads = new HeapSortedQueue<SchedulableObject>(timeComparator);
+	}
 	this.listenerProxy = listenerProxy;
     }
 
@@ -45,6 +45,10 @@ public class SingleThreadServiceProvider
 		public int iterateOverStatus(ThreadStatusService.Body body) {
 		    return proxy.iterateOverThreads(body);
 		}
+		public ThreadStatusService.LaneStatus getLaneStatus(int lane) {
+		    // one thread serves every lane, and starts aren't timed
+		    return new ThreadStatusService.LaneStatus(lane, 1, 0, 1, 0, 0, 0);
+		}
 	    };
     }
 
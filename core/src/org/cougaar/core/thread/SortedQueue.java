@@ -0,0 +1,75 @@
+/*
+ * <copyright>
+ *  
+ *  Copyright 1997-2004 BBNT Solutions, LLC
+ *  under sponsorship of the Defense Advanced Research Projects
+ *  Agency (DARPA).
+ * 
+ *  You can redistribute this software and/or modify it under the
+ *  terms of the Cougaar Open Source License as published on the
+ *  Cougaar Open Source Website (www.cougaar.org).
+ * 
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *  
+ * </copyright>
+ */
+
+package org.cougaar.core.thread;
+
+import java.util.Comparator;
+import java.util.List;
+
+import org.cougaar.util.UnaryPredicate;
+import org.cougaar.util.log.Logger;
+
+/**
+ * A queue that uses a Comparator to determine which element is next
+ * (the smallest, according to the Comparator).  Queues of this kind
+ * are used by {@link Scheduler}s to hold {@link Schedulable}s that
+ * are not able to run immediately.  Implementations are not
+ * synchronized; it's the caller's responsibility to handle
+ * synchronization.
+ *
+ * @see DynamicSortedQueue
+ * @see HeapSortedQueue
+ */
+public abstract class SortedQueue<T extends Schedulable> {
+
+    // This should ONLY be called by the ThreadStatusService.  It's
+    // unsafe otherwise.
+    abstract int processEach(ThreadStatusService.Body body, 
+			     String schedulerName,
+			     Logger logger);
+
+    /**
+     * Remove and return the elements that don't satisfy the
+     * predicate.
+     */
+    public abstract List<T> filter(UnaryPredicate predicate);
+
+    public abstract boolean contains(T x);
+
+    public abstract void setComparator(Comparator<T> comparator);
+
+    public abstract int size();
+
+    /** @return false if the element was already queued */
+    public abstract boolean add(T x);
+
+    public abstract void remove(T x);
+
+    public abstract boolean isEmpty();
+
+    /** Remove and return the smallest element, or null if empty */
+    public abstract T next();
+}
@@ -28,16 +28,60 @@ package org.cougaar.core.thread;
 
 import java.util.ArrayList;
 import java.util.List;
-
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.cougaar.bootstrap.SystemProperties;
 import org.cougaar.util.log.Logger;
 import org.cougaar.util.log.Logging;
 
 /**
  * A pool of native Java threads used by the standard implementation of the
  * {@link ThreadService}. By default this pool has a fixed size.
+ * <p>
+ * Idle threads are kept on a lock-free stack, so acquiring a thread doesn't
+ * scan the pool. Threads beyond the initial size that have been idle for a
+ * while are stopped by a periodic reaper, so the pool size follows the load.
+ * <p>
+ * A pool may be given an {@link Executor}, in which case each
+ * {@link PooledThread} is never started as a native thread; instead its
+ * continuation loop is handed to the executor whenever it's given work.
+ * The Schedulable state machine and the Scheduler's accounting are the same
+ * in both modes.
+ *
+ * @property org.cougaar.thread.pool.idleTimeout
+ *   Milliseconds that a thread beyond the pool's initial size may be idle
+ *   before it's stopped, or zero to keep idle threads forever.  Defaults to
+ *   60000.
  */
 class ThreadPool {
 
+    private static final long IDLE_TIMEOUT =
+	SystemProperties.getLong("org.cougaar.thread.pool.idleTimeout", 60000);
+
+    /** the PooledThread whose work an executor thread is running */
+    private static final ThreadLocal<PooledThread> executing =
+	new ThreadLocal<PooledThread>();
+
+    /**
+     * @return the PooledThread running in the current thread, either
+     * directly or on behalf of an executor, or null if none
+     */
+    static PooledThread current() {
+        Thread thread = Thread.currentThread();
+        if (thread instanceof PooledThread) {
+            return (PooledThread) thread;
+        }
+        return executing.get();
+    }
+
     static final class PooledThread extends Thread {
         private static final long MAX_CONTINUATION_TIME = 100;
 
@@ -45,6 +89,9 @@ class ThreadPool {
 
         private boolean in_use = false;
 
+        /** when we were returned to the idle stack */
+        private long idle_since;
+
         private boolean should_stop = false;
 
         /** reference to our thread pool so we can return when we die * */
@@ -65,6 +112,16 @@ class ThreadPool {
          */
         private final Object runLock;
 
+        /** held by a task running our continuation loop */
+        private final ReentrantLock taskLock = new ReentrantLock();
+
+        /** runs our continuation loop when the pool has an executor */
+        private final Runnable task = new Runnable() {
+            public void run() {
+                runTask();
+            }
+        };
+
         SchedulableObject getSchedulable() {
             return schedulable;
         }
@@ -109,6 +166,9 @@ class ThreadPool {
                 }
             }
             in_use = false; // thread is now reusable
+            // Back on the idle stack before the reclaimer can hand our
+            // right to another Schedulable, which will need a thread
+            pool.release(this);
             if (last_schedulable != null) {
                 last_schedulable.addToReclaimer();
             }
@@ -148,6 +208,20 @@ class ThreadPool {
             }
         }
 
+        // Executor mode: run one batch of work in the executor's thread
+        // This can't hold the runLock monitor: a virtual thread that
+        // blocks inside a synchronized block pins its carrier thread.
+        private void runTask() {
+            taskLock.lock();
+            try {
+                executing.set(this);
+                continuationLoop();
+            } finally {
+                executing.remove();
+                taskLock.unlock();
+            }
+        }
+
         @Override
       public void start() {
             throw new RuntimeException("You can't call start() on a PooledThread");
@@ -162,7 +236,14 @@ class ThreadPool {
                 }
                 isRunning = true;
 
-                if (!isStarted) {
+                if (pool.executor != null) {
+                    try {
+                        pool.executor.execute(task);
+                    } catch (RuntimeException e) {
+                        isRunning = false;
+                        throw e;
+                    }
+                } else if (!isStarted) {
                     isStarted = true;
                     super.start();
                 } else {
@@ -175,6 +256,16 @@ class ThreadPool {
         }
 
         void stop_running() {
+            if (pool.executor != null) {
+                // Wait for any task in progress, which holds the lock
+                taskLock.lock();
+                try {
+                    isStarted = false;
+                } finally {
+                    taskLock.unlock();
+                }
+                return;
+            }
             synchronized (runLock) {
                 should_stop = true;
                 runLock.notify();
@@ -207,38 +298,68 @@ class ThreadPool {
      * the same threadgroup.
      */
     private final ThreadGroup group;
-    /**
-     * The maximum number of unused threads to keep around in the pool. anything
-     * beyond this may be destroyed or GCed.
-     */
 
-    /** the actual pool * */
-    private PooledThread pool[];
-    private List<PooledThread> list_pool;
+    /** runs our work instead of native threads, or null */
+    private final Executor executor;
+
+    /** the maximum number of threads, or negative if unlimited */
+    private final int maximumSize;
+    /** the number of threads that the reaper keeps */
+    private final int minimumSize;
+
+    /** all the threads, which changes rarely */
+    private final List<PooledThread> threads = new CopyOnWriteArrayList<PooledThread>();
+    /** the number of threads, including those being created */
+    private final AtomicInteger size = new AtomicInteger();
+    /** lock-free stack of idle threads */
+    private final AtomicReference<IdleNode> idle = new AtomicReference<IdleNode>();
+    private final AtomicInteger idleCount = new AtomicInteger();
+    private volatile boolean stopped;
+    private TimerTask reaper;
+    // held while the reaper has the idle threads off the stack
+    private final Object reapLock = new Object();
+
+    // start latency statistics
+    private final AtomicLong startCount = new AtomicLong();
+    private final AtomicLong totalStartLatency = new AtomicLong();
+    private final AtomicLong maxStartLatency = new AtomicLong();
+
     private final Logger logger;
     private int index = 0;
 
     ThreadPool(int maximumSize, int initialSize, String name) {
+        this(maximumSize, initialSize, name, null);
+    }
+
+    ThreadPool(int maximumSize, int initialSize, String name,
+               Executor executor) {
         // Maybe give each pool its own group?
         group = new ThreadGroup(name);
         // Thread.currentThread().getThreadGroup();
+        this.executor = executor;
 
         logger = Logging.getLogger(getClass().getName());
-        if (maximumSize < 0) {
-            // Unlimited. Make an array of a somewhat arbitrary size
-            // (100 or initialSize, whichever is larger), and also
-            // make an ArrayList which will be used if the array runs
-            // out.
-            pool = new PooledThread[Math.max(initialSize, 100)];
-            list_pool = new ArrayList<PooledThread>(100);
-        } else {
-            if (initialSize > maximumSize) {
-                initialSize = maximumSize;
-            }
-            pool = new PooledThread[maximumSize];
+        if (maximumSize >= 0 && initialSize > maximumSize) {
+            initialSize = maximumSize;
         }
+        this.maximumSize = maximumSize;
+        this.minimumSize = initialSize;
         for (int i = 0; i < initialSize; i++) {
-            pool[i] = constructReusableThread();
+            size.incrementAndGet();
+            PooledThread thread = constructReusableThread();
+            threads.add(thread);
+            release(thread);
+        }
+
+        Timer timer = TreeNode.timer();
+        if (timer != null && IDLE_TIMEOUT > 0) {
+            reaper = new TimerTask() {
+                @Override
+                public void run() {
+                    reapIdleThreads();
+                }
+            };
+            timer.schedule(reaper, IDLE_TIMEOUT, IDLE_TIMEOUT);
         }
     }
 
@@ -251,58 +372,136 @@ class ThreadPool {
     }
 
     PooledThread getThread(String name) {
-        PooledThread thread = null;
-        PooledThread candidate = null;
+        if (stopped) {
+            throw new RuntimeException("The ThreadPool has been stopped");
+        }
 
-        synchronized (this) {
-            if (pool == null) {
-                throw new RuntimeException("The ThreadPool has been stopped");
+        PooledThread thread = pop();
+        if (thread == null) {
+            // The reaper may have the idle threads off the stack, wait
+            // for it to put back the ones it keeps. Checking a flag
+            // instead would miss a reaper that finishes between the
+            // two.
+            synchronized (reapLock) {
+                thread = pop();
             }
-
-            for (int i = 0; i < pool.length; i++) {
-                candidate = pool[i];
-                if (candidate == null) {
-                    thread = constructReusableThread();
-                    pool[i] = thread;
-                    thread.in_use = true;
-                     break;
-                } else if (!candidate.in_use) {
-                    thread = candidate;
-                    thread.in_use = true;
+        }
+        if (thread == null) {
+            // None idle, make one if we're under the limit
+            while (true) {
+                int n = size.get();
+                if (maximumSize >= 0 && n >= maximumSize) {
+                    // None available. This is unrecoverable.
+                    throw new RuntimeException("Exceeded ThreadPool max");
+                }
+                if (size.compareAndSet(n, n + 1)) {
                     break;
                 }
             }
+            thread = constructReusableThread();
+            threads.add(thread);
+        }
+        thread.in_use = true;
 
-            if (thread == null && list_pool != null) {
-                // Use the slow ArrayList. This is only enabled if
-                // there's no thread limit.
-                for (int i = 0, n = list_pool.size(); i < n; i++) {
-                    candidate = list_pool.get(i);
-                    if (!candidate.in_use) {
-                        thread = candidate;
-                        thread.in_use = true;
-                        break;
-                    }
-                }
-                if (thread == null) {
-                    // None in the list either. Make one and add it,
-                    thread = constructReusableThread();
+        if (logger.isInfoEnabled()) {
+            thread.setName(name);
+        }
+
+        return thread;
+    }
+
+    /** Called by a thread when it's done running schedulables */
+    private void release(PooledThread thread) {
+        thread.idle_since = System.currentTimeMillis();
+        push(thread);
+    }
+
+    private void push(PooledThread thread) {
+        IdleNode node = new IdleNode(thread);
+        while (true) {
+            IdleNode head = idle.get();
+            node.next = head;
+            if (idle.compareAndSet(head, node)) {
+                break;
+            }
+        }
+        idleCount.incrementAndGet();
+    }
+
+    private PooledThread pop() {
+        while (true) {
+            IdleNode head = idle.get();
+            if (head == null) {
+                return null;
+            }
+            if (idle.compareAndSet(head, head.next)) {
+                idleCount.decrementAndGet();
+                return head.thread;
+            }
+        }
+    }
+
+    /**
+     * Stop the threads beyond our initial size that have been idle longer
+     * than the idle timeout.
+     */
+    private void reapIdleThreads() {
+        if (stopped || size.get() <= minimumSize) {
+            return;
+        }
+        long cutoff = System.currentTimeMillis() - IDLE_TIMEOUT;
+        List<PooledThread> keep = new ArrayList<PooledThread>();
+        List<PooledThread> reap = new ArrayList<PooledThread>();
+        PooledThread thread;
+        synchronized (reapLock) {
+            // Take the idle threads, most recently used first
+            while ((thread = pop()) != null) {
+                if (thread.idle_since < cutoff &&
+                        size.get() > minimumSize) {
                     thread.in_use = true;
-                    list_pool.add(thread);
+                    threads.remove(thread);
+                    size.decrementAndGet();
+                    reap.add(thread);
+                } else {
+                    keep.add(thread);
                 }
             }
+            // Return the kept threads in their original order
+            for (int i = keep.size() - 1; i >= 0; i--) {
+                push(keep.get(i));
+            }
         }
-
-        if (thread == null) {
-            // None available. This is unrecoverable.
-            throw new RuntimeException("Exceeded ThreadPool max");
+        for (int i = 0, n = reap.size(); i < n; i++) {
+            reap.get(i).stop_running();
         }
+        if (!reap.isEmpty() && logger.isDebugEnabled()) {
+            logger.debug("Stopped " + reap.size() + " idle threads in "
+                    + group.getName() + ", " + size.get() + " remain");
+        }
+    }
 
-        if (logger.isInfoEnabled()) {
-            thread.setName(name);
+    /** Record the delay between a Schedulable's start and its run */
+    void recordStartLatency(long latency) {
+        startCount.incrementAndGet();
+        totalStartLatency.addAndGet(latency);
+        while (true) {
+            long max = maxStartLatency.get();
+            if (latency <= max || maxStartLatency.compareAndSet(max, latency)) {
+                break;
+            }
         }
+    }
 
-        return thread;
+    ThreadStatusService.LaneStatus getLaneStatus(int lane) {
+        long starts = startCount.get();
+        return new ThreadStatusService.LaneStatus(
+                lane,
+                size.get(),
+                idleCount.get(),
+                maximumSize,
+                starts,
+                (starts == 0 ? 0 : totalStartLatency.get() / starts),
+                maxStartLatency.get());
     }
 
     /** actually construct a new PooledThread * */
@@ -328,14 +527,12 @@ class ThreadPool {
     }
 
     int iterateOverRunningThreads(ThreadStatusService.Body body) {
-        PooledThread[] p = pool;
-        if (p == null) {
+        if (stopped) {
             return 0;
         }
         int count = 0;
-        for (int i = 0; i < p.length; i++) {
-            PooledThread thread = p[i];
-            if (thread == null || !thread.isRunning) {
+        for (PooledThread thread : threads) {
+            if (!thread.isRunning) {
                 continue;
             }
             try {
@@ -362,17 +559,34 @@ class ThreadPool {
 
     void stopAllThreads() {
         synchronized (this) {
-            int n = pool == null ? 0 : pool.length;
-            for (int i = 0; i < n; i++) {
-                PooledThread thread = pool[i];
-                if (thread == null) {
-                    continue;
-                }
+            if (stopped) {
+                return;
+            }
+            stopped = true;
+            if (reaper != null) {
+                reaper.cancel();
+                reaper = null;
+            }
+            for (PooledThread thread : threads) {
                 thread.in_use = true;
                 thread.stop_running();
-                pool[i] = null;
             }
-            pool = null;
+            threads.clear();
+            if (executor instanceof ExecutorService) {
+                ((ExecutorService) executor).shutdown();
+            }
+            idle.set(null);
+            idleCount.set(0);
+            size.set(0);
+        }
+    }
+
+    private static final class IdleNode {
+        private final PooledThread thread;
+        private IdleNode next;
+
+        IdleNode(PooledThread thread) {
+            this.thread = thread;
         }
     }
 
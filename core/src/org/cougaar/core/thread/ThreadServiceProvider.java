@@ -47,7 +47,14 @@ import org.cougaar.util.StateModelException;
  * This component is the {@link ServiceProvider} for the {@link
  * ThreadService}, {@link ThreadControlService}, {@link
  * ThreadListenerService}, and {@link ThreadStatusService}.
- *
+ * <p>
+ * Each lane's capacity is set with a "&lt;Lane&gt;AbsCapacity=N"
+ * parameter, e.g. "WillBlockAbsCapacity=300".  A lane can also be
+ * backed by an executor instead of native pooled threads with a
+ * "&lt;Lane&gt;Executor=spec" parameter, e.g. "WillBlockExecutor=virtual",
+ * which suits lanes whose work mostly blocks; see {@link LaneExecutors}
+ * for the specs.  The capacity still limits how many of the lane's
+ * Schedulables run at once.
  */
 public final class ThreadServiceProvider 
     extends GenericStateModelAdapter
@@ -59,6 +66,7 @@ public final class ThreadServiceProvider
 
     private static ThreadPool[] pools;
     private static int[] lane_sizes = new int[ThreadService.LANE_COUNT];
+    private static String[] lane_executors = new String[ThreadService.LANE_COUNT];
 
     private static synchronized void makePools() 
     {
@@ -68,7 +76,9 @@ public final class ThreadServiceProvider
 	int initializationCount = 10; // could be a param
 	for (int i=0; i<pools.length; i++)
 	    pools[i] = new ThreadPool(lane_sizes[i], initializationCount,
-				      "Pool-"+i);
+				      "Pool-"+i,
+				      LaneExecutors.make(lane_executors[i],
+							 "Pool-"+i));
     }
 
     private static synchronized void stopPools()
@@ -182,6 +192,10 @@ public final class ThreadServiceProvider
 			    node.iterateOverQueuedThreads(body) +
 			    node.iterateOverRunningThreads(body);
 		    }
+		    public ThreadStatusService.LaneStatus getLaneStatus(int lane)
+		    {
+			return node.getLaneStatus(lane);
+		    }
 		};
 	    the_sb.addService(ThreadStatusService.class, this);
 	}
@@ -199,12 +213,14 @@ public final class ThreadServiceProvider
           // Unload hierarchical thread service and Timers
           if (isRoot) {
               TreeNode.releaseTimer();
+              ScheduleTimer.releaseTimer();
               SchedulableStateChangeQueue.stopThread();
               stopPools();
           }
       } else {
           // Unload singleton ThreadServiceProvider and Timer
           TreeNode.releaseTimer();
+          ScheduleTimer.releaseTimer();
           threadServiceProvider.halt();
           threadServiceProvider.unload();
           threadServiceProvider = null;
@@ -241,9 +257,29 @@ public final class ThreadServiceProvider
 	    lane_index = ThreadService.WELL_BEHAVED_LANE;
 	    lane_max = Integer.parseInt(value);
 	    lane_sizes[lane_index] = lane_max;
+	} else if (key.endsWith("Executor")) {
+	    lane_index = laneIndex(key.substring(0, key.length()-8));
+	    if (lane_index >= 0) {
+		lane_executors[lane_index] = value;
+	    }
 	} // add more later
     }
 
+    private static int laneIndex(String laneName)
+    {
+	if (laneName.equals("BestEffort")) {
+	    return ThreadService.BEST_EFFORT_LANE;
+	} else if (laneName.equals("WillBlock")) {
+	    return ThreadService.WILL_BLOCK_LANE;
+	} else if (laneName.equals("CpuIntense")) {
+	    return ThreadService.CPU_INTENSE_LANE;
+	} else if (laneName.equals("WellBehaved")) {
+	    return ThreadService.WELL_BEHAVED_LANE;
+	} else {
+	    return -1;
+	}
+    }
+
     public void setParameter(Object param) 
     {
 	if (param instanceof List) {
@@ -260,7 +296,10 @@ public final class ThreadServiceProvider
 				    int lane)
 				   
     {
-	Scheduler scheduler =  new PropagatingScheduler(listenerProxy);
+	Scheduler scheduler = 
+	    CreditScheduler.MAX_CREDIT > 0 ?
+	    new CreditScheduler(listenerProxy) :
+	    new PropagatingScheduler(listenerProxy);
 
 	scheduler.setLane(lane);
 	scheduler.setAbsoluteMax(lane_sizes[lane]);
@@ -45,4 +45,46 @@ public interface ThreadStatusService extends Service
     }
 
     public int iterateOverStatus(Body body);
+
+    /** Thread pool statistics for one lane */
+    public static final class LaneStatus {
+	public final int lane;
+	public final int threadCount;
+	public final int idleThreadCount;
+	/** the maximum number of threads, or negative if unlimited */
+	public final int maxThreadCount;
+	/** the number of Schedulable runs that were timed */
+	public final long startCount;
+	/** milliseconds between a Schedulable's start and its run */
+	public final long averageStartLatency;
+	public final long maxStartLatency;
+
+	public LaneStatus(int lane, int threadCount, int idleThreadCount,
+			  int maxThreadCount, long startCount,
+			  long averageStartLatency, long maxStartLatency) {
+	    this.lane = lane;
+	    this.threadCount = threadCount;
+	    this.idleThreadCount = idleThreadCount;
+	    this.maxThreadCount = maxThreadCount;
+	    this.startCount = startCount;
+	    this.averageStartLatency = averageStartLatency;
+	    this.maxStartLatency = maxStartLatency;
+	}
+
+	@Override
+	public String toString() {
+	    return "Lane " +lane+
+		" threads=" +threadCount+
+		" idle=" +idleThreadCount+
+		" max=" +maxThreadCount+
+		" starts=" +startCount+
+		" avgStartLatency=" +averageStartLatency+
+		" maxStartLatency=" +maxStartLatency;
+	}
+    }
+
+    /**
+     * @return the thread pool statistics for the given lane
+     */
+    public LaneStatus getLaneStatus(int lane);
 }
@@ -125,6 +125,7 @@ final class TopServlet extends ServletFrameset {
 	out.print("<th align=left><b>Lane</b></th>");
 	out.print("<th align=left><b>Thread</b></th>");
 	out.print("<th align=left><b>Client</b></th>");
+	out.print("<th align=left><b>Timer</b></th>");
 	out.print("</tr>");
     }
 
@@ -166,6 +167,12 @@ final class TopServlet extends ServletFrameset {
 	printCell(record.schedulable.getLane(), record.queued, out);
 	printCell(record.schedulable.getName(), record.queued, out);
 	printCell(record.schedulable.getConsumer().toString(), record.queued, out);
+	String lateness = null;
+	if (record.schedulable instanceof SchedulableObject) {
+	    lateness = 
+		((SchedulableObject) record.schedulable).getTimerLateness();
+	}
+	printCell(lateness == null ? "" : lateness, record.queued, out);
 	out.print("</tr>");
     }
 
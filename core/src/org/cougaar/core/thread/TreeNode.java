@@ -98,6 +98,13 @@ final class TreeNode {
 	return count;
     }
 
+    ThreadStatusService.LaneStatus getLaneStatus(int lane) {
+	if (lane < 0 || lane >= pools.length) {
+	    throw new IllegalArgumentException("Bad lane " + lane);
+	}
+	return pools[lane].getLaneStatus(lane);
+    }
+
     int iterateOverQueuedThreads(ThreadStatusService.Body body) {
 	int count = 0;
 	for (int i=0; i<schedulers.length; i++)
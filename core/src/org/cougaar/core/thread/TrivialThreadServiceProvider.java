@@ -99,6 +99,10 @@ public class TrivialThreadServiceProvider
 		public int iterateOverStatus(ThreadStatusService.Body body) {
 		    return TrivialThreadPool.pool().iterateOverRunningThreads(body);
 		}
+		public ThreadStatusService.LaneStatus getLaneStatus(int lane) {
+		    // the trivial pool has no lanes and no limit
+		    return new ThreadStatusService.LaneStatus(lane, 0, 0, -1, 0, 0, 0);
+		}
 	    };
     }
 
@@ -33,11 +33,16 @@ import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.cougaar.bootstrap.SystemProperties;
 import org.cougaar.core.component.Component;
 import org.cougaar.core.component.ServiceBroker;
 import org.cougaar.core.component.ServiceProvider;
+import org.cougaar.core.qos.metrics.Constants;
+import org.cougaar.core.qos.metrics.Metric;
+import org.cougaar.core.qos.metrics.MetricImpl;
+import org.cougaar.core.qos.metrics.MetricsUpdateService;
 import org.cougaar.core.service.LoggingService;
 import org.cougaar.core.service.ThreadService;
 import org.cougaar.core.service.wp.AddressEntry;
@@ -67,6 +72,11 @@ import org.cougaar.util.UnaryPredicate;
  *       that are known to be stale</li>
  *   <li>Upgrades "get" requests to "getAll" requests, to reduce
  *       server traffic</li>
+ *   <li>Splits the entries into independently locked LRU
+ *       segments (the "segments" parameter, default 16), so
+ *       concurrent lookups of different names rarely contend</li>
+ *   <li>Reports hit, miss, eviction and expiration counts to
+ *       the MetricsUpdateService, if present</li>
  * </ul>
  * <p>
  * The cache doesn't manage "bind/unbind" leases; that's the job of
@@ -91,6 +101,12 @@ implements Component
   // and doesn't contain expired entries
   private static final double EVICT_RATIO = (1.0/3.0);
 
+  // metrics keys for the cache statistics
+  private static final String WP_CACHE_HITS = "WPCacheHits";
+  private static final String WP_CACHE_MISSES = "WPCacheMisses";
+  private static final String WP_CACHE_EVICTIONS = "WPCacheEvictions";
+  private static final String WP_CACHE_EXPIRATIONS = "WPCacheExpirations";
+
   // RFE: timer-based prefetch
   //
   // use the ACCESS_BITS to check entries for late accesses
@@ -113,12 +129,11 @@ implements Component
   private CacheSP cacheSP;
   private HintSP hintSP;
 
-  private final Object lock = new Object();
-
   // our cache
   //
-  // this is a Map of Strings to Entry objects:
-  //   LRUMap<String, Entry>
+  // this is a Map of Strings to Entry objects, split by name hash
+  // into independently locked LRU segments:
+  //   Segment<String, Entry>
   //
   // for keys starting with "."  (list):
   //   Entry data:  Map<String, Set<String>>
@@ -129,7 +144,18 @@ implements Component
   // note that pending requests are also placed in the cache,
   // as well as non-evictable hints, so the cache can't be
   // simply cleared to free up space.
-  private LRUMap cache;
+  //
+  // each segment is its own lock and evicts its own LRU entries,
+  // so the cache as a whole is approximately LRU.
+  private Segment[] segments;
+
+  // statistics
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+  private final AtomicLong expirations = new AtomicLong();
+
+  private MetricsUpdateService metricsUpdateService;
 
   //
   // clean the cache:
@@ -172,7 +198,16 @@ public void load() {
 
     configure(null);
 
-    cache = new LRUMap(config.maxSize);
+    int nsegments = Math.max(1, Math.min(config.segments, config.maxSize / config.minSize));
+    int segmentSize = (config.maxSize + nsegments - 1) / nsegments;
+    segments = new Segment[nsegments];
+    for (int i = 0; i < nsegments; i++) {
+      segments[i] = new Segment(segmentSize);
+    }
+
+    // optional
+    metricsUpdateService = sb.getService(
+       this, MetricsUpdateService.class, null);
 
     // register for lookups
     lookupService = sb.getService(
@@ -237,6 +272,11 @@ public void unload() {
           myLookupClient, LookupService.class, lookupService);
       lookupService = null;
     }
+    if (metricsUpdateService != null) {
+      sb.releaseService(
+          this, MetricsUpdateService.class, metricsUpdateService);
+      metricsUpdateService = null;
+    }
     if (threadService != null) {
       // halt our threads?
       sb.releaseService(this, ThreadService.class, threadService);
@@ -324,7 +364,8 @@ public void unload() {
     UID uid;
     Object result;
     boolean mustSend;
-    synchronized (lock) {
+    Segment cache = segmentFor(name);
+    synchronized (cache) {
       Entry e = (Entry) cache.get(name);
       boolean isHint = false;
       long now = System.currentTimeMillis();
@@ -358,6 +399,8 @@ public void unload() {
         mustSend = e.noteExpired(now, (cacheOnly ? null : res));
       }
 
+      (hasResult ? hits : misses).incrementAndGet();
+
       if (logger.isDetailEnabled()) {
         logger.detail(
             "cache "+
@@ -412,7 +455,8 @@ public void unload() {
 
     // flush the cache entry if it conflicts with the
     // bind entry, to avoid local confusion
-    synchronized (lock) {
+    Segment cache = segmentFor(name);
+    synchronized (cache) {
       Entry e = (Entry) cache.get(name);
       boolean wasCached = false;
       boolean wasStale = false;
@@ -456,7 +500,8 @@ public void unload() {
     boolean hasResult;
     Object result;
     List pendingGets = null;
-    synchronized (lock) {
+    Segment cache = segmentFor(name);
+    synchronized (cache) {
       Entry e = (Entry) cache.get(name);
       if (e == null) {
         // new hint
@@ -553,7 +598,8 @@ public void unload() {
 
     boolean hasResult;
     Object result;
-    synchronized (lock) {
+    Segment cache = segmentFor(name);
+    synchronized (cache) {
       Entry e = (Entry) cache.get(name);
       if (e != null && e.hasHints()) {
         String type = ae.getType();
@@ -589,7 +635,8 @@ public void unload() {
     String name = ae.getName();
 
     // clear cache entry, just in case
-    synchronized (lock) {
+    Segment cache = segmentFor(name);
+    synchronized (cache) {
       Entry e = (Entry) cache.get(name);
       boolean wasCached = false;
       long now = System.currentTimeMillis();
@@ -621,7 +668,8 @@ public void unload() {
     Object result;
     boolean mustSend = false;
 
-    synchronized (lock) {
+    Segment cache = segmentFor(name);
+    synchronized (cache) {
       boolean wasCached = false;
       boolean isOldEnough = true;
 
@@ -788,7 +836,8 @@ public void unload() {
       Object data,
       boolean create) {
     List responses;
-    synchronized (lock) {
+    Segment cache = segmentFor(name);
+    synchronized (cache) {
       Entry e = (Entry) cache.get(name);
       if (create) {
         long now = System.currentTimeMillis();
@@ -1069,50 +1118,54 @@ public void unload() {
 
   private void prefetch() {
     Map m = null;
-    synchronized (lock) {
-      // scan the cache, which is ordered from least-recently-used
-      // to most-recently-used.
-      //
-      // renew entries that will expire soon.
-      //
-      // could optimize this by keeping a minTTL
-      long now = System.currentTimeMillis();
-      long nextTime = (now + config.prefetchPeriod);
-      int n = cache.size();
-      for (Iterator iter = cache.entrySet().iterator();
-          iter.hasNext();
-          ) {
-        Map.Entry me = (Map.Entry) iter.next();
-        Entry e = (Entry) me.getValue();
-        if (!e.shouldPrefetch(nextTime, now)) {
-          continue;
-        }
-        String name = (String) me.getKey();
-        if (m == null) {
-          m = new HashMap();
-        }
-        UID uid = (e.hasData() ? e.getUID() : null);
-        if (logger.isDetailEnabled()) {
-          if (m.isEmpty()) {
-            logger.detail("prefetching cache["+n+"] {");
+    int n = 0;
+    long now = System.currentTimeMillis();
+    long nextTime = (now + config.prefetchPeriod);
+    for (int i = 0; i < segments.length; i++) {
+      Segment cache = segments[i];
+      synchronized (cache) {
+        // scan the cache, which is ordered from least-recently-used
+        // to most-recently-used.
+        //
+        // renew entries that will expire soon.
+        //
+        // could optimize this by keeping a minTTL
+        n += cache.size();
+        for (Iterator iter = cache.entrySet().iterator();
+            iter.hasNext();
+            ) {
+          Map.Entry me = (Map.Entry) iter.next();
+          Entry e = (Entry) me.getValue();
+          if (!e.shouldPrefetch(nextTime, now)) {
+            continue;
+          }
+          String name = (String) me.getKey();
+          if (m == null) {
+            m = new HashMap();
           }
-          logger.detail(
-              "  cache PREFETCH (RENEW "+
-              Timestamp.toString(e.getExpirationTime(), now)+
-              ") for "+
-              (name.charAt(0) == '.' ?
-               "list(suffix=" :
-               "getAll(name=")+
-              name+")"+
-              (uid == null ? "" : " (uid="+uid+")"));
+          UID uid = (e.hasData() ? e.getUID() : null);
+          if (logger.isDetailEnabled()) {
+            if (m.isEmpty()) {
+              logger.detail("prefetching cache {");
+            }
+            logger.detail(
+                "  cache PREFETCH (RENEW "+
+                Timestamp.toString(e.getExpirationTime(), now)+
+                ") for "+
+                (name.charAt(0) == '.' ?
+                 "list(suffix=" :
+                 "getAll(name=")+
+                name+")"+
+                (uid == null ? "" : " (uid="+uid+")"));
+          }
+          m.put(name, uid);
         }
-        m.put(name, uid);
-      }
-      if (m != null && logger.isDetailEnabled()) {
-        logger.detail("}");
-        logger.detail("prefetch "+m.size()+" of "+n+" entries");
       }
     }
+    if (m != null && logger.isDetailEnabled()) {
+      logger.detail("}");
+      logger.detail("prefetch "+m.size()+" of "+n+" entries");
+    }
 
     if (m != null) {
       lookupService.lookup(m);
@@ -1124,24 +1177,29 @@ public void unload() {
 
   // this is optional since the LRU will clean itself
   private void cleanCache() {
-    synchronized (lock) {
-      long now = System.currentTimeMillis();
-
-      // remove expired entries
-      removeExpiredEntries(now);
+    long now = System.currentTimeMillis();
 
-      // might as well debug our misses-table on the timer thread
-      if (logger.isDebugEnabled()) {
-        StringBuffer buf = new StringBuffer();
-        buf.append("\n##### cache requests & hints ######################\n");
-        boolean moreInfo = logger.isDetailEnabled();
-        cacheToString(buf, moreInfo, moreInfo, now);
-        buf.append("\n###################################################");
-        String s = buf.toString();
-        logger.debug(s);
+    // remove expired entries
+    for (int i = 0; i < segments.length; i++) {
+      Segment cache = segments[i];
+      synchronized (cache) {
+        removeExpiredEntries(cache, now);
       }
     }
 
+    // might as well debug our misses-table on the timer thread
+    if (logger.isDebugEnabled()) {
+      StringBuffer buf = new StringBuffer();
+      buf.append("\n##### cache requests & hints ######################\n");
+      boolean moreInfo = logger.isDetailEnabled();
+      cacheToString(buf, moreInfo, moreInfo, now);
+      buf.append("\n###################################################");
+      String s = buf.toString();
+      logger.debug(s);
+    }
+
+    updateMetrics();
+
     // run me again later
     cleanCacheThread.schedule(config.cleanPeriod);
   }
@@ -1151,25 +1209,38 @@ public void unload() {
       boolean showNormal,
       boolean showExpired,
       long now) {
-    buf.append("Cache[").append(cache.size()).append("] {");
+    int size = 0;
+    for (int i = 0; i < segments.length; i++) {
+      size += segments[i].size();
+    }
+    buf.append("Cache[").append(size).append("] {");
+    buf.append("\n  hits=").append(hits.get());
+    buf.append(" misses=").append(misses.get());
+    buf.append(" evictions=").append(evictions.get());
+    buf.append(" expirations=").append(expirations.get());
     int nNormal = 0;
     int nExpired = 0;
-    for (Iterator iter = cache.entrySet().iterator();
-        iter.hasNext();
-        ) {
-      Map.Entry me = (Map.Entry) iter.next();
-      String name = (String) me.getKey();
-      Entry e = (Entry) me.getValue();
-      if (!showExpired && e.hasExpired(now)) {
-        nExpired++;
-        continue;
-      }
-      if (!showNormal && e.canEvict(now, false)) {
-        nNormal++;
-        continue;
+    for (int i = 0; i < segments.length; i++) {
+      Segment cache = segments[i];
+      synchronized (cache) {
+        for (Iterator iter = cache.entrySet().iterator();
+            iter.hasNext();
+            ) {
+          Map.Entry me = (Map.Entry) iter.next();
+          String name = (String) me.getKey();
+          Entry e = (Entry) me.getValue();
+          if (!showExpired && e.hasExpired(now)) {
+            nExpired++;
+            continue;
+          }
+          if (!showNormal && e.canEvict(now, false)) {
+            nNormal++;
+            continue;
+          }
+          buf.append("\n  ").append(name).append(" --> ");
+          buf.append(e.toString(now));
+        }
       }
-      buf.append("\n  ").append(name).append(" --> ");
-      buf.append(e.toString(now));
     }
     if (0 < nNormal) {
       buf.append("\n  <skipping ").append(nNormal);
@@ -1182,9 +1253,9 @@ public void unload() {
     buf.append("\n}");
   }
 
-  private boolean evictLRU(Entry eldestE) {
+  private boolean evictLRU(Segment cache, Entry eldestE) {
     synchronized (cache) {
-      if (cache.size() <= config.maxSize) {
+      if (cache.size() <= cache.maxSize) {
         // still plenty of room
         return false;
       }
@@ -1196,17 +1267,22 @@ public void unload() {
         if (logger.isDetailEnabled()) {
           logger.detail("evicting eldest: "+eldestE);
         }
+        if (eldestE.hasExpired(now)) {
+          expirations.incrementAndGet();
+        } else {
+          evictions.incrementAndGet();
+        }
         return true;
       }
       // remove expired entries
-      if (removeExpiredEntries(now)) {
+      if (removeExpiredEntries(cache, now)) {
         // freed some expired entries
         //
         // must return false since we modified the map
         return false;
       }
       // okay, try removing non-expired entries
-      if (evictEntries(now, EVICT_RATIO)) {
+      if (evictEntries(cache, now, EVICT_RATIO)) {
         // freed some non-expired entries
         //
         // must return false since we modified the map
@@ -1218,17 +1294,17 @@ public void unload() {
       // in practice.
       if (logger.isInfoEnabled()) {
         logger.info(
-            "Can't evict an entry from the cache["+
+            "Can't evict an entry from the cache segment["+
             cache.size()+"],"+
             " either due to pending requests or hints,"+
-            " allowing the cache to exceed its maximum size "+
-            config.maxSize);
+            " allowing the segment to exceed its maximum size "+
+            cache.maxSize);
       }
       return false;
     }
   }
 
-  private boolean removeExpiredEntries(long now) {
+  private boolean removeExpiredEntries(Segment cache, long now) {
     // scan the cache, which is ordered from least-recently-used
     // to most-recently-used.
     //
@@ -1259,10 +1335,11 @@ public void unload() {
       logger.detail("}");
       logger.detail("removed "+nfreed+" of "+n+" expired entries");
     }
+    expirations.addAndGet(nfreed);
     return (0 < nfreed);
   }
 
-  private boolean evictEntries(long now, double percent) {
+  private boolean evictEntries(Segment cache, long now, double percent) {
     // evict a percent of the cache, even if the entries haven't
     // expired yet
     int n = cache.size();
@@ -1294,6 +1371,7 @@ public void unload() {
       logger.debug("}");
       logger.debug("Evicted "+nfreed+" of "+n+" expired entries");
     }
+    evictions.addAndGet(nfreed);
     return (0 < nfreed);
   }
 
@@ -1304,9 +1382,9 @@ public void unload() {
     public final long minTTD;
     public final long maxTTD;
     public final int minSize;
-    @SuppressWarnings("unused")
-   public final int initSize;
+    public final int initSize;
     public final int maxSize;
+    public final int segments;
 
     public CacheConfig(Object o) {
       Parameters p = 
@@ -1318,6 +1396,7 @@ public void unload() {
       minSize = p.getInt("minSize", 16);
       initSize = p.getInt("initSize", minSize);
       maxSize = p.getInt("maxSize", 2048);
+      segments = p.getInt("segments", 16);
       if (maxSize <= 0 || maxSize < minSize) {
         throw new RuntimeException(
             "Invalid cache size (min="+minSize+", max="+maxSize+")");
@@ -1879,13 +1958,25 @@ public void unload() {
     }
   }
 
-  class LRUMap extends LinkedHashMap {
+  private Segment segmentFor(String name) {
+    int h = name.hashCode();
+    h ^= (h >>> 16);
+    return segments[(h & 0x7fffffff) % segments.length];
+  }
+
+  /**
+   * One lock stripe of the cache, with its own LRU ordering and
+   * share of the maximum size.
+   */
+  class Segment extends LinkedHashMap {
     /**
     * 
     */
    private static final long serialVersionUID = 1L;
-   public LRUMap(int initialSize) {
-      super(initialSize, 0.75f, true);
+   private final int maxSize;
+   public Segment(int maxSize) {
+      super(Math.min(maxSize, config.initSize), 0.75f, true);
+      this.maxSize = maxSize;
     }
     @Override
    protected boolean removeEldestEntry(Map.Entry eldest) {
@@ -1893,10 +1984,30 @@ public void unload() {
         (eldest == null ?
          (null) :
          ((Entry) eldest.getValue()));
-      return evictLRU(eldestE);
+      return evictLRU(this, eldestE);
     }
   }
 
+  private void updateMetrics() {
+    MetricsUpdateService mus = metricsUpdateService;
+    if (mus == null) {
+      return;
+    }
+    updateMetric(mus, WP_CACHE_HITS, hits.get());
+    updateMetric(mus, WP_CACHE_MISSES, misses.get());
+    updateMetric(mus, WP_CACHE_EVICTIONS, evictions.get());
+    updateMetric(mus, WP_CACHE_EXPIRATIONS, expirations.get());
+  }
+
+  private void updateMetric(MetricsUpdateService mus, String name, long value) {
+    Metric metric = new MetricImpl(
+        new Long(value),
+        Constants.SECOND_MEAS_CREDIBILITY,
+        "count",
+        "WhitePagesCache");
+    mus.updateValue(name, metric);
+  }
+
   private class CacheSP 
     implements ServiceProvider {
       private final CacheService cs =
@@ -26,6 +26,7 @@
 
 package org.cougaar.core.wp.resolver;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -62,6 +63,19 @@ import org.cougaar.util.RarelyModifiedList;
  *   Ignore the "nagleMillis" delay if the request is a new
  *   name list (e.g. "list ."), which is often a user request.
  *   Defaults to false. 
+ * @property org.cougaar.core.wp.resolver.transport.adaptiveNagle
+ *   Size the "nagle" delay from the measured server round-trip-time
+ *   instead of using a fixed delay.  Requests are sent immediately
+ *   if no other requests are pending, otherwise they're held for
+ *   the "nagleRatio" of the round-trip-time, bounded by the
+ *   "nagleMillis" and "maxNagleMillis", or until a pending request
+ *   is answered.  Defaults to false.
+ * @property org.cougaar.core.wp.resolver.transport.nagleRatio
+ *   Fraction of the round-trip-time to delay requests if
+ *   "adaptiveNagle" is enabled.  Defaults to 0.5.
+ * @property org.cougaar.core.wp.resolver.transport.maxNagleMillis
+ *   Maximum delay in milliseconds if "adaptiveNagle" is enabled.
+ *   Defaults to 200.
  * @property org.cougaar.core.wp.resolver.transport.graceMillis
  *   Extended message timeout deadline after startup.  Defaults to
  *   zero.
@@ -140,6 +154,7 @@ extends TransportBase
   // temporary fields for use in "send" and related methods.
   // accessed within myLock.
   private long now;
+  private long nagleMillis;
   private boolean sendNow;
   private boolean sendLater;
   private final Set lookupNames = new HashSet();
@@ -190,7 +205,7 @@ public void load() {
     }
 
     // create threads
-    if (config.nagleMillis > 0) { 
+    if (config.nagleMillis > 0 || config.adaptiveNagle) { 
       Runnable releaseRunner =
         new Runnable() {
           public void run() {
@@ -434,8 +449,10 @@ protected void foundMessageTransport() {
   private void init() {
     now = System.currentTimeMillis();
 
+    nagleMillis = getNagleMillis();
+
     sendNow =
-      (config.nagleMillis <= 0 ||
+      (nagleMillis <= 0 ||
        (releaseTime > 0 && releaseTime <= now));
 
     sendLater = false;
@@ -447,6 +464,36 @@ protected void foundMessageTransport() {
     modifyAddrs.clear();
   }
 
+  /**
+   * Compute the batching delay for new requests.
+   * <p>
+   * In adaptive mode this is the classic Nagle rule: there's no
+   * point in waiting if nothing else is pending, otherwise we wait
+   * for a fraction of the server round-trip-time to batch the
+   * requests that are likely to arrive before the pending answers.
+   */
+  private long getNagleMillis() {
+    // assert (Thread.holdsLock(myLock));
+    if (!config.adaptiveNagle) {
+      return config.nagleMillis;
+    }
+    if (lookups.isEmpty() && mods.isEmpty()) {
+      return 0;
+    }
+    long rtt = selectService.getRTT();
+    long t =
+      (rtt < 0 ?
+       config.maxNagleMillis :
+       (long) (rtt * config.nagleRatio));
+    if (t < config.nagleMillis) {
+      t = config.nagleMillis;
+    }
+    if (t > config.maxNagleMillis) {
+      t = config.maxNagleMillis;
+    }
+    return t;
+  }
+
   private void updateNodeModify(boolean lookup, Map m) {
     synchronized (nodeModifyLock) {
       Map newM = 
@@ -501,6 +548,9 @@ protected void foundMessageTransport() {
       // add to queue
       if (e != null &&
           !shouldSend(lookup, name, query, e.getQuery())) {
+        // coalesced with a pending request, possibly from another
+        // agent on this node
+        stats(lookup).coalesce();
         continue;
       }
       // add or replace the entry
@@ -556,7 +606,7 @@ protected void foundMessageTransport() {
   }
 
   private void checkReleaseTimer() {
-    if (!sendNow || config.nagleMillis <= 0) {
+    if (!sendNow || releaseThread == null) {
       return;
     }
     if (releaseTime > 0) {
@@ -611,7 +661,7 @@ protected void foundMessageTransport() {
         String name = (String) me.getKey();
         Entry e = (Entry) me.getValue();
         MessageAddress target = e.getTarget();
-        if (target == null && sendNow && config.nagleMillis > 0) {
+        if (target == null && sendNow && releaseThread != null) {
           // waiting for releaseThread
           continue;
         }
@@ -698,11 +748,11 @@ protected void foundMessageTransport() {
     // make sure timer is running to send later
     if (releaseTime == 0) {
       // start timer
-      releaseTime = now + config.nagleMillis; 
+      releaseTime = now + nagleMillis; 
       if (logger.isDetailEnabled()) {
         logger.detail("starting delayed release timer");
       }
-      releaseThread.schedule(config.nagleMillis);
+      releaseThread.schedule(nagleMillis);
     }
     // wait for timer
     if (logger.isDetailEnabled()) {
@@ -757,6 +807,9 @@ protected void foundMessageTransport() {
         anyToSend = true;
 
         // set timestamps
+        if (e.getSendTime() == 0) {
+          stats(xlookup).waited(now - e.getCreationTime());
+        }
         e.setSendTime(now);
         long deadline = MessageTimeoutUtils.getDeadline(target);
         if (deadline > 0 && graceTime > 0 && graceTime > deadline) {
@@ -814,6 +867,7 @@ protected void foundMessageTransport() {
 
   private void cleanup() {
     now = 0;
+    nagleMillis = 0;
     sendNow = false;
     sendLater = false;
     lookupNames.clear();
@@ -995,6 +1049,13 @@ protected void receiveNow(Message msg) {
 
       // reward the server
       selectService.update(addr, rtt, false);
+
+      if (config.adaptiveNagle && releaseTime > now) {
+        // an answer is the best time to send our delayed requests,
+        // as in Nagle's algorithm
+        releaseTime = now;
+        releaseThread.start();
+      }
     }
 
     // compute the base time
@@ -1089,6 +1150,8 @@ protected void receiveNow(Message msg) {
     logger.debug("header, agent, "+stats(true).getHeader());
     logger.debug("lookup, "+agentId+", "+stats(true).getStats());
     logger.debug("modify, "+agentId+", "+stats(false).getStats());
+    logger.debug("lookup, "+agentId+", "+stats(true).getHistograms());
+    logger.debug("modify, "+agentId+", "+stats(false).getHistograms());
 
     String currentServers = selectService.toString();
     synchronized (myLock) {
@@ -1204,6 +1267,14 @@ protected void receiveNow(Message msg) {
     private int receiveSize;
     private int acceptCount;
     private int acceptSize;
+    private int coalesced;
+
+    // power-of-two histograms of the number of names per sent
+    // message and the milliseconds between a request and its
+    // first send, where bucket i counts values in [2^(i-1), 2^i)
+    private final int[] batchSizes = new int[HISTOGRAM_SIZE];
+    private final int[] waitTimes = new int[HISTOGRAM_SIZE];
+    private static final int HISTOGRAM_SIZE = 16;
 
     private String getHeader() {
       return
@@ -1216,7 +1287,8 @@ protected void receiveNow(Message msg) {
         ", recvC"+
         ", recvS"+
         ", accC"+
-        ", accS";
+        ", accS"+
+        ", coal";
     }
 
     private String getStats() {
@@ -1231,10 +1303,27 @@ protected void receiveNow(Message msg) {
           ", "+receiveCount+
           ", "+receiveSize+
           ", "+acceptCount+
-          ", "+acceptSize;
+          ", "+acceptSize+
+          ", "+coalesced;
       }
     }
 
+    private String getHistograms() {
+      synchronized (lock) {
+        return
+          "batchSizes="+Arrays.toString(batchSizes)+
+          ", waitTimes="+Arrays.toString(waitTimes);
+      }
+    }
+
+    private static int bucket(long v) {
+      if (v <= 0) {
+        return 0;
+      }
+      int i = 64 - Long.numberOfLeadingZeros(v);
+      return (i < HISTOGRAM_SIZE ? i : HISTOGRAM_SIZE - 1);
+    }
+
     private void send(Map m) {
       int s = (m == null ? 0 : m.size());
       if (s <= 0) {
@@ -1250,6 +1339,16 @@ protected void receiveNow(Message msg) {
         later++;
       }
     }
+    private void coalesce() {
+      synchronized (lock) {
+        coalesced++;
+      }
+    }
+    private void waited(long millis) {
+      synchronized (lock) {
+        waitTimes[bucket(millis)]++;
+      }
+    }
     private void sendAll(Map addrMap) {
       int n = (addrMap == null ? 0 : addrMap.size());
       if (n <= 0) {
@@ -1263,6 +1362,7 @@ protected void receiveNow(Message msg) {
           Map.Entry me = (Map.Entry) iter.next();
           Map m = (Map) me.getValue();
           s += m.size();
+          batchSizes[bucket(m.size())]++;
         }
         sendSize += s;
       }
@@ -1353,6 +1453,9 @@ protected void receiveNow(Message msg) {
   private static class ClientTransportConfig {
     public final long nagleMillis;
     public final boolean noListNagle;
+    public final boolean adaptiveNagle;
+    public final double nagleRatio;
+    public final long maxNagleMillis;
     public final long checkDeadlinesPeriod;
     public final long graceMillis;
 
@@ -1361,6 +1464,9 @@ protected void receiveNow(Message msg) {
         new Parameters(o, "org.cougaar.core.wp.resolver.transport.");
       nagleMillis = p.getLong("nagleMillis", 0);
       noListNagle = p.getBoolean("noListNagle", false);
+      adaptiveNagle = p.getBoolean("adaptiveNagle", false);
+      nagleRatio = p.getDouble("nagleRatio", 0.5);
+      maxNagleMillis = p.getLong("maxNagleMillis", 200);
       checkDeadlinesPeriod = p.getLong("checkDeadlinesPeriod", 10000);
       graceMillis = p.getLong("graceMillis", 0);
     }
@@ -32,6 +32,8 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
 
 import org.cougaar.core.component.Component;
 import org.cougaar.core.component.ServiceBroker;
@@ -94,6 +96,17 @@ implements Component
 
   private Schedulable renewLeasesThread;
 
+  // scheduled renewals, ordered by time, guarded by the leases
+  // lock.  Replaced renewals are left in the queue and skipped when
+  // they come due.
+  private final PriorityQueue<Renewal> renewals =
+    new PriorityQueue<Renewal>();
+
+  // the time the renewLeasesThread is scheduled to run
+  private long nextRenewTime = Long.MAX_VALUE;
+
+  private final Random random = new Random();
+
   public void setParameter(Object o) {
     configure(o);
   }
@@ -146,7 +159,10 @@ public void load() {
         this,
         renewLeasesRunner,
         "White pages server renew leases");
-    renewLeasesThread.schedule(config.checkLeasesPeriod);
+    synchronized (leases) {
+      long now = System.currentTimeMillis();
+      scheduleRenewals(now + config.checkLeasesPeriod, now);
+    }
 
     NodeControlService ncs = sb.getService(this, NodeControlService.class, null);
     if (ncs != null) {
@@ -667,7 +683,7 @@ public void unload() {
       if (!matchesLease(name, uid, lease, "success")) {
         return;
       }
-      responses = leaseSuccess(lease, baseTime, ttd);
+      responses = leaseSuccess(name, lease, baseTime, ttd);
       if (responses == null || responses.isEmpty()) {
         return;
       }
@@ -680,6 +696,7 @@ public void unload() {
   }
 
   private List leaseSuccess(
+      String name,
       ActiveLease lease,
       long baseTime,
       long ttd) {
@@ -692,6 +709,7 @@ public void unload() {
     // renewed an existing lease
     long now = System.currentTimeMillis();
     renewed(lease, now, ttl);
+    scheduleRenewal(name, lease, now);
 
     if (renewal) {
       if (logger.isDebugEnabled()) {
@@ -800,19 +818,32 @@ public void unload() {
   }
 
   /**
-   * Check our leases and renew them if they'll expire soon.
+   * Renew the leases that will expire soon.
+   * <p>
+   * Only the renewals that are due are examined, plus any that
+   * come due within the "renewWindow", so they can be batched into
+   * the same modify.
    */
   private void renewLeases() {
     long now;
     Map m = null;
     synchronized (leases) {
       now = System.currentTimeMillis();
-      for (Iterator iter = leases.entrySet().iterator();
-          iter.hasNext();
-          ) {
-        Map.Entry me = (Map.Entry) iter.next();
-        String name = (String) me.getKey();
-        ActiveLease lease = (ActiveLease) me.getValue();
+      nextRenewTime = Long.MAX_VALUE;
+      long horizon = now + config.renewWindow;
+      while (true) {
+        Renewal renewal = renewals.peek();
+        if (renewal == null || horizon < renewal.time) {
+          break;
+        }
+        renewals.poll();
+        String name = renewal.name;
+        ActiveLease lease = renewal.lease;
+        if (lease != leases.get(name) || renewal != lease.renewal) {
+          // replaced or removed
+          continue;
+        }
+        lease.renewal = null;
         boolean renewNow = shouldRenew(name, lease, now);
         if (!renewNow) {
           continue;
@@ -828,14 +859,31 @@ public void unload() {
         }
         m.put(name, o);
       }
+
+      // run me again later
+      Renewal next = renewals.peek();
+      long t = now + config.checkLeasesPeriod;
+      if (next != null && next.time < t) {
+        t = next.time;
+      }
+      scheduleRenewals(t, now);
     }
 
     if (m != null) {
       modifyService.modify(m);
     }
+  }
 
-    // run me again later
-    renewLeasesThread.schedule(config.checkLeasesPeriod);
+  /**
+   * Make sure the renewLeasesThread will run by the given time.
+   */
+  private void scheduleRenewals(long t, long now) {
+    // assert (Thread.holdsLock(leases));
+    if (nextRenewTime <= t) {
+      return;
+    }
+    nextRenewTime = t;
+    renewLeasesThread.schedule(Math.max(0, t - now));
   }
 
   //
@@ -847,15 +895,7 @@ public void unload() {
       String name,
       ActiveLease lease,
       long now) {
-    // calculate renewal time based upon:
-    //   expiration time
-    //   round-trip time for the last renewal delay
-    //   some slack for the above round-trip time
-    //   added safety in case the server forgets us
-    //
-    // here's the current guess:
-    //
-    // figure out the latest time we could renew
+    // the renewal time was calculated by scheduleRenewal
     if (0 < lease.sendTime) {
       // we're still waiting for the last renewal ack
       if (logger.isDetailEnabled()) {
@@ -865,25 +905,6 @@ public void unload() {
       }
       return false;
     }
-    long latestRenew =
-      lease.expireTime - lease.roundTripTime;
-    // weight it to be a little early
-    long renewalTime = (long) (
-        lease.boundTime +
-        (config.renewRatio *
-         (latestRenew - lease.boundTime)));
-    // adjust for timer period
-    renewalTime -= config.checkLeasesPeriod;
-    if (now < renewalTime) {
-      if (logger.isDetailEnabled()) {
-        logger.detail(
-            "lease (name="+name+", uid="+lease.record.getUID()+
-            ") doesn't need to be renewed until "+
-            Timestamp.toString(renewalTime, now)+
-            ": "+lease.toString(now));
-      }
-      return false;
-    }
     // renew, mark the sendtime for round-trip measurement
     lease.sendTime = now;
     if (logger.isDebugEnabled()) {
@@ -896,6 +917,52 @@ public void unload() {
     return true;
   }
 
+  /**
+   * Schedule the next renewal of a lease that has been bound or
+   * renewed.
+   */
+  private void scheduleRenewal(
+      String name,
+      ActiveLease lease,
+      long now) {
+    // calculate renewal time based upon:
+    //   expiration time
+    //   round-trip time for the last renewal delay
+    //   some slack for the above round-trip time
+    //   added safety in case the server forgets us
+    //
+    // here's the current guess:
+    //
+    // figure out the latest time we could renew
+    long latestRenew =
+      lease.expireTime - lease.roundTripTime;
+    // weight it to be a little early
+    long renewalTime = (long) (
+        lease.boundTime +
+        (config.renewRatio *
+         (latestRenew - lease.boundTime)));
+    // randomly renew a bit earlier, so leases bound at the same
+    // time (e.g. at node startup) don't all renew together
+    long jitter = (long) (
+        random.nextDouble() *
+        config.renewJitter *
+        (renewalTime - lease.boundTime));
+    if (0 < jitter) {
+      renewalTime -= jitter;
+    }
+    if (logger.isDetailEnabled()) {
+      logger.detail(
+          "lease (name="+name+", uid="+lease.record.getUID()+
+          ") doesn't need to be renewed until "+
+          Timestamp.toString(renewalTime, now)+
+          ": "+lease.toString(now));
+    }
+    Renewal renewal = new Renewal(name, lease, renewalTime);
+    lease.renewal = renewal;
+    renewals.add(renewal);
+    scheduleRenewals(renewalTime, now);
+  }
+
   private void renewed(ActiveLease lease, long now, long expTime) {
     // set our timestamps
     if (0 < lease.sendTime) {
@@ -925,6 +992,8 @@ public void unload() {
   /** config options */
   private static class LeaserConfig {
     public final double renewRatio;
+    public final double renewJitter;
+    public final long renewWindow;
     public final double tripWeight;
     public final long minBundleTTD;
     public final long checkLeasesPeriod;
@@ -933,6 +1002,8 @@ public void unload() {
       Parameters p = 
         new Parameters(o, "org.cougaar.core.wp.resolver.lease.");
       renewRatio = p.getDouble("renewRatio", 0.75);
+      renewJitter = p.getDouble("renewJitter", 0.1);
+      renewWindow = p.getLong("renewWindow", 1000);
       tripWeight = p.getDouble("tripWeight", 0.75);
       minBundleTTD = p.getLong("minBundleTTD", 60000);
       checkLeasesPeriod = p.getLong("checkLeasesPeriod", 20000);
@@ -951,6 +1022,7 @@ public void unload() {
     public long sendTime;
     public long roundTripTime;
     public long expireTime;
+    public Renewal renewal;
 
     private List responses;
 
@@ -1070,6 +1142,23 @@ public void unload() {
     }
   }
 
+  /** a scheduled lease renewal */
+  private static final class Renewal implements Comparable<Renewal> {
+    public final String name;
+    public final ActiveLease lease;
+    public final long time;
+
+    public Renewal(String name, ActiveLease lease, long time) {
+      this.name = name;
+      this.lease = lease;
+      this.time = time;
+    }
+
+    public int compareTo(Renewal r) {
+      return (time < r.time ? -1 : time == r.time ? 0 : 1);
+    }
+  }
+
   private class LeaseSP 
     implements ServiceProvider {
       private final LeaseService ls =
@@ -633,6 +633,19 @@ public void unload() {
     }
   }
 
+  private long getRTT() {
+    synchronized (lock) {
+      if (selectAddr == null) {
+        return -1;
+      }
+      Entry e = (Entry) entries.get(selectAddr.getAddress());
+      if (e == null || e.getUpdateTime() <= 0) {
+        return -1;
+      }
+      return e.getAverage();
+    }
+  }
+
   private void update(
       MessageAddress addr, long rtt, boolean timeout) {
     synchronized (lock) {
@@ -808,6 +821,9 @@ public void unload() {
             MessageAddress addr, long duration, boolean timeout) {
           SelectManager.this.update(addr, duration, timeout);
         }
+        public long getRTT() {
+          return SelectManager.this.getRTT();
+        }
         @Override
       public String toString() {
           return SelectManager.this.my_toString();
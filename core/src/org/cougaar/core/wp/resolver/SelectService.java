@@ -68,6 +68,12 @@ public interface SelectService extends Service {
    */
   boolean contains(MessageAddress addr);
 
+  /**
+   * @return the average round-trip-time to the currently selected
+   * server, or -1 if not known
+   */
+  long getRTT();
+
   interface Client {
     /**
      * The set of servers has changed, either with added or removed
@@ -0,0 +1,107 @@
+/*
+ * <copyright>
+ *  
+ *  Copyright 2002-2004 BBNT Solutions, LLC
+ *  under sponsorship of the Defense Advanced Research Projects
+ *  Agency (DARPA).
+ * 
+ *  You can redistribute this software and/or modify it under the
+ *  terms of the Cougaar Open Source License as published on the
+ *  Cougaar Open Source Website (www.cougaar.org).
+ * 
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *  
+ * </copyright>
+ */
+
+package org.cougaar.core.wp.server;
+
+import java.io.Serializable;
+import java.util.Map;
+
+import org.cougaar.core.util.UID;
+
+/**
+ * A summary of a server directory's records, exchanged between
+ * servers through "forward"ing to repair replication gaps.
+ * <p>
+ * The hash is the XOR of a hash of each record's name and UID (see
+ * {@link #hash}), so it doesn't depend on the order of the
+ * records and can be updated as records come and go.  A server
+ * periodically forwards the hash of each of its directories.  If a
+ * peer's hash differs then the peer answers with its full
+ * name-to-UID listing for that directory, and the server forwards
+ * the records that the peer lacks.
+ * <p>
+ * Directory UIDs are assigned by each server, so they can't be
+ * compared between servers, but record UIDs are assigned by the
+ * clients.
+ */
+public final class Digest implements Serializable {
+
+  /**
+    * 
+    */
+   private static final long serialVersionUID = 1L;
+  private final long hash;
+  private final Map listing;
+
+  public Digest(long hash, Map listing) {
+    this.hash = hash;
+    this.listing = listing;
+  }
+
+  /**
+   * The XOR of the record hashes in the directory.
+   */
+  public long getHash() {
+    return hash;
+  }
+
+  /**
+   * The optional Map of record names to their UIDs, which is null
+   * in a digest and non-null in an answer to a mismatched digest.
+   */
+  public Map getListing() {
+    return listing;
+  }
+
+  /**
+   * The hash of a single record.
+   * <p>
+   * This must be identical in all servers, so it's based on
+   * "String.hashCode()" and the UID's owner and id, all of which are
+   * well defined.
+   */
+  public static long hash(String name, UID uid) {
+    long h = name.hashCode();
+    h = 31*h + uid.getOwner().hashCode();
+    h = 31*h + uid.getId();
+    // spread the bits, so the XOR of similar records doesn't
+    // cancel out
+    h ^= (h >>> 33);
+    h *= 0xff51afd7ed558ccdL;
+    h ^= (h >>> 33);
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= (h >>> 33);
+    return h;
+  }
+
+  @Override
+public String toString() {
+    return
+      "(digest hash="+Long.toHexString(hash)+
+      (listing == null ? "" : " listing["+listing.size()+"]")+
+      ")";
+  }
+}
@@ -26,18 +26,28 @@
 
 package org.cougaar.core.wp.server;
 
+import java.io.IOException;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.cougaar.core.component.Component;
 import org.cougaar.core.component.ServiceBroker;
 import org.cougaar.core.mts.MessageAddress;
+import org.cougaar.core.qos.metrics.Constants;
+import org.cougaar.core.qos.metrics.Metric;
+import org.cougaar.core.qos.metrics.MetricImpl;
+import org.cougaar.core.qos.metrics.MetricsUpdateService;
+import org.cougaar.core.service.AgentIdentificationService;
 import org.cougaar.core.service.LoggingService;
 import org.cougaar.core.service.ThreadService;
 import org.cougaar.core.service.UIDService;
@@ -61,6 +71,21 @@ import org.cougaar.util.GenericStateModelAdapter;
  * This implementation supports replication but not naming
  * hierarchies.
  * <p>
+ * Modifies, forwards and expirations are serialized by a lock,
+ * but lookups read the directory tree without the lock.
+ * <p>
+ * Changed records are periodically forwarded to our peers.  To
+ * repair lost forwards and fill in new peers, we also periodically
+ * forward a {@link Digest} of each directory, and peers with a
+ * different digest ask us for the records they lack.  The measured
+ * replication lag of received forwards is reported to the
+ * MetricsUpdateService, if present.
+ * <p>
+ * If the "journal" parameter is set then the records are saved in
+ * a {@link ServerJournal}, so a restarted server can answer lookups
+ * from its saved records while the digests catch it up with its
+ * peers.
+ * <p>
  * Refactor me!
  */
 public class RootAuthority
@@ -89,14 +114,44 @@ implements Component
 
   private Schedulable expireThread;
   private Schedulable forwardThread;
+  private Schedulable digestThread;
+  private Schedulable snapshotThread;
+
+  // optional, guarded by the lock
+  private ServerJournal journal;
+
+  private MetricsUpdateService metricsUpdateService;
 
   private final MyClient myClient = new MyClient();
 
   private final Object lock = new Object();
 
-  private DirEntry rootDir;
+  // guarded by the lock for modifies, but read without the lock
+  // by lookups.  See handleAll.
+  private volatile DirEntry rootDir;
 
-  private final Map forwardQueue = new HashMap();
+  // record entries ordered by their queued expiration time, so
+  // expireLeases only looks at the due records.  Renewed records
+  // are requeued when their old expiration time comes due.
+  private final PriorityQueue<RecordEntry> expirations =
+    new PriorityQueue<RecordEntry>();
+
+  // replaced by forwardNow
+  private Map forwardQueue = new HashMap();
+
+  // replication lag of received forwards, guarded by the lock.
+  // The lag is measured against the sender's clock, so it includes
+  // any clock skew between the servers.
+  //
+  // Map<MessageAddress, long[] {lastLag, maxLag, count}>
+  private final Map peerLags = new HashMap();
+  private long maxLag;
+
+  // metrics keys for the replication lag
+  private static final String WP_SERVER_REPLICATION_LAG =
+    "WPServerReplicationLag";
+  private static final String WP_SERVER_MAX_REPLICATION_LAG =
+    "WPServerMaxReplicationLag";
 
 
   public void setParameter(Object o) {
@@ -136,6 +191,19 @@ public void load() {
       logger.debug("Loading server root authority");
     }
 
+    rootDir = new DirEntry(uidService.nextUID(), null, ".");
+
+    if (config.journal) {
+      AgentIdentificationService ais =
+        sb.getService(this, AgentIdentificationService.class, null);
+      String agentName = ais.getMessageAddress().getAddress();
+      sb.releaseService(this, AgentIdentificationService.class, ais);
+      journal = new ServerJournal(agentName, logger);
+      synchronized (lock) {
+        restore();
+      }
+    }
+
     protectS = sb.getService(this, WhitePagesProtectionService.class, null);
     if (logger.isDebugEnabled()) {
       logger.debug(
@@ -157,6 +225,42 @@ public void load() {
       "White pages server forward leases");
     forwardThread.schedule(config.forwardPeriod);
 
+    // create anti-entropy digest timer
+    if (0 < config.digestPeriod) {
+      Runnable digestRunner =
+        new Runnable() {
+          public void run() {
+            // assert thread == digestThread;
+            digestNow();
+          }
+        };
+      digestThread = threadService.getThread(
+        this,
+        digestRunner,
+        "White pages server forward digests");
+      digestThread.schedule(config.digestPeriod);
+    }
+
+    // create journal snapshot timer
+    if (journal != null) {
+      Runnable snapshotRunner =
+        new Runnable() {
+          public void run() {
+            // assert thread == snapshotThread;
+            snapshotNow();
+          }
+        };
+      snapshotThread = threadService.getThread(
+        this,
+        snapshotRunner,
+        "White pages server journal snapshot");
+      // snapshot soon, to compact the restored journals
+      snapshotThread.schedule(config.checkExpirePeriod);
+    }
+
+    metricsUpdateService = sb.getService(
+        this, MetricsUpdateService.class, null);
+
     // create expiration timer
     Runnable expireRunner =
       new Runnable() {
@@ -193,8 +297,24 @@ public void load() {
   @Override
 public void unload() {
     expireThread.cancel();
+    if (digestThread != null) {
+      digestThread.cancel();
+    }
+    if (snapshotThread != null) {
+      snapshotThread.cancel();
+    }
+    if (journal != null) {
+      synchronized (lock) {
+        journal.close();
+      }
+    }
 
     // release services
+    if (metricsUpdateService != null) {
+      sb.releaseService(
+          this, MetricsUpdateService.class, metricsUpdateService);
+      metricsUpdateService = null;
+    }
     if (forwardService != null) {
       sb.releaseService(
           myClient, ForwardService.class, forwardService);
@@ -262,26 +382,20 @@ public void unload() {
     if (n == 0) {
       return;
     }
-    Map answers = null;
-    synchronized (lock) {
-      long now = System.currentTimeMillis();
-      for (Iterator iter = m.entrySet().iterator();
-          iter.hasNext();
-          ) {
-        Map.Entry me = (Map.Entry) iter.next();
-        String name = (String) me.getKey();
-        Object sendObj = me.getValue();
-        Object answer = handle(action, name, sendObj, now);
-        if (answer == null) {
-          continue;
+    Map answers;
+    if (action == LOOKUP) {
+      // lookups only read the directory tree, which is safe
+      // without the lock.  This keeps lookups from waiting on
+      // modifies, forwards and expirations.
+      answers = handleEach(action, m, n);
+    } else {
+      synchronized (lock) {
+        if (action == FORWARD) {
+          updateLag(clientAddr, clientTime);
         }
-        if (n == 1) {
-          answers = Collections.singletonMap(name, answer);
-        } else {
-          if (answers == null) {
-            answers = new HashMap();
-          }
-          answers.put(name, answer);
+        answers = handleEach(action, m, n);
+        if (journal != null) {
+          journal.flush();
         }
       }
     }
@@ -313,12 +427,37 @@ public void unload() {
     }
   }
 
+  private Map handleEach(int action, Map m, int n) {
+    Map answers = null;
+    long now = System.currentTimeMillis();
+    for (Iterator iter = m.entrySet().iterator();
+        iter.hasNext();
+        ) {
+      Map.Entry me = (Map.Entry) iter.next();
+      String name = (String) me.getKey();
+      Object sendObj = me.getValue();
+      Object answer = handle(action, name, sendObj, now);
+      if (answer == null) {
+        continue;
+      }
+      if (n == 1) {
+        answers = Collections.singletonMap(name, answer);
+      } else {
+        if (answers == null) {
+          answers = new HashMap();
+        }
+        answers.put(name, answer);
+      }
+    }
+    return answers;
+  }
+
   private Object handle(
       int action,
       String name,
       Object sendObj,
       long now) {
-    // assert (Thread.holdsLock(lock));
+    // assert (action == LOOKUP || Thread.holdsLock(lock));
  
     // unwrap
     Object query = sendObj; 
@@ -364,11 +503,34 @@ public void unload() {
     }
   }
 
+  /**
+   * Create an empty directory tree without the services and timers
+   * that load() sets up, for the regression tests.  Only the
+   * logging and uid services are required.
+   */
+  void loadDirectory() {
+    configure(null);
+    rootDir = new DirEntry(uidService.nextUID(), null, ".");
+  }
+
+  /** Lookup as handleAll does, without the lock */
+  Object localLookup(String name, Object query) {
+    return lookup(name, query, System.currentTimeMillis());
+  }
+
+  /** Modify as handleAll does, under the lock but not forwarded */
+  Object localModify(String name, Object query) {
+    synchronized (lock) {
+      return modify(
+          name, query, config.expireTTD, System.currentTimeMillis());
+    }
+  }
+
   private Object lookup(
       String name,
       Object query,
       long now) {
-    // assert (Thread.holdsLock(lock));
+    // called without the lock, see handleAll
 
     // find the closest DirEntry if it exists
     DirEntry dir = findDir(name);
@@ -421,9 +583,10 @@ public void unload() {
         data = null;
       } else {
         // return the data
-        uid = rec.getUID();
+        Value v = rec.getValue();
+        uid = v.uid;
         ttd = config.successTTD;
-        data = rec.getData();
+        data = v.data;
       }
     }
 
@@ -525,6 +688,9 @@ public void unload() {
     } else if (rec == null) {
       // this is a new record and the client passed us the data,
       // so accept it.
+    } else if (rec.restored) {
+      // our record was restored from the journal and may have been
+      // unbound while we were down, so accept the replacement
     } else if (uid.getOwner().equals(queryUID.getOwner())) {
       // same author (node), so compare modification counters.
       if (uid.getId() <= queryUID.getId()) {
@@ -588,6 +754,10 @@ public void unload() {
 
     if (answer != null) {
       // lease is either not known or denied
+      if (dir.isEmpty()) {
+        // we created this dir above
+        removedEntry(dir, now);
+      }
       if (logger.isDetailEnabled()) {
         logger.detail(
             "modify (name="+name+
@@ -606,6 +776,12 @@ public void unload() {
     if (sameUID) {
       // extend an existing lease
       rec.setTTL(ttl);
+      queueExpiration(rec);
+      if (rec.restored) {
+        // renewed, so it's live again
+        rec.restored = false;
+        dir.updateDigest(name, uid);
+      }
     } else if (
         queryData == null ||
         (queryData instanceof Map &&
@@ -621,15 +797,37 @@ public void unload() {
       } else {
         Map entries = dir.getEntries();
         entries.remove(name);
+        if (!rec.restored) {
+          dir.updateDigest(name, uid);
+        }
+        if (journal != null) {
+          journal.unbind(name);
+        }
         // bump dir uid to reflect the removed entry
         //
         // this allows "list" uid-based cache validation
-        dir.setUID(uidService.nextUID());
+        removedEntry(dir, now);
       }
     } else {
-      if (rec == null) {
-        // create the record
-        rec = new RecordEntry(queryUID);
+      boolean isNew = (rec == null);
+      if (isNew) {
+        rec = new RecordEntry(queryUID, name, dir);
+      }
+      rec.setTTL(ttl);
+      rec.setValue(queryUID, queryData);
+      queueExpiration(rec);
+      if (!isNew && !rec.restored) {
+        // replace the old uid in the digest
+        dir.updateDigest(name, uid);
+      }
+      rec.restored = false;
+      dir.updateDigest(name, queryUID);
+      if (journal != null) {
+        journal.bind(name, queryUID, queryData, ttl);
+      }
+      if (isNew) {
+        // add the record after it's filled in, since lookups
+        // don't hold our lock
         Map entries = dir.getEntries();
         entries.put(name, rec);
         // bump dir uid to reflect the added entry
@@ -637,9 +835,6 @@ public void unload() {
         // this allows "list" uid-based cache validation
         dir.setUID(uidService.nextUID());
       }
-      rec.setUID(queryUID);
-      rec.setTTL(ttl);
-      rec.setData(queryData);
     }
 
     answer = new Lease(queryUID, ttd);
@@ -689,6 +884,22 @@ public void unload() {
       Object query,
       long now) {
     // assert (Thread.holdsLock(lock));
+
+    if (query instanceof Digest) {
+      return receiveDigest(name, (Digest) query);
+    }
+
+    if (query instanceof Map) {
+      // records sent in reply to our digest listing
+      Map m = (Map) query;
+      for (Iterator iter = m.entrySet().iterator();
+          iter.hasNext();
+          ) {
+        Map.Entry me = (Map.Entry) iter.next();
+        receiveForward((String) me.getKey(), me.getValue(), now);
+      }
+      return null;
+    }
     
     if (!(query instanceof Forward)) {
       // invalid
@@ -742,6 +953,10 @@ public void unload() {
       long now) {
     // assert (Thread.holdsLock(lock));
 
+    if (query instanceof Digest) {
+      return resendDigest(name, (Digest) query, now);
+    }
+
     // find the lease and send the Record data
     //
     // this is similar to a "lookup" but we only want to find an
@@ -842,10 +1057,7 @@ public void unload() {
     // assert (suffix.startsWith("."));
     // assert (suffix.equals(".") || !suffix.endsWith("."));
 
-    if (rootDir == null) {
-      UID uid = uidService.nextUID();
-      rootDir = new DirEntry(uid);
-    }
+    // created in "load()"
     DirEntry dir = rootDir;
 
     if (isRoot) {
@@ -864,9 +1076,9 @@ public void unload() {
           dir = null;
           break;
         }
-        dir.setUID(uidService.nextUID()); // bump dir uid
-        subdir = new DirEntry(uidService.nextUID());
+        subdir = new DirEntry(uidService.nextUID(), dir, s);
         entries.put(s, subdir);
+        dir.setUID(uidService.nextUID()); // bump dir uid
       }
       // recurse down
       dir = subdir;
@@ -937,6 +1149,14 @@ public void unload() {
         iter.hasNext();
         ) {
       Object o = iter.next();
+      if (o instanceof Map) {
+        // digest reply
+        long ttd = findMaxTTD((Map) o);
+        if (maxTTD < ttd) {
+          maxTTD = ttd;
+        }
+        continue;
+      }
       if (!(o instanceof Forward)) {
         continue;
       }
@@ -1003,9 +1223,8 @@ public void unload() {
       if (forwardQueue.isEmpty()) {
         m = null;
       } else {
-        m = new HashMap(forwardQueue);
-        m = Collections.unmodifiableMap(m);
-        forwardQueue.clear();
+        m = Collections.unmodifiableMap(forwardQueue);
+        forwardQueue = new HashMap();
       }
     }
 
@@ -1021,62 +1240,256 @@ public void unload() {
   }
 
   /**
-   * Find expired leases and remove them. 
+   * Forward the digest of each directory that contains records,
+   * so our peers can detect records they've missed.
+   */
+  private void digestNow() {
+    Map m = new HashMap();
+    synchronized (lock) {
+      addDigests(rootDir, m);
+    }
+
+    if (!m.isEmpty()) {
+      if (logger.isDebugEnabled()) {
+        logger.debug("Forwarding digests["+m.size()+"]: "+m);
+      }
+      forwardService.forward(
+          Collections.unmodifiableMap(m),
+          config.digestPeriod);
+    }
+
+    // run me again later
+    digestThread.schedule(config.digestPeriod);
+  }
+
+  /** @note recursive! */
+  private void addDigests(DirEntry dir, Map m) {
+    // assert (Thread.holdsLock(lock));
+    long hash = dir.getDigest();
+    if (hash != 0) {
+      m.put(dir.suffix, new Digest(hash, null));
+    }
+    for (Iterator iter = dir.getEntries().values().iterator();
+        iter.hasNext();
+        ) {
+      Object o = iter.next();
+      if (o instanceof DirEntry) {
+        addDigests((DirEntry) o, m);
+      }
+    }
+  }
+
+  /**
+   * Compare a peer's directory digest with our own.
    *
-   * @note recursive!
-   */ 
-  private boolean expireLeases(
-      String suffix,
-      DirEntry dir,
-      long now) {
+   * @return null if they match, otherwise a Digest with our
+   * listing, which the peer will use to forward the records we lack
+   */
+  private Object receiveDigest(String name, Digest digest) {
     // assert (Thread.holdsLock(lock));
+    if (name.charAt(0) != '.') {
+      return null;
+    }
+    DirEntry dir = findDir(name);
+    long hash = (dir == null ? 0 : dir.getDigest());
+    if (hash == digest.getHash()) {
+      return null;
+    }
+    Map listing = new HashMap();
+    if (dir != null) {
+      for (Iterator iter = dir.getEntries().entrySet().iterator();
+          iter.hasNext();
+          ) {
+        Map.Entry me = (Map.Entry) iter.next();
+        Object value = me.getValue();
+        if (value instanceof RecordEntry &&
+            !((RecordEntry) value).restored) {
+          // leave out restored records, so the peer resends any
+          // that it still has
+          listing.put(me.getKey(), ((RecordEntry) value).getUID());
+        }
+      }
+    }
+    if (logger.isDebugEnabled()) {
+      logger.debug(
+          "Digest mismatch for directory "+name+
+          ", local="+Long.toHexString(hash)+
+          " peer="+digest+", sending listing["+listing.size()+"]");
+    }
+    return new Digest(hash, listing);
+  }
 
-    boolean hasChanged = false;
-    Map entries = dir.getEntries();
-    for (Iterator iter = entries.entrySet().iterator();
+  /**
+   * Answer a peer's directory listing with the records that it lacks
+   * or has with a different uid.
+   *
+   * @return a Map of record names to Forwards, or null
+   */
+  private Object resendDigest(String name, Digest digest, long now) {
+    // assert (Thread.holdsLock(lock));
+    Map listing = digest.getListing();
+    if (listing == null || name.charAt(0) != '.') {
+      return null;
+    }
+    DirEntry dir = findDir(name);
+    if (dir == null) {
+      return null;
+    }
+    Map m = null;
+    for (Iterator iter = dir.getEntries().entrySet().iterator();
         iter.hasNext();
         ) {
       Map.Entry me = (Map.Entry) iter.next();
-      String name = (String) me.getKey();
       Object value = me.getValue();
-      if (value instanceof DirEntry) {
-        // recurse!
-        DirEntry subdir = (DirEntry) value;
-        expireLeases(name, subdir, now);
-        if (subdir.isEmpty()) {
-          // all expired
-          iter.remove();
-          hasChanged = true;
-          if (logger.isInfoEnabled()) {
-            logger.info("Expired "+subdir.toString(now));
-          }
-        }
-      } else if (value instanceof RecordEntry) {
-        RecordEntry re = (RecordEntry) value;
-        long ttl = re.getTTL();
-        if (ttl < now) {
-          // expired
-          iter.remove();
-          hasChanged = true;
-          if (logger.isInfoEnabled()) {
-            logger.info("Expired "+re.toString(now));
-          }
-        } else {
-          // okay for now
-        }
-      } else {
-        throw new RuntimeException(
-            "Unexpected DirEntry element: ("+name+"="+value+")");
+      if (!(value instanceof RecordEntry)) {
+        continue;
+      }
+      RecordEntry rec = (RecordEntry) value;
+      if (rec.restored) {
+        // may have been unbound or expired while we were down
+        continue;
       }
+      UID uid = rec.getUID();
+      long ttd = rec.getTTL() - now;
+      if (ttd <= 0 || uid.equals(listing.get(me.getKey()))) {
+        continue;
+      }
+      Lease lease = new Lease(uid, ttd);
+      Record record = new Record(uid, -1, rec.getData());
+      if (m == null) {
+        m = new HashMap();
+      }
+      m.put(me.getKey(), new Forward(lease, record));
+    }
+    if (logger.isDebugEnabled()) {
+      logger.debug(
+          "Resending "+(m == null ? 0 : m.size())+
+          " records in directory "+name+
+          " for peer "+digest);
     }
+    return m;
+  }
 
-    if (hasChanged && !dir.isEmpty()) {
-      // changed the dir "list" contents, so we must change
-      // the dir's uid.
-      dir.setUID(uidService.nextUID());
+  /**
+   * Record the replication lag of a forward from a peer.
+   */
+  private void updateLag(MessageAddress addr, long sendTime) {
+    // assert (Thread.holdsLock(lock));
+    long lag = System.currentTimeMillis() - sendTime;
+    if (lag < 0) {
+      // clock skew
+      lag = 0;
+    }
+    MessageAddress a = addr.getPrimary();
+    long[] stats = (long[]) peerLags.get(a);
+    if (stats == null) {
+      stats = new long[3];
+      peerLags.put(a, stats);
+    }
+    stats[0] = lag;
+    if (stats[1] < lag) {
+      stats[1] = lag;
     }
+    stats[2]++;
+    if (maxLag < lag) {
+      maxLag = lag;
+    }
+    if (logger.isDetailEnabled()) {
+      logger.detail(
+          "Forward from "+a+" lag="+lag+
+          " max="+stats[1]+" count="+stats[2]);
+    }
+    MetricsUpdateService mus = metricsUpdateService;
+    if (mus != null) {
+      updateMetric(mus, WP_SERVER_REPLICATION_LAG, lag);
+      updateMetric(mus, WP_SERVER_MAX_REPLICATION_LAG, maxLag);
+    }
+  }
+
+  private void updateMetric(MetricsUpdateService mus, String name, long value) {
+    Metric metric = new MetricImpl(
+        new Long(value),
+        Constants.SECOND_MEAS_CREDIBILITY,
+        "ms",
+        "WhitePagesServer");
+    mus.updateValue(name, metric);
+  }
 
-    return hasChanged;
+  /**
+   * Queue a record for expiration, or requeue it if its TTL has
+   * been shortened.
+   */
+  private void queueExpiration(RecordEntry rec) {
+    // assert (Thread.holdsLock(lock));
+    long ttl = rec.getTTL();
+    if (rec.queued) {
+      if (rec.queuedTTL <= ttl) {
+        // we'll requeue it when the queued time comes due
+        return;
+      }
+      // rare, since ttls are usually extended
+      expirations.remove(rec);
+    }
+    rec.queuedTTL = ttl;
+    rec.queued = true;
+    expirations.add(rec);
+  }
+
+  /**
+   * Called after an entry has been removed from a directory.
+   * <p>
+   * If the directory is now empty then it's removed from its parent,
+   * and likewise for its parent.  The uid of the closest remaining
+   * directory is changed to reflect the removal, which allows "list"
+   * uid-based cache validation.
+   */
+  private void removedEntry(DirEntry dir, long now) {
+    // assert (Thread.holdsLock(lock));
+    DirEntry d = dir;
+    while (d.isEmpty() && d.parent != null) {
+      d.parent.getEntries().remove(d.suffix);
+      if (logger.isInfoEnabled()) {
+        logger.info("Removed empty "+d.toString(now));
+      }
+      d = d.parent;
+    }
+    d.setUID(uidService.nextUID());
+  }
+
+  /**
+   * Remove the records that have expired.
+   */
+  private void expireLeases(long now) {
+    // assert (Thread.holdsLock(lock));
+    while (true) {
+      RecordEntry rec = expirations.peek();
+      if (rec == null || now <= rec.queuedTTL) {
+        break;
+      }
+      expirations.poll();
+      rec.queued = false;
+      Map entries = rec.dir.getEntries();
+      if (entries.get(rec.name) != rec) {
+        // unbound
+        continue;
+      }
+      if (now <= rec.getTTL()) {
+        // renewed
+        queueExpiration(rec);
+        continue;
+      }
+      entries.remove(rec.name);
+      if (!rec.restored) {
+        rec.dir.updateDigest(rec.name, rec.getUID());
+      }
+      if (journal != null) {
+        journal.unbind(rec.name);
+      }
+      if (logger.isInfoEnabled()) {
+        logger.info("Expired "+rec.toString(now));
+      }
+      removedEntry(rec.dir, now);
+    }
   }
 
   private void expireLeases() {
@@ -1096,13 +1509,96 @@ public void unload() {
         logger.detail(buf.toString());
       }
 
-      expireLeases(".", dir, now);
+      expireLeases(now);
+
+      if (journal != null) {
+        journal.flush();
+      }
     }
 
     // run me again later
     expireThread.schedule(config.checkExpirePeriod);
   }
 
+  /**
+   * Restore the journaled records into our empty directory tree.
+   * <p>
+   * Renewals aren't journaled, so each record is given at least
+   * the expireTTD to be renewed by its client.  A restored record
+   * answers lookups but is left out of our digests and resends,
+   * since it may have been unbound or expired while we were down.
+   * It's counted again once its client renews it or a peer forwards
+   * it, and otherwise it expires.
+   */
+  private void restore() {
+    // assert (Thread.holdsLock(lock));
+    Map bindings;
+    try {
+      bindings = journal.load();
+    } catch (IOException ioe) {
+      if (logger.isErrorEnabled()) {
+        logger.error("Unable to load the white pages journal", ioe);
+      }
+      journal = null;
+      return;
+    }
+    long now = System.currentTimeMillis();
+    long minTTL = now + config.expireTTD;
+    for (Iterator iter = bindings.values().iterator();
+        iter.hasNext();
+        ) {
+      ServerJournal.Binding b = (ServerJournal.Binding) iter.next();
+      DirEntry dir = findOrCreateDir(b.name);
+      RecordEntry rec = new RecordEntry(b.uid, b.name, dir);
+      rec.setTTL(Math.max(b.ttl, minTTL));
+      rec.setValue(b.uid, b.data);
+      rec.restored = true;
+      queueExpiration(rec);
+      dir.getEntries().put(b.name, rec);
+      dir.setUID(uidService.nextUID());
+    }
+  }
+
+  /**
+   * Start a new journal and write a snapshot of our records.
+   */
+  private void snapshotNow() {
+    int k;
+    List bindings = new ArrayList();
+    synchronized (lock) {
+      if (journal == null) {
+        return;
+      }
+      k = journal.rotate();
+      addBindings(rootDir, bindings);
+    }
+
+    // write the snapshot without blocking modifies
+    journal.writeSnapshot(k, bindings);
+
+    // run me again later
+    snapshotThread.schedule(config.snapshotPeriod);
+  }
+
+  /** @note recursive! */
+  private void addBindings(DirEntry dir, List l) {
+    // assert (Thread.holdsLock(lock));
+    for (Iterator iter = dir.getEntries().values().iterator();
+        iter.hasNext();
+        ) {
+      Object o = iter.next();
+      if (o instanceof DirEntry) {
+        addBindings((DirEntry) o, l);
+      } else {
+        RecordEntry rec = (RecordEntry) o;
+        Value v = rec.getValue();
+        l.add(
+            new ServerJournal.Binding(
+              rec.name, v.uid, v.data, rec.getTTL()));
+      }
+    }
+  }
+
   /** implement all the various client APIs */
   private class MyClient
     implements
@@ -1140,6 +1636,9 @@ public void unload() {
     public final long expireTTD;
     public final long forwardPeriod;
     public final long checkExpirePeriod;
+    public final long digestPeriod;
+    public final boolean journal;
+    public final long snapshotPeriod;
     public RootConfig(Object o) {
       Parameters p = 
         new Parameters(o, "org.cougaar.core.wp.server.");
@@ -1148,29 +1647,15 @@ public void unload() {
       expireTTD = p.getLong("expireTTD", 240000);
       forwardPeriod = p.getLong("forwardPeriod", 30000);
       checkExpirePeriod = p.getLong("checkExpirePeriod", 30000);
+      digestPeriod = p.getLong("digestPeriod", 300000);
+      journal = p.getBoolean("journal", false);
+      snapshotPeriod = p.getLong("snapshotPeriod", 600000);
     }
   }
 
   private static abstract class Entry {
-    private UID uid;
 
-    public Entry(UID uid) {
-      _setUID(uid);
-    }
-
-    private void _setUID(UID uid) {
-      if (uid == null) {
-        throw new IllegalArgumentException("null uid");
-      }
-      this.uid = uid;
-    }
-
-    public void setUID(UID uid) {
-      _setUID(uid);
-    }
-    public UID getUID() {
-      return uid;
-    }
+    public abstract UID getUID();
 
     @Override
    public String toString() {
@@ -1183,6 +1668,18 @@ public void unload() {
 
   private static class DirEntry extends Entry {
 
+    // our parent dir and our key in its entries, or null
+    // and "." for the root dir
+    public final DirEntry parent;
+    public final String suffix;
+
+    // volatile for lock-free lookups
+    private volatile UID uid;
+
+    // the XOR of our records' Digest.hash values, guarded by the
+    // lock
+    private long digest;
+
     // the child entries, which can be a mix of
     // dir-entries and record-entries.
     //
@@ -1191,10 +1688,37 @@ public void unload() {
     // with a '.'.
     //
     // <String, Entry>
-    private final Map entries = new HashMap();
+    //
+    // Lookups read this map without holding the lock, so it's a
+    // ConcurrentHashMap.  Writers must modify the entries before
+    // changing our uid, and lookups must read our uid before the
+    // entries, so a lookup never pairs a new uid with old
+    // entries.
+    private final Map entries = new ConcurrentHashMap();
+
+    public DirEntry(UID uid, DirEntry parent, String suffix) {
+      setUID(uid);
+      this.parent = parent;
+      this.suffix = suffix;
+    }
+
+    public void setUID(UID uid) {
+      if (uid == null) {
+        throw new IllegalArgumentException("null uid");
+      }
+      this.uid = uid;
+    }
+    @Override
+    public UID getUID() {
+      return uid;
+    }
 
-    public DirEntry(UID uid) {
-      super(uid);
+    public long getDigest() {
+      return digest;
+    }
+    /** Add or remove a record from our digest */
+    public void updateDigest(String name, UID uid) {
+      digest ^= Digest.hash(name, uid);
     }
 
     public boolean isEmpty() {
@@ -1263,13 +1787,38 @@ public void unload() {
     }
   }
 
-  private static class RecordEntry extends Entry {
+  private static class RecordEntry
+    extends Entry
+    implements Comparable<RecordEntry> {
+
+    // our name and dir, for expiration
+    public final String name;
+    public final DirEntry dir;
+
+    // the uid and data, replaced together so lock-free lookups
+    // see a consistent pair
+    private volatile Value value;
+    private volatile long ttl;
 
-    private long ttl;
-    private Object data;
+    // our position in the expiration queue
+    public boolean queued;
+    public long queuedTTL;
 
-    public RecordEntry(UID uid) {
-      super(uid);
+    // true if restored from the journal and not yet renewed or
+    // forwarded to us, in which case we're not in the digest
+    public boolean restored;
+
+    public RecordEntry(UID uid, String name, DirEntry dir) {
+      setValue(uid, null);
+      this.name = name;
+      this.dir = dir;
+    }
+
+    public int compareTo(RecordEntry r) {
+      return
+        (queuedTTL < r.queuedTTL ? -1 :
+         queuedTTL == r.queuedTTL ? 0 :
+         1);
     }
 
     public void setTTL(long ttl) {
@@ -1279,20 +1828,40 @@ public void unload() {
       return ttl;
     }
 
-    public void setData(Object data) {
-      this.data = data;
+    public void setValue(UID uid, Object data) {
+      if (uid == null) {
+        throw new IllegalArgumentException("null uid");
+      }
+      value = new Value(uid, data);
+    }
+    public Value getValue() {
+      return value;
+    }
+    @Override
+    public UID getUID() {
+      return value.uid;
     }
     public Object getData() {
-      return data;
+      return value.data;
     }
 
     @Override
    public String toString(long now) {
+      Value v = value;
       return 
-        "(record uid="+getUID()+
+        "(record uid="+v.uid+
         " ttl="+Timestamp.toString(ttl, now)+
-        " data="+data+
+        " data="+v.data+
         ")";
     }
   }
+
+  private static final class Value {
+    public final UID uid;
+    public final Object data;
+    public Value(UID uid, Object data) {
+      this.uid = uid;
+      this.data = data;
+    }
+  }
 }
@@ -0,0 +1,408 @@
+/*
+ * <copyright>
+ *  
+ *  Copyright 2002-2004 BBNT Solutions, LLC
+ *  under sponsorship of the Defense Advanced Research Projects
+ *  Agency (DARPA).
+ * 
+ *  You can redistribute this software and/or modify it under the
+ *  terms of the Cougaar Open Source License as published on the
+ *  Cougaar Open Source Website (www.cougaar.org).
+ * 
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *  
+ * </copyright>
+ */
+
+
+package org.cougaar.core.wp.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.cougaar.bootstrap.SystemProperties;
+import org.cougaar.core.service.LoggingService;
+import org.cougaar.core.util.UID;
+
+/**
+ * An append-only journal and periodic snapshot of the
+ * {@link RootAuthority}'s records, so a restarted server can
+ * serve lookups immediately and only needs its peers to fill in
+ * the recent changes.
+ * <p>
+ * The files follow the FilePersistence layout: they're kept in
+ * the agent's directory under the persistence root, in a "wp"
+ * subdirectory, and are written to a temporary file that's renamed
+ * when complete.  Snapshot <i>k</i> holds the records as of the
+ * start of journal <i>k</i>, so a server restores the newest
+ * snapshot and then replays that journal and any later journals.
+ * Older files are deleted once a newer snapshot is renamed into
+ * place.
+ * <p>
+ * Lease renewals are not journaled, since they're far more common
+ * than binds and unbinds.  The caller is expected to extend the
+ * restored leases to give clients a chance to renew them.
+ * <p>
+ * The append, flush and rotate methods must be called under the
+ * server's lock, while the snapshot is written outside the lock.
+ */
+final class ServerJournal {
+
+  private static final String SNAPSHOT = "snapshot";
+  private static final String JOURNAL = "journal";
+  private static final String NEWSNAPSHOT = "newSnapshot";
+
+  private final File dir;
+  private final LoggingService logger;
+
+  // the current journal number and stream
+  private int journalNumber;
+  private ObjectOutputStream journal;
+  private int appended;
+
+  public ServerJournal(String agentName, LoggingService logger) {
+    this.dir = new File(new File(getPersistenceRoot(), agentName), "wp");
+    this.logger = logger;
+  }
+
+  /** @see org.cougaar.core.persist.FilePersistenceBase */
+  private static File getPersistenceRoot() {
+    String installPath =
+      SystemProperties.getProperty("org.cougaar.install.path", "/tmp");
+    File workspaceDirectory =
+      new File(SystemProperties.getProperty(
+            "org.cougaar.workspace", installPath + "/workspace"));
+    return new File(
+        workspaceDirectory,
+        SystemProperties.getProperty(
+          "org.cougaar.core.persistence.path", "P"));
+  }
+
+  /**
+   * Read the newest snapshot and replay the journals, then start a
+   * new journal.
+   *
+   * @return a Map of record names to their {@link Binding}s
+   */
+  public Map load() throws IOException {
+    dir.mkdirs();
+    if (!dir.isDirectory()) {
+      throw new IOException("Not a directory: "+dir);
+    }
+
+    int snapshotNumber = -1;
+    List journalNumbers = new ArrayList();
+    String[] names = dir.list();
+    for (int i = 0; i < names.length; i++) {
+      String s = names[i];
+      if (s.startsWith(SNAPSHOT)) {
+        int k = parseNumber(s, SNAPSHOT);
+        if (snapshotNumber < k) {
+          snapshotNumber = k;
+        }
+      } else if (s.startsWith(JOURNAL)) {
+        int k = parseNumber(s, JOURNAL);
+        if (0 <= k) {
+          journalNumbers.add(new Integer(k));
+        }
+      }
+    }
+
+    Map bindings = new HashMap();
+    if (0 <= snapshotNumber) {
+      readSnapshot(getFile(SNAPSHOT, snapshotNumber), bindings);
+    }
+    Object[] a = journalNumbers.toArray();
+    Arrays.sort(a);
+    int maxNumber = snapshotNumber;
+    for (int i = 0; i < a.length; i++) {
+      int k = ((Integer) a[i]).intValue();
+      if (k < snapshotNumber) {
+        // left over from an interrupted cleanup
+        continue;
+      }
+      readJournal(getFile(JOURNAL, k), bindings);
+      maxNumber = k;
+    }
+
+    if (logger.isInfoEnabled()) {
+      logger.info(
+          "Restored "+bindings.size()+" white pages records from "+dir+
+          (snapshotNumber < 0 ? "" : ", snapshot "+snapshotNumber)+
+          ", "+a.length+" journal(s)");
+    }
+
+    // never append to an existing journal, since a crash may have
+    // left a partial entry at its end
+    openJournal(maxNumber + 1);
+
+    return bindings;
+  }
+
+  /** Journal a new or replaced record. */
+  public void bind(String name, UID uid, Object data, long ttl) {
+    append(new Binding(name, uid, data, ttl));
+  }
+
+  /** Journal an unbound or expired record. */
+  public void unbind(String name) {
+    append(new Binding(name, null, null, 0));
+  }
+
+  private void append(Binding b) {
+    // assert (Thread.holdsLock(lock));
+    if (journal == null) {
+      return;
+    }
+    try {
+      journal.writeObject(b);
+      ++appended;
+    } catch (IOException ioe) {
+      failed("Unable to append to journal "+journalNumber, ioe);
+    }
+  }
+
+  /**
+   * Flush the appended entries, which the server does before it
+   * answers a batch of modifies.
+   */
+  public void flush() {
+    // assert (Thread.holdsLock(lock));
+    if (journal == null || appended == 0) {
+      return;
+    }
+    try {
+      // reset to release the stream's references to the records
+      journal.reset();
+      journal.flush();
+      appended = 0;
+    } catch (IOException ioe) {
+      failed("Unable to flush journal "+journalNumber, ioe);
+    }
+  }
+
+  /**
+   * Start a new journal.  The caller must then pass a snapshot of
+   * the current records to {@link #writeSnapshot}.
+   *
+   * @return the new journal number
+   */
+  public int rotate() {
+    // assert (Thread.holdsLock(lock));
+    if (journal == null) {
+      return -1;
+    }
+    flush();
+    closeJournal();
+    openJournal(journalNumber + 1);
+    return journalNumber;
+  }
+
+  /**
+   * Write the snapshot of the records as of the start of the
+   * numbered journal, then delete the older files.
+   *
+   * @param bindings a List of {@link Binding}s
+   */
+  public void writeSnapshot(int k, List bindings) {
+    if (k < 0) {
+      return;
+    }
+    File tempFile = new File(dir, NEWSNAPSHOT);
+    File snapshotFile = getFile(SNAPSHOT, k);
+    try {
+      ObjectOutputStream os =
+        new ObjectOutputStream(
+            new BufferedOutputStream(
+              new FileOutputStream(tempFile)));
+      try {
+        os.writeInt(bindings.size());
+        for (int i = 0, n = bindings.size(); i < n; i++) {
+          os.writeObject(bindings.get(i));
+        }
+      } finally {
+        os.close();
+      }
+      if (!tempFile.renameTo(snapshotFile)) {
+        throw new IOException(
+            "Failed to rename "+tempFile+" to "+snapshotFile);
+      }
+    } catch (IOException ioe) {
+      if (logger.isErrorEnabled()) {
+        logger.error("Unable to write snapshot "+k, ioe);
+      }
+      return;
+    }
+
+    // delete older snapshots and journals
+    String[] names = dir.list();
+    for (int i = 0; i < names.length; i++) {
+      String s = names[i];
+      int j =
+        (s.startsWith(SNAPSHOT) ? parseNumber(s, SNAPSHOT) :
+         s.startsWith(JOURNAL) ? parseNumber(s, JOURNAL) :
+         -1);
+      if (0 <= j && j < k) {
+        new File(dir, s).delete();
+      }
+    }
+
+    if (logger.isDebugEnabled()) {
+      logger.debug(
+          "Wrote snapshot "+k+" of "+bindings.size()+" records");
+    }
+  }
+
+  public void close() {
+    // assert (Thread.holdsLock(lock));
+    flush();
+    closeJournal();
+  }
+
+  private void openJournal(int k) {
+    journalNumber = k;
+    try {
+      journal =
+        new ObjectOutputStream(
+            new BufferedOutputStream(
+              new FileOutputStream(getFile(JOURNAL, k))));
+      journal.flush();
+    } catch (IOException ioe) {
+      failed("Unable to open journal "+k, ioe);
+    }
+  }
+
+  private void closeJournal() {
+    if (journal == null) {
+      return;
+    }
+    try {
+      journal.close();
+    } catch (IOException ioe) {
+      if (logger.isWarnEnabled()) {
+        logger.warn("Unable to close journal "+journalNumber, ioe);
+      }
+    }
+    journal = null;
+  }
+
+  private void failed(String msg, IOException ioe) {
+    // stop journaling rather than record a partial history
+    if (logger.isErrorEnabled()) {
+      logger.error(msg+", disabling the journal", ioe);
+    }
+    journal = null;
+  }
+
+  private void readSnapshot(File f, Map bindings) throws IOException {
+    ObjectInputStream is =
+      new ObjectInputStream(
+          new BufferedInputStream(
+            new FileInputStream(f)));
+    try {
+      int n = is.readInt();
+      for (int i = 0; i < n; i++) {
+        Binding b = (Binding) is.readObject();
+        bindings.put(b.name, b);
+      }
+    } catch (ClassNotFoundException cnfe) {
+      IOException ioe = new IOException("Invalid snapshot "+f);
+      ioe.initCause(cnfe);
+      throw ioe;
+    } finally {
+      is.close();
+    }
+  }
+
+  private void readJournal(File f, Map bindings) {
+    int n = 0;
+    ObjectInputStream is = null;
+    try {
+      is = 
+        new ObjectInputStream(
+            new BufferedInputStream(
+              new FileInputStream(f)));
+      while (true) {
+        Binding b = (Binding) is.readObject();
+        if (b.uid == null) {
+          bindings.remove(b.name);
+        } else {
+          bindings.put(b.name, b);
+        }
+        ++n;
+      }
+    } catch (EOFException eofe) {
+      // end of journal
+    } catch (Exception e) {
+      // a partial entry from a crash, keep what we've read
+      if (logger.isWarnEnabled()) {
+        logger.warn(
+            "Truncated journal "+f+" after "+n+" entries: "+e);
+      }
+    } finally {
+      if (is != null) {
+        try {
+          is.close();
+        } catch (IOException ioe) {
+        }
+      }
+    }
+  }
+
+  private File getFile(String prefix, int k) {
+    // DecimalFormat isn't thread-safe, so don't share one
+    DecimalFormat format = new DecimalFormat("_00000");
+    return new File(dir, prefix + format.format(k));
+  }
+
+  private static int parseNumber(String s, String prefix) {
+    // see getFile
+    try {
+      return Integer.parseInt(s.substring(prefix.length() + 1));
+    } catch (RuntimeException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * A journaled record, where a null uid marks an unbind.
+   */
+  static final class Binding implements Serializable {
+    private static final long serialVersionUID = 1L;
+    public final String name;
+    public final UID uid;
+    public final Object data;
+    public final long ttl;
+    public Binding(String name, UID uid, Object data, long ttl) {
+      this.name = name;
+      this.uid = uid;
+      this.data = data;
+      this.ttl = ttl;
+    }
+  }
+}
@@ -45,6 +45,7 @@ import org.cougaar.core.component.ServiceBroker;
 import org.cougaar.core.mts.Message;
 import org.cougaar.core.mts.MessageAddress;
 import org.cougaar.core.mts.MessageHandler;
+import org.cougaar.core.mts.TypedMessageHandler;
 import org.cougaar.core.service.AgentIdentificationService;
 import org.cougaar.core.service.LoggingService;
 import org.cougaar.core.service.ThreadService;
@@ -459,7 +460,10 @@ public void unload() {
       return;
     }
     MessageHandler myMessageHandler =
-      new MessageHandler() {
+      new TypedMessageHandler() {
+        public Class getMessageClass() {
+          return WhitePagesMessage.class;
+        }
         public boolean handleMessage(Message m) {
           return receive(m);
         }